@@ -0,0 +1,60 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.videointelligence.v1p3beta1.ExplicitContentFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.SortedSet;
+
+/**
+ * Assigning the likelihood for explicit content of the frames to the scenes
+ */
+@State(Scope.Benchmark)
+public class ExplicitContentBenchmark {
+
+    @Param({"10", "100", "500"})
+    public int labelCount;
+
+    @Param({"1", "10"})
+    public int segmentCount;
+
+    @Param({"5", "90"})
+    public int videoMinutes;
+
+    private SceneTimeline timeline;
+    private SortedSet<Scene> scenes;
+    private List<ExplicitContentFrame> frames;
+
+
+    @Setup
+    public void setUp() {
+        timeline = SceneMerger.merge(
+                SyntheticAnnotations.labelAnnotations(labelCount, segmentCount, videoMinutes, 42));
+        scenes = timeline.toScenes();
+        frames = SyntheticAnnotations.explicitContentFrames(videoMinutes, 42);
+    }
+
+    @Benchmark
+    public SceneTimeline assign() {
+        ExplicitContentAssigner.assign(timeline, frames);
+        return timeline;
+    }
+
+    /**
+     * Check every frame against every scene
+     */
+    @Benchmark
+    public void updateExplicitContentLikelihoodIfContains(Blackhole blackhole) {
+        for (Scene scene : scenes) {
+            for (ExplicitContentFrame frame : frames) {
+                blackhole.consume(scene.updateExplicitContentLikelihoodIfContains(frame));
+            }
+        }
+    }
+
+}
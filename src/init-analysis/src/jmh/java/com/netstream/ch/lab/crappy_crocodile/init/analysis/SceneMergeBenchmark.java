@@ -0,0 +1,74 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.videointelligence.v1p3beta1.LabelAnnotation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Merging the label segments into a timeline of scenes
+ */
+@State(Scope.Benchmark)
+public class SceneMergeBenchmark {
+
+    @Param({"10", "100", "500"})
+    public int labelCount;
+
+    @Param({"1", "10"})
+    public int segmentCount;
+
+    @Param({"5", "90"})
+    public int videoMinutes;
+
+    private List<LabelAnnotation> annotations;
+    private List<Scene> labelScenes;
+
+
+    @Setup
+    public void setUp() {
+        annotations = SyntheticAnnotations.labelAnnotations(labelCount, segmentCount, videoMinutes, 42);
+        labelScenes = new ArrayList<>();
+        for (LabelAnnotation annotation : annotations) {
+            labelScenes.addAll(Scene.from(annotation));
+        }
+        labelScenes.sort(null);
+    }
+
+    @Benchmark
+    public SceneTimeline merge() {
+        return SceneMerger.merge(annotations);
+    }
+
+    @Benchmark
+    public SortedSet<Scene> sceneFrom() {
+        return Scene.from(annotations);
+    }
+
+    /**
+     * Split and merge each scene of a label with the next (overlapping) one
+     */
+    @Benchmark
+    public void splitAndMergeOverlapping(Blackhole blackhole) {
+        for (int i = 1; i < labelScenes.size(); i++) {
+            final Scene original = labelScenes.get(i - 1);
+            final Scene scene = labelScenes.get(i);
+            if (original.overlaps(scene) && scene.startsWithin(original)) {
+                final SortedSet<Scene> originalSplit = original.split(scene.getStart());
+                final SortedSet<Scene> split = scene.endsWithin(original)
+                        ? new TreeSet<>(Collections.singleton(scene))
+                        : scene.split(original.getEnd());
+                blackhole.consume(Scene.mergeOverlapping(original, originalSplit, scene, split));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.videointelligence.v1p3beta1.ExplicitContentFrame;
+import com.google.cloud.videointelligence.v1p3beta1.LabelAnnotation;
+import com.google.cloud.videointelligence.v1p3beta1.LabelSegment;
+import com.google.cloud.videointelligence.v1p3beta1.Likelihood;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates (reproducible) annotations resembling the responses of the Video Intelligence API
+ */
+class SyntheticAnnotations {
+
+    private static final int CATEGORY_COUNT = 20;
+    private static final int MAX_SEGMENT_SECONDS = 30;
+
+    private SyntheticAnnotations() {
+    }
+
+    /**
+     * @param labelCount number of distinct labels
+     * @param segmentCount number of segments per label
+     * @param videoMinutes length of the video
+     */
+    static List<LabelAnnotation> labelAnnotations(int labelCount, int segmentCount, int videoMinutes, long seed) {
+        final Random random = new Random(seed);
+        final int videoSeconds = videoMinutes * 60;
+        final List<LabelAnnotation> annotations = new ArrayList<>(labelCount);
+        for (int label = 0; label < labelCount; label++) {
+            final LabelSegment[] segments = new LabelSegment[segmentCount];
+            for (int segment = 0; segment < segmentCount; segment++) {
+                final double length = 1 + random.nextDouble() * MAX_SEGMENT_SECONDS;
+                final double start = random.nextDouble() * Math.max(1, videoSeconds - length);
+                segments[segment] = LabelAnnotations.segment(start, start + length, 0.3f + random.nextFloat() * 0.7f);
+            }
+            final LabelAnnotation.Builder annotation = LabelAnnotations
+                    .annotation("label " + label, "category " + (label % CATEGORY_COUNT), segments)
+                    .toBuilder();
+            annotation.getEntityBuilder().setEntityId("/m/" + Integer.toString(label, 36));
+            annotations.add(annotation.build());
+        }
+        return annotations;
+    }
+
+    /**
+     * @return one frame per second of the video (like the explicit content detection)
+     */
+    static List<ExplicitContentFrame> explicitContentFrames(int videoMinutes, long seed) {
+        final Random random = new Random(seed);
+        final List<ExplicitContentFrame> frames = new ArrayList<>(videoMinutes * 60);
+        for (int second = 0; second < videoMinutes * 60; second++) {
+            frames.add(ExplicitContentFrame.newBuilder()
+                    .setTimeOffset(LabelAnnotations.duration(second + random.nextInt(1_000_000_000) / 1e9))
+                    .setPornographyLikelihood(Likelihood.forNumber(1 + random.nextInt(5)))
+                    .build());
+        }
+        return frames;
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Writing the text and emoji tracks of a timeline (to a writer discarding the output), one at a time
+ * or all of them (in all formats) in a single pass
+ */
+@State(Scope.Benchmark)
+public class TrackExportBenchmark {
+
+    @Param({"10", "100", "500"})
+    public int labelCount;
+
+    @Param({"1", "10"})
+    public int segmentCount;
+
+    @Param({"5", "90"})
+    public int videoMinutes;
+
+    private SceneTimeline timeline;
+    private EmojiConverter emojiConverter;
+
+
+    @Setup
+    public void setUp() {
+        timeline = SceneMerger.merge(
+                SyntheticAnnotations.labelAnnotations(labelCount, segmentCount, videoMinutes, 42));
+        ExplicitContentAssigner.assign(timeline, SyntheticAnnotations.explicitContentFrames(videoMinutes, 42));
+        emojiConverter = new StaticEmojiConverter();
+    }
+
+    @Benchmark
+    public Writer exportTextTrack() throws IOException {
+        final Writer out = Writer.nullWriter();
+        try (WebVttWriter writer = new WebVttWriter(out)) {
+            timeline.writeTextTrack(writer, true);
+        }
+        return out;
+    }
+
+    @Benchmark
+    public Writer exportEmojiTrack() throws IOException {
+        final Writer out = Writer.nullWriter();
+        try (WebVttWriter writer = new WebVttWriter(out)) {
+            timeline.writeEmojiTrack(writer, emojiConverter);
+        }
+        return out;
+    }
+
+    @Benchmark
+    public List<TrackWriter> exportAllTracks() throws IOException {
+        // every writer closes its own (discarding) writer
+        final List<TrackWriter> textTracks = new ArrayList<>();
+        final List<TrackWriter> emojiTracks = new ArrayList<>();
+        for (TrackFormat format : TrackFormat.values()) {
+            textTracks.add(format.create(Writer.nullWriter()));
+            emojiTracks.add(format.create(Writer.nullWriter()));
+        }
+        try (TrackWriter textTrack = new MultiTrackWriter(textTracks);
+             TrackWriter emojiTrack = new MultiTrackWriter(emojiTracks)) {
+            timeline.writeTracks(textTrack, true, emojiTrack, emojiConverter);
+        }
+        return textTracks;
+    }
+
+    /**
+     * Converter answering every look-up right away (so only the export itself is measured)
+     */
+    private static class StaticEmojiConverter extends EmojiConverter {
+
+        private static final CompletableFuture<String> EMOJI = CompletableFuture.completedFuture("🐊");
+
+        @Override
+        protected CompletableFuture<String> findEmojiAsync(String label) {
+            return EMOJI;
+        }
+    }
+
+}
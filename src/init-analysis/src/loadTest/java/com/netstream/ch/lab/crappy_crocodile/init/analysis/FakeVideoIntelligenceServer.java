@@ -0,0 +1,155 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.videointelligence.v1p3beta1.AnnotateVideoProgress;
+import com.google.cloud.videointelligence.v1p3beta1.AnnotateVideoRequest;
+import com.google.cloud.videointelligence.v1p3beta1.AnnotateVideoResponse;
+import com.google.cloud.videointelligence.v1p3beta1.VideoAnnotationProgress;
+import com.google.cloud.videointelligence.v1p3beta1.VideoIntelligenceServiceGrpc;
+import com.google.longrunning.GetOperationRequest;
+import com.google.longrunning.Operation;
+import com.google.longrunning.OperationsGrpc;
+import com.google.protobuf.Any;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Fake of the Video Intelligence API, answering the annotation requests with recorded responses
+ * (in turns) once the configured latency has passed
+ */
+class FakeVideoIntelligenceServer implements AutoCloseable {
+
+    private final List<AnnotateVideoResponse> responses;
+    private final long latencyMillis;
+    private final Map<String, PendingOperation> operations = new ConcurrentHashMap<>();
+    private final AtomicLong operationCount = new AtomicLong();
+    private final Server server;
+
+
+    FakeVideoIntelligenceServer(List<AnnotateVideoResponse> responses, long latencyMillis) throws IOException {
+        this.responses = responses;
+        this.latencyMillis = latencyMillis;
+        this.server = ServerBuilder.forPort(0)
+                .addService(new VideoIntelligenceService())
+                .addService(new OperationsService())
+                .build()
+                .start();
+    }
+
+    /**
+     * Read the recorded responses (protobuf files, gzipped if they end with <code>.gz</code>) in the directory
+     * and its subdirectories, e.g. the ones stored by the {@link AnnotationCache}
+     */
+    static List<AnnotateVideoResponse> readRecordings(Path directory) throws IOException {
+        final List<Path> files;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            files = paths
+                    .filter(path -> path.toString().endsWith(".pb") || path.toString().endsWith(".pb.gz"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        final List<AnnotateVideoResponse> recordings = new ArrayList<>();
+        for (Path file : files) {
+            try (InputStream in = file.toString().endsWith(".gz")
+                    ? new GZIPInputStream(Files.newInputStream(file))
+                    : Files.newInputStream(file)) {
+                recordings.add(AnnotateVideoResponse.parseFrom(in));
+            }
+        }
+        return recordings;
+    }
+
+    public String getEndpoint() {
+        return "localhost:" + server.getPort();
+    }
+
+    public long getOperationCount() {
+        return operationCount.get();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private Operation toOperation(String name, PendingOperation pending) {
+        final long elapsed = System.currentTimeMillis() - pending.startTime;
+        final int progressPercent = (int) Math.min(100, elapsed * 100 / Math.max(1, latencyMillis));
+        final Operation.Builder operation = Operation.newBuilder()
+                .setName(name)
+                .setMetadata(Any.pack(AnnotateVideoProgress.newBuilder()
+                        .addAnnotationProgress(VideoAnnotationProgress.newBuilder()
+                                .setInputUri(pending.inputUri)
+                                .setProgressPercent(progressPercent)
+                                .build())
+                        .build()));
+        if (elapsed >= latencyMillis) {
+            operation.setDone(true).setResponse(Any.pack(pending.response));
+        }
+        return operation.build();
+    }
+
+
+    private class VideoIntelligenceService extends VideoIntelligenceServiceGrpc.VideoIntelligenceServiceImplBase {
+
+        @Override
+        public void annotateVideo(AnnotateVideoRequest request, StreamObserver<Operation> responseObserver) {
+            final long count = operationCount.incrementAndGet();
+            final String name = "operations/" + count;
+            final PendingOperation pending = new PendingOperation(
+                    request.getInputUri(),
+                    responses.get((int) (count % responses.size())));
+            operations.put(name, pending);
+            responseObserver.onNext(toOperation(name, pending));
+            responseObserver.onCompleted();
+        }
+    }
+
+    private class OperationsService extends OperationsGrpc.OperationsImplBase {
+
+        @Override
+        public void getOperation(GetOperationRequest request, StreamObserver<Operation> responseObserver) {
+            final PendingOperation pending = operations.get(request.getName());
+            if (pending != null) {
+                final Operation operation = toOperation(request.getName(), pending);
+                if (operation.getDone()) {
+                    operations.remove(request.getName());
+                }
+                responseObserver.onNext(operation);
+                responseObserver.onCompleted();
+            } else {
+                responseObserver.onError(Status.NOT_FOUND
+                        .withDescription("No such operation: " + request.getName())
+                        .asRuntimeException());
+            }
+        }
+    }
+
+    private static class PendingOperation {
+
+        private final String inputUri;
+        private final AnnotateVideoResponse response;
+        private final long startTime = System.currentTimeMillis();
+
+        private PendingOperation(String inputUri, AnnotateVideoResponse response) {
+            this.inputUri = inputUri;
+            this.response = response;
+        }
+    }
+
+}
@@ -0,0 +1,296 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.videointelligence.v1p3beta1.AnnotateVideoResponse;
+import com.google.cloud.videointelligence.v1p3beta1.ExplicitContentAnnotation;
+import com.google.cloud.videointelligence.v1p3beta1.VideoAnnotationResults;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import io.micronaut.context.ApplicationContext;
+import io.micronaut.runtime.server.EmbeddedServer;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of the service, running it against local stand-ins for Cloud Storage, the Video Intelligence API
+ * and Emojidex.
+ * <p>
+ * Pushes Pub/Sub messages for new videos at the given rate and reports the throughput, the latencies (until the
+ * tracks are exported, also when the analysis runs as a job) and the memory used by the instance. The settings
+ * are given as system properties (see the README).
+ */
+public class LoadTest {
+
+    static final String ENVIRONMENT = "loadtest";
+
+    private static final String PROCESSING_BUCKET = "loadtest-processing";
+    private static final double RATE = Double.parseDouble(System.getProperty("loadtest.rate", "2"));
+    private static final long DURATION_SECONDS = Long.getLong("loadtest.durationSeconds", 60);
+    private static final long DRAIN_SECONDS = Long.getLong("loadtest.drainSeconds", 120);
+    private static final long ANNOTATION_LATENCY_MILLIS = Long.getLong("loadtest.annotationLatencyMillis", 5000);
+    private static final long EMOJIDEX_LATENCY_MILLIS = Long.getLong("loadtest.emojidexLatencyMillis", 100);
+    private static final int VIDEO_SIZE_BYTES = Integer.getInteger("loadtest.videoSizeBytes", 64 * 1024);
+    private static final String RECORDINGS = System.getProperty("loadtest.recordings");
+
+    private final Gson gson = new Gson();
+    private final Random random = new Random(42);
+    private final HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4, runnable -> {
+        final Thread thread = new Thread(runnable, "load-test");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger sent = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong maxHeapUsed = new AtomicLong();
+
+    private final Storage gcs;
+    private final URI uri;
+
+
+    private LoadTest(Storage gcs, URI uri) {
+        this.gcs = gcs;
+        this.uri = uri;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final List<AnnotateVideoResponse> responses = (RECORDINGS != null)
+                ? FakeVideoIntelligenceServer.readRecordings(Paths.get(RECORDINGS))
+                : syntheticResponses();
+        if (responses.isEmpty()) {
+            throw new IllegalArgumentException("No recorded responses found in " + RECORDINGS);
+        }
+        final boolean succeeded;
+        try (FakeVideoIntelligenceServer videoIntelligence =
+                     new FakeVideoIntelligenceServer(responses, ANNOTATION_LATENCY_MILLIS);
+             StubEmojidexServer emojidex = new StubEmojidexServer(EMOJIDEX_LATENCY_MILLIS)) {
+            final Map<String, Object> properties = new HashMap<>();
+            properties.put("micronaut.server.port", -1);
+            properties.put("loadtest.video-intelligence-endpoint", videoIntelligence.getEndpoint());
+            properties.put("loadtest.emojidex-uri", emojidex.getSearchUri().toString());
+            final EmbeddedServer server = ApplicationContext.run(EmbeddedServer.class, properties, ENVIRONMENT);
+            try {
+                final LoadTest loadTest = new LoadTest(
+                        server.getApplicationContext().getBean(Storage.class),
+                        server.getURI());
+                succeeded = loadTest.run();
+                System.out.println(
+                        "Stand-ins: " + videoIntelligence.getOperationCount() + " annotations, " +
+                                emojidex.getRequestCount() + " Emojidex searches");
+            } finally {
+                server.getApplicationContext().close();
+            }
+        }
+        if (!succeeded) {
+            // Fail the build (e.g. of the native image configuration), which would only have traced the errors
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return whether all analyses were completed
+     */
+    private boolean run() throws InterruptedException {
+        System.out.println(String.format(
+                "Sending %.1f videos/s for %ds (annotations taking %dms, Emojidex %dms)",
+                RATE, DURATION_SECONDS, ANNOTATION_LATENCY_MILLIS, EMOJIDEX_LATENCY_MILLIS));
+        scheduler.scheduleAtFixedRate(this::sampleMemory, 0, 250, TimeUnit.MILLISECONDS);
+        final long start = System.nanoTime();
+        final long count = (long) (RATE * DURATION_SECONDS);
+        final long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / RATE);
+        for (long i = 0; i < count; i++) {
+            scheduler.schedule(this::send, i * intervalNanos, TimeUnit.NANOSECONDS);
+        }
+
+        final long deadline = start + TimeUnit.SECONDS.toNanos(DURATION_SECONDS + DRAIN_SECONDS);
+        while (((completed.get() + failed.get()) < count) && (System.nanoTime() < deadline)) {
+            Thread.sleep(100);
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        scheduler.shutdownNow();
+        report(count, seconds);
+        return completed.get() == count;
+    }
+
+    private void send() {
+        final String videoId = UUID.randomUUID().toString().replace("-", "");
+        final Video video;
+        try {
+            video = createVideo(videoId);
+        } catch (Exception e) {
+            fail(videoId, e.getMessage());
+            return;
+        }
+        final JsonObject message = new JsonObject();
+        message.addProperty("messageId", String.valueOf(sent.incrementAndGet()));
+        message.addProperty("data", Base64.getEncoder().encodeToString(
+                gson.toJson(video).getBytes(StandardCharsets.UTF_8)));
+        final JsonObject body = new JsonObject();
+        body.add("message", message);
+
+        final long start = System.nanoTime();
+        httpClient
+                .sendAsync(
+                        HttpRequest.newBuilder(uri)
+                                .header("Content-Type", "application/json")
+                                .POST(HttpRequest.BodyPublishers.ofString(gson.toJson(body)))
+                                .build(),
+                        HttpResponse.BodyHandlers.ofString())
+                .whenComplete((response, e) -> {
+                    if ((e == null) && (response.statusCode() == 200)) {
+                        complete(start);
+                    } else if ((e == null) && (response.statusCode() == 202)) {
+                        final String jobId = gson.fromJson(response.body(), JsonObject.class).get("id").getAsString();
+                        poll(jobId, start);
+                    } else {
+                        fail(videoId, (e != null) ? e.getMessage() : response.statusCode() + " " + response.body());
+                    }
+                });
+    }
+
+    /**
+     * Poll the job of an asynchronous analysis until it is done
+     */
+    private void poll(String jobId, long start) {
+        httpClient
+                .sendAsync(
+                        HttpRequest.newBuilder(uri.resolve("/jobs/" + jobId)).GET().build(),
+                        HttpResponse.BodyHandlers.ofString())
+                .whenComplete((response, e) -> {
+                    final String state = ((e == null) && (response.statusCode() == 200))
+                            ? gson.fromJson(response.body(), JsonObject.class).get("state").getAsString()
+                            : null;
+                    if (AnalysisJob.State.COMPLETED.name().equals(state)) {
+                        complete(start);
+                    } else if ((state == null) || AnalysisJob.State.FAILED.name().equals(state)) {
+                        fail(jobId, (e != null) ? e.getMessage() : response.body());
+                    } else if (!scheduler.isShutdown()) {
+                        scheduler.schedule(() -> poll(jobId, start), 200, TimeUnit.MILLISECONDS);
+                    }
+                });
+    }
+
+    private void complete(long start) {
+        latencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        completed.incrementAndGet();
+    }
+
+    private void fail(String id, String message) {
+        System.out.println("Analysis of " + id + " failed: " + message);
+        failed.incrementAndGet();
+    }
+
+    /**
+     * Create the files of the video in the processing Bucket (like the preprocessing does)
+     */
+    private Video createVideo(String videoId) {
+        final Video video = new Video();
+        video.setId(videoId);
+        video.setName(videoId + ".mp4");
+        video.setContentType("video/mp4");
+        video.setSize(String.valueOf(VIDEO_SIZE_BYTES));
+        video.setUrl("gs://" + PROCESSING_BUCKET + "/" + videoId + "/video.mp4");
+        final byte[] content = new byte[VIDEO_SIZE_BYTES];
+        random.nextBytes(content);
+        gcs.create(
+                BlobInfo.newBuilder(BlobId.of(PROCESSING_BUCKET, videoId + "/video.mp4"))
+                        .setContentType(video.getContentType())
+                        .build(),
+                content);
+        gcs.create(
+                BlobInfo.newBuilder(BlobId.of(PROCESSING_BUCKET, videoId + "/" + AnalysisService.FILE_NAME_METADATA))
+                        .setContentType("application/json")
+                        .build(),
+                gson.toJson(video).getBytes(StandardCharsets.UTF_8));
+        return video;
+    }
+
+    private void sampleMemory() {
+        long heapUsed = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapUsed += pool.getUsage().getUsed();
+            }
+        }
+        maxHeapUsed.accumulateAndGet(heapUsed, Math::max);
+    }
+
+    private void report(long count, double seconds) {
+        final List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        System.out.println();
+        System.out.println(String.format(
+                "Videos:     %d sent, %d completed, %d failed, %d pending",
+                count, completed.get(), failed.get(), count - completed.get() - failed.get()));
+        System.out.println(String.format("Throughput: %.2f videos/s", completed.get() / seconds));
+        if (!sorted.isEmpty()) {
+            System.out.println(String.format(
+                    "Latency:    p50 %dms, p90 %dms, p99 %dms, max %dms",
+                    percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                    sorted.get(sorted.size() - 1)));
+        }
+        long gcCount = 0;
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcMillis += Math.max(0, gc.getCollectionTime());
+        }
+        System.out.println(String.format(
+                "Memory:     max. %dMB heap used (of %dMB), %dMB non-heap, %d GCs taking %dms",
+                maxHeapUsed.get() >> 20,
+                Runtime.getRuntime().maxMemory() >> 20,
+                ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage().getUsed() >> 20,
+                gcCount, gcMillis));
+    }
+
+    private static long percentile(List<Long> sorted, double percentile) {
+        return sorted.get(Math.max(0, (int) Math.ceil(percentile * sorted.size()) - 1));
+    }
+
+    /**
+     * @return responses for videos of 10 minutes with 200 labels (for runs without recordings)
+     */
+    private static List<AnnotateVideoResponse> syntheticResponses() {
+        final List<AnnotateVideoResponse> responses = new ArrayList<>();
+        for (int seed = 0; seed < 10; seed++) {
+            responses.add(AnnotateVideoResponse.newBuilder()
+                    .addAnnotationResults(VideoAnnotationResults.newBuilder()
+                            .setInputUri("/" + PROCESSING_BUCKET + "/video.mp4")
+                            .addAllShotLabelAnnotations(SyntheticAnnotations.labelAnnotations(200, 5, 10, seed))
+                            .setExplicitAnnotation(ExplicitContentAnnotation.newBuilder()
+                                    .addAllFrames(SyntheticAnnotations.explicitContentFrames(10, seed))
+                                    .build())
+                            .build())
+                    .build());
+        }
+        return responses;
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.api.gax.longrunning.OperationTimedPollAlgorithm;
+import com.google.api.gax.retrying.RetrySettings;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.videointelligence.v1p3beta1.VideoIntelligenceServiceClient;
+import com.google.cloud.videointelligence.v1p3beta1.VideoIntelligenceServiceSettings;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micronaut.context.annotation.Context;
+import io.micronaut.context.annotation.Factory;
+import io.micronaut.context.annotation.Replaces;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import org.threeten.bp.Duration;
+
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Replaces the clients of Cloud Storage, the Video Intelligence API and Emojidex with local stand-ins
+ * (in the <code>loadtest</code> environment)
+ */
+@Factory
+@Requires(env = LoadTest.ENVIRONMENT)
+public class LoadTestFactory {
+
+    @Singleton
+    @Replaces(Storage.class)
+    public Storage storage() {
+        return LocalStorage.create();
+    }
+
+    @Context
+    @Replaces(VideoIntelligenceServiceClient.class)
+    public VideoIntelligenceServiceClient videoIntelligenceServiceClient(
+            @Value("${loadtest.video-intelligence-endpoint}") String endpoint) throws IOException {
+        final VideoIntelligenceServiceSettings.Builder settings =
+                VideoIntelligenceClientFactory.newSettingsBuilder(endpoint);
+        // Poll the fake operations right away (the real ones are only polled after 20s)
+        settings.annotateVideoOperationSettings().setPollingAlgorithm(OperationTimedPollAlgorithm.create(
+                RetrySettings.newBuilder()
+                        .setInitialRetryDelay(Duration.ofMillis(100))
+                        .setRetryDelayMultiplier(1.5)
+                        .setMaxRetryDelay(Duration.ofSeconds(1))
+                        .setInitialRpcTimeout(Duration.ZERO)
+                        .setRpcTimeoutMultiplier(1.0)
+                        .setMaxRpcTimeout(Duration.ZERO)
+                        .setTotalTimeout(Duration.ofMinutes(30))
+                        .build()));
+        return VideoIntelligenceServiceClient.create(settings.build());
+    }
+
+    @Singleton
+    @Replaces(EmojidexClient.class)
+    public EmojidexClient emojidexClient(@Value("${loadtest.emojidex-uri}") String uri, MeterRegistry meterRegistry) {
+        return new EmojidexClient(
+                URI.create(uri), java.time.Duration.ofSeconds(2), java.time.Duration.ofSeconds(5), 8, meterRegistry);
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.storage.contrib.nio.testing.LocalStorageHelper;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cloud Storage in memory for the load test: the local stand-in of google-cloud-nio, along with what the analysis needs
+ * and it does not support, i.e. batch deletes (run as single deletes) and the generations of the blobs,
+ * including the preconditions on them which the locks of the videos rely on.
+ * <p>
+ * The generations are tracked next to the stand-in, for the blobs written with <code>create</code>
+ * (the others get one when they are read).
+ */
+class LocalStorage implements InvocationHandler {
+
+    private static final int HTTP_PRECONDITION_FAILED = 412;
+
+    private final Storage storage = LocalStorageHelper.customOptions(false).getService();
+    // keyed by the IDs without generation
+    private final Map<BlobId, Long> generations = new HashMap<>();
+    private long generation;
+
+
+    private LocalStorage() {
+    }
+
+    static Storage create() {
+        return (Storage) Proxy.newProxyInstance(
+                Storage.class.getClassLoader(), new Class<?>[] {Storage.class}, new LocalStorage());
+    }
+
+    @Override
+    public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        final Class<?>[] types = method.getParameterTypes();
+        if ("create".equals(method.getName()) && (types.length == 3) && (types[1] == byte[].class)) {
+            return create((BlobInfo) args[0], (byte[]) args[1], (Storage.BlobTargetOption[]) args[2]);
+        } else if ("get".equals(method.getName()) && (types[0] == BlobId.class)) {
+            return withGeneration(storage.get(key((BlobId) args[0])));
+        } else if ("delete".equals(method.getName()) && (types[0] == BlobId.class)) {
+            return delete((BlobId) args[0]);
+        } else if ("delete".equals(method.getName()) && (types[0] == BlobId[].class)) {
+            return delete(Arrays.asList((BlobId[]) args[0]));
+        } else if ("delete".equals(method.getName()) && (types[0] == Iterable.class)) {
+            @SuppressWarnings("unchecked")
+            final Iterable<BlobId> blobIds = (Iterable<BlobId>) args[0];
+            return delete(blobIds);
+        } else if ("writer".equals(method.getName()) && (types[0] == BlobInfo.class)) {
+            generations.remove(key(((BlobInfo) args[0]).getBlobId()));
+        } else if ("copy".equals(method.getName())) {
+            generations.remove(key(((Storage.CopyRequest) args[0]).getTarget().getBlobId()));
+        }
+        try {
+            return method.invoke(storage, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Blob create(BlobInfo blobInfo, byte[] content, Storage.BlobTargetOption... options) {
+        final Long current = getGeneration(blobInfo.getBlobId());
+        for (Storage.BlobTargetOption option : options) {
+            if (Storage.BlobTargetOption.doesNotExist().equals(option) && (current != null)) {
+                throw new StorageException(HTTP_PRECONDITION_FAILED, blobInfo.getName() + " already exists");
+            }
+            if (Storage.BlobTargetOption.generationMatch().equals(option)
+                    && ((current == null) || !current.equals(blobInfo.getGeneration()))) {
+                throw new StorageException(HTTP_PRECONDITION_FAILED, blobInfo.getName() + " was changed");
+            }
+        }
+        final BlobId blobId = key(blobInfo.getBlobId());
+        final Blob blob = storage.create(blobInfo.toBuilder().setBlobId(blobId).build(), content);
+        generations.put(blobId, ++generation);
+        return withGeneration(blob);
+    }
+
+    /**
+     * Delete the blob (only the given generation, if the ID includes one)
+     */
+    private boolean delete(BlobId blobId) {
+        final Long current = getGeneration(blobId);
+        if ((current == null) || ((blobId.getGeneration() != null) && !blobId.getGeneration().equals(current))) {
+            return false;
+        }
+        generations.remove(key(blobId));
+        return storage.delete(key(blobId));
+    }
+
+    private List<Boolean> delete(Iterable<BlobId> blobIds) {
+        final List<Boolean> deleted = new ArrayList<>();
+        for (BlobId blobId : blobIds) {
+            deleted.add(delete(blobId));
+        }
+        return deleted;
+    }
+
+    /**
+     * @return the generation of the blob or <code>null</code> if it does not exist
+     */
+    private Long getGeneration(BlobId blobId) {
+        final Blob blob = withGeneration(storage.get(key(blobId)));
+        return (blob != null) ? blob.getGeneration() : null;
+    }
+
+    private Blob withGeneration(Blob blob) {
+        if (blob == null) {
+            return null;
+        }
+        final BlobId blobId = key(blob.getBlobId());
+        final long blobGeneration = generations.computeIfAbsent(blobId, ignored -> ++generation);
+        return blob.toBuilder().setBlobId(BlobId.of(blobId.getBucket(), blobId.getName(), blobGeneration)).build();
+    }
+
+    private static BlobId key(BlobId blobId) {
+        return BlobId.of(blobId.getBucket(), blobId.getName());
+    }
+
+}
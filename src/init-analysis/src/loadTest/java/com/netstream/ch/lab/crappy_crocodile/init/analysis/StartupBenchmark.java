@@ -0,0 +1,159 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmark of the cold start of the service, comparing the JVM with the native image (and the JVM with the
+ * shared classes cache of OpenJ9 with the one without): starts the service as a new process a number of times
+ * and measures the time until it responded to its first request (the health check) and how much memory
+ * it used by then.
+ * <p>
+ * The settings are given as system properties (see the README). The Google clients are configured not to
+ * look for the metadata server, which is not there when running locally.
+ */
+public class StartupBenchmark {
+
+    private static final int RUNS = Integer.getInteger("startup.runs", 5);
+    private static final long TIMEOUT_SECONDS = Long.getLong("startup.timeoutSeconds", 60);
+    private static final String JAVA = System.getProperty(
+            "startup.java", Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    private static final String JVM_FLAGS = System.getProperty(
+            "startup.jvmFlags", "-XX:TieredStopAtLevel=1 -XX:MaxRAM=256m");
+    private static final String JAR = System.getProperty("startup.jar");
+    private static final String CLASSPATH = System.getProperty("startup.classpath");
+    private static final String SHARED_CLASSES = System.getProperty("startup.sharedClasses");
+    private static final String SHARED_CLASSES_NAME = "init-analysis";
+    private static final String NATIVE_IMAGE = System.getProperty("startup.nativeImage");
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofMillis(100))
+            .build();
+
+
+    public static void main(String[] args) throws Exception {
+        final StartupBenchmark benchmark = new StartupBenchmark();
+        if ((JAR != null) || (CLASSPATH != null)) {
+            if (SHARED_CLASSES != null) {
+                // OpenJ9 shares the classes of the JDK by default, so turn that off to compare
+                benchmark.run("JVM", jvmCommand("-Xshareclasses:none"));
+                benchmark.run("JVM with shared classes", jvmCommand(
+                        "-Xshareclasses:name=" + SHARED_CLASSES_NAME + ",cacheDir=" + SHARED_CLASSES + ",readonly"));
+            } else {
+                benchmark.run("JVM", jvmCommand());
+            }
+        }
+        if ((NATIVE_IMAGE != null) && Files.isExecutable(Paths.get(NATIVE_IMAGE))) {
+            benchmark.run("Native image", Collections.singletonList(NATIVE_IMAGE));
+        } else {
+            System.out.println("Skipping the native image, build it first with `./gradlew nativeImage`");
+        }
+    }
+
+    private static List<String> jvmCommand(String... flags) {
+        final List<String> command = new ArrayList<>();
+        command.add(JAVA);
+        command.addAll(Arrays.asList(JVM_FLAGS.trim().split("\\s+")));
+        command.addAll(Arrays.asList(flags));
+        if (CLASSPATH != null) {
+            command.addAll(Arrays.asList("-cp", CLASSPATH, Application.class.getName()));
+        } else {
+            command.addAll(Arrays.asList("-jar", JAR));
+        }
+        return command;
+    }
+
+    private void run(String name, List<String> command) throws Exception {
+        final List<Long> times = new ArrayList<>();
+        final List<Long> memory = new ArrayList<>();
+        for (int run = 0; run < RUNS; run++) {
+            final int port = findFreePort();
+            final ProcessBuilder processBuilder = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            final Map<String, String> environment = processBuilder.environment();
+            environment.put("MICRONAUT_SERVER_PORT", String.valueOf(port));
+            environment.put("NO_GCE_CHECK", "true");
+            environment.putIfAbsent("GOOGLE_CLOUD_PROJECT", "startup-benchmark");
+            environment.putIfAbsent("VIDEO_INTELLIGENCE_ENDPOINT", "localhost:" + findFreePort());
+
+            final long start = System.nanoTime();
+            final Process process = processBuilder.start();
+            try {
+                awaitFirstResponse(process, URI.create("http://localhost:" + port + "/health"));
+                times.add((System.nanoTime() - start) / 1_000_000);
+                memory.add(getResidentSetSize(process));
+            } finally {
+                process.destroy();
+                process.waitFor();
+            }
+        }
+
+        Collections.sort(times);
+        final StringBuffer sb = new StringBuffer(name);
+        sb.append(": time to first request ").append(times.get(times.size() / 2)).append("ms (median)");
+        sb.append(", min=").append(times.get(0)).append("ms");
+        sb.append(", max=").append(times.get(times.size() - 1)).append("ms");
+        if (!memory.contains(-1L)) {
+            Collections.sort(memory);
+            sb.append(", resident memory ").append(memory.get(memory.size() / 2) / 1024).append("MB (median)");
+        }
+        System.out.println(sb.toString());
+    }
+
+    private void awaitFirstResponse(Process process, URI uri) throws Exception {
+        final long deadline = System.nanoTime() + Duration.ofSeconds(TIMEOUT_SECONDS).toNanos();
+        final HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(5)).GET().build();
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("The service exited with " + process.exitValue());
+            }
+            try {
+                if (httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (ConnectException e) {
+                // Not listening yet
+            }
+            Thread.sleep(5);
+        }
+        throw new IllegalStateException("The service did not respond within " + TIMEOUT_SECONDS + "s");
+    }
+
+    /**
+     * @return the resident set size of the process in kB or -1 if it cannot be determined (only on Linux)
+     */
+    private static long getResidentSetSize(Process process) throws IOException {
+        final Path status = Paths.get("/proc", String.valueOf(process.pid()), "status");
+        if (Files.exists(status)) {
+            for (String line : Files.readAllLines(status)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stub of the search of Emojidex, answering after the configured latency (with an emoji for about half the terms)
+ */
+class StubEmojidexServer implements AutoCloseable {
+
+    private static final String EMOJI = "{\"emoji\":[{\"code\":\"crocodile\",\"moji\":\"🐊\"}]}";
+    private static final String NO_EMOJI = "{\"emoji\":[]}";
+
+    private final long latencyMillis;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "stub-emojidex");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final HttpServer server;
+
+
+    StubEmojidexServer(long latencyMillis) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext(EmojidexClient.RESOURCE_SEARCH, this::search);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public URI getSearchUri() {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + EmojidexClient.RESOURCE_SEARCH);
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void search(HttpExchange exchange) throws IOException {
+        try {
+            requestCount.incrementAndGet();
+            final String term = URLDecoder.decode(
+                    new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8),
+                    StandardCharsets.UTF_8);
+            Thread.sleep(latencyMillis);
+            final byte[] body = (((term.hashCode() & 1) == 0) ? EMOJI : NO_EMOJI).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (InterruptedException e) {
+            exchange.sendResponseHeaders(503, -1);
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+#!/bin/sh
+# Trains the shared classes cache of OpenJ9 in /opt/shareclasses with the classes (and the AOT compiled code)
+# used while the service handles a short load test, then reports its time to the first request with and without it.
+# Expects the load test (and its dependencies) in /training, see the trainingClasspath task.
+#
+# usage: train-shared-classes.sh <class path of the service>
+set -e
+
+SERVICE_CLASSPATH="$1"
+TRAINING_CLASSPATH="/training/*:/training/libs/*"
+SHARED_CLASSES="name=init-analysis,cacheDir=/opt/shareclasses"
+
+java -Xshareclasses:${SHARED_CLASSES} -Xscmx80m -XX:TieredStopAtLevel=1 -XX:MaxRAM=256m \
+     -Dloadtest.rate=5 \
+     -Dloadtest.durationSeconds=15 \
+     -Dloadtest.drainSeconds=30 \
+     -Dloadtest.annotationLatencyMillis=200 \
+     -cp "${SERVICE_CLASSPATH}:${TRAINING_CLASSPATH}" \
+     com.netstream.ch.lab.crappy_crocodile.init.analysis.LoadTest
+
+java -Xshareclasses:${SHARED_CLASSES},printStats || true
+
+java -cp "${TRAINING_CLASSPATH}:${SERVICE_CLASSPATH}" \
+     -Dstartup.classpath="${SERVICE_CLASSPATH}" \
+     -Dstartup.sharedClasses=/opt/shareclasses \
+     com.netstream.ch.lab.crappy_crocodile.init.analysis.StartupBenchmark
@@ -0,0 +1,73 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Base of the {@link TrackWriter}s streaming their track to a writer, with the clock time formatting they share.
+ */
+public abstract class AbstractTrackWriter implements TrackWriter {
+
+    protected static final int BUFFER_SIZE = 8 * 1024;
+
+    protected final Writer writer;
+    private final char[] timestamp = new char[24];
+
+
+    protected AbstractTrackWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Create a buffered UTF-8 writer for the given channel (e.g. the {@link com.google.cloud.WriteChannel}
+     * of a Cloud Storage blob), optionally compressing the track with gzip
+     */
+    static Writer createWriter(WritableByteChannel channel, boolean gzip) throws IOException {
+        OutputStream out = Channels.newOutputStream(channel);
+        if (gzip) {
+            out = new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * Write the offset (in nanoseconds) as a clock time (<code>hh:mm:ss.ttt</code>), trimmed to milliseconds
+     *
+     * @param separator the separator of the milliseconds (<code>.</code> or <code>,</code>)
+     */
+    protected void writeTimestamp(long offset, char separator) throws IOException {
+        final long millis = offset / 1_000_000L;
+        int position = timestamp.length;
+        position = writeDigits(millis % 1000, 3, position);
+        timestamp[--position] = separator;
+        position = writeDigits((millis / 1000) % 60, 2, position);
+        timestamp[--position] = ':';
+        position = writeDigits((millis / 60_000) % 60, 2, position);
+        timestamp[--position] = ':';
+        position = writeDigits(millis / 3_600_000, 2, position);
+        writer.write(timestamp, position, timestamp.length - position);
+    }
+
+    private int writeDigits(long value, int minDigits, int position) {
+        int digits = 0;
+        do {
+            timestamp[--position] = (char) ('0' + (value % 10));
+            value /= 10;
+            digits++;
+        } while ((value > 0) || (digits < minDigits));
+        return position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+}
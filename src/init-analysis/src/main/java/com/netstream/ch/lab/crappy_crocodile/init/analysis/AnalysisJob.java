@@ -0,0 +1,119 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import io.micronaut.core.annotation.Introspected;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Status of the asynchronous analysis of a video
+ */
+@Introspected
+public class AnalysisJob {
+
+    public enum State {
+        QUEUED,
+        ANNOTATING,
+        EXPORTING,
+        COMPLETED,
+        FAILED
+    }
+
+    private final String id;
+    private final String videoId;
+    private final long startTime;
+    private final CompletableFuture<AnalysisJob> done = new CompletableFuture<>();
+    private volatile State state = State.QUEUED;
+    private volatile int progressPercent;
+    private volatile Result result;
+    private volatile String message;
+    private volatile long endTime;
+
+
+    public AnalysisJob(String id, String videoId) {
+        this.id = id;
+        this.videoId = videoId;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    public void complete(Result result) {
+        this.result = result;
+        this.message = (result != null) ? result.getMessage() : null;
+        this.endTime = System.currentTimeMillis();
+        this.state = State.COMPLETED;
+        done.complete(this);
+    }
+
+    public void fail(String message) {
+        this.message = message;
+        this.endTime = System.currentTimeMillis();
+        this.state = State.FAILED;
+        done.complete(this);
+    }
+
+    public boolean isDone() {
+        return (state == State.COMPLETED) || (state == State.FAILED);
+    }
+
+    /**
+     * Run the action once the job completed or failed (right away if it already is done)
+     */
+    public void whenDone(Consumer<AnalysisJob> action) {
+        done.thenAccept(action);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getVideoId() {
+        return videoId;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    /**
+     * @return the progress of the annotation of the video (as reported by the Video Intelligence API)
+     */
+    public int getProgressPercent() {
+        return progressPercent;
+    }
+
+    public void setProgressPercent(int progressPercent) {
+        this.progressPercent = progressPercent;
+    }
+
+    public Result getResult() {
+        return result;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("AnalysisJob{");
+        sb.append("id='").append(id).append('\'');
+        sb.append(", videoId='").append(videoId).append('\'');
+        sb.append(", state=").append(state);
+        sb.append(", progressPercent=").append(progressPercent);
+        sb.append('}');
+        return sb.toString();
+    }
+
+}
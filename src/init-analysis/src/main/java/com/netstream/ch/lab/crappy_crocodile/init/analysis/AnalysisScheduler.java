@@ -0,0 +1,249 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Admits the analyses of an instance, so it only runs as many of them at the same time as it can handle.
+ * <p>
+ * At most a given number of analyses run concurrently, and the memory they are estimated to need
+ * (from the size of their videos) has to fit into the memory budget of the instance (unless nothing else runs).
+ * The others wait in one of two lanes: the videos up to a given size in the fast lane, all others
+ * (and those of unknown size) in the slow lane. The fast lane goes first, but only {@link #FAST_LANE_WEIGHT} times
+ * in a row while videos are waiting in the slow lane, and one of the slots is kept free of large videos,
+ * so short clips don't have to wait for the large videos to complete (nor can they starve them).
+ * <p>
+ * Once the given number of videos are waiting, the next ones are rejected, so they can be redelivered
+ * to another instance (or later) instead of waiting here.
+ */
+class AnalysisScheduler {
+
+    /**
+     * How many videos of the fast lane are admitted in a row while videos are waiting in the slow lane
+     */
+    static final int FAST_LANE_WEIGHT = 3;
+    /**
+     * Memory needed by every analysis (for the annotation response, the timeline and the buffers of the tracks)
+     */
+    static final long BASE_MEMORY_BYTES = 32L * 1024 * 1024;
+    /**
+     * Additional memory per byte of the video (longer videos have more scenes and labels)
+     */
+    static final double MEMORY_PER_VIDEO_BYTE = 1.0 / 64;
+
+    enum Lane {
+        FAST,
+        SLOW
+    }
+
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long memoryBudgetBytes;
+    private final long fastLaneMaxBytes;
+    private final Deque<Ticket> fastLane = new ArrayDeque<>();
+    private final Deque<Ticket> slowLane = new ArrayDeque<>();
+
+    private int running;
+    private int slowRunning;
+    private long reservedMemoryBytes;
+    private int fastInARow;
+    private long rejectedCount;
+
+
+    /**
+     * @param maxConcurrent     how many analyses run at the same time
+     * @param maxQueued         how many analyses can wait (in both lanes together) before new ones are rejected
+     * @param memoryBudgetBytes how much memory the running analyses may need together
+     * @param fastLaneMaxBytes  the size up to which videos are admitted through the fast lane
+     */
+    AnalysisScheduler(int maxConcurrent, int maxQueued, long memoryBudgetBytes, long fastLaneMaxBytes) {
+        this.maxConcurrent = Math.max(maxConcurrent, 1);
+        this.maxQueued = Math.max(maxQueued, 0);
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.fastLaneMaxBytes = fastLaneMaxBytes;
+    }
+
+    /**
+     * @return the size of the video in bytes or -1 if it is unknown
+     */
+    static long getSize(Video video) {
+        try {
+            return (video.getSize() != null) ? Long.parseLong(video.getSize().trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Queue the analysis of a video of the given size (see {@link Ticket#getAdmission()})
+     *
+     * @param sizeBytes the size of the video (or -1 if it is unknown)
+     * @throws RejectedExecutionException if too many analyses are waiting already
+     */
+    Ticket enqueue(long sizeBytes) {
+        final Lane lane = ((sizeBytes >= 0) && (sizeBytes <= fastLaneMaxBytes)) ? Lane.FAST : Lane.SLOW;
+        final Ticket ticket = new Ticket(
+                lane, BASE_MEMORY_BYTES + (long) (Math.max(sizeBytes, 0) * MEMORY_PER_VIDEO_BYTE));
+        final List<Ticket> admitted;
+        synchronized (this) {
+            if ((fastLane.size() + slowLane.size() >= maxQueued) && !canRunRightAway(ticket)) {
+                rejectedCount++;
+                throw new RejectedExecutionException("The instance is saturated: " + running + " analyses running, "
+                        + (fastLane.size() + slowLane.size()) + " waiting");
+            }
+            ((lane == Lane.FAST) ? fastLane : slowLane).add(ticket);
+            admitted = dispatch();
+        }
+        admit(admitted);
+        return ticket;
+    }
+
+    private boolean canRunRightAway(Ticket ticket) {
+        return fastLane.isEmpty() && slowLane.isEmpty() && canRun(ticket);
+    }
+
+    private boolean canRun(Ticket ticket) {
+        return (running < maxConcurrent)
+                && ((ticket.lane == Lane.FAST) || (slowRunning < getSlowLaneLimit()))
+                && ((running == 0) || (reservedMemoryBytes + ticket.memoryBytes <= memoryBudgetBytes));
+    }
+
+    /**
+     * @return how many videos of the slow lane may run at the same time (keeping a slot for the fast lane)
+     */
+    private int getSlowLaneLimit() {
+        return Math.max(maxConcurrent - 1, 1);
+    }
+
+    /**
+     * @return the tickets admitted (to complete their admission outside of the lock)
+     */
+    private List<Ticket> dispatch() {
+        final List<Ticket> admitted = new ArrayList<>();
+        while (true) {
+            final Ticket fast = fastLane.peek();
+            final Ticket slow = slowLane.peek();
+            final Ticket next;
+            // the fast lane only gives way to the slow lane if a video of it could run at all
+            final boolean slowLaneWaiting = (slow != null) && (slowRunning < getSlowLaneLimit());
+            if ((fast != null) && (!slowLaneWaiting || (fastInARow < FAST_LANE_WEIGHT)) && canRun(fast)) {
+                next = fastLane.poll();
+                fastInARow = slowLaneWaiting ? fastInARow + 1 : 0;
+            } else if ((slow != null) && canRun(slow)) {
+                next = slowLane.poll();
+                fastInARow = 0;
+            } else {
+                // the videos of the slow lane had their turn (and wait for memory or a slot) or nothing fits
+                return admitted;
+            }
+            running++;
+            if (next.lane == Lane.SLOW) {
+                slowRunning++;
+            }
+            reservedMemoryBytes += next.memoryBytes;
+            next.admitted = true;
+            next.admittedAt = System.nanoTime();
+            admitted.add(next);
+        }
+    }
+
+    private static void admit(List<Ticket> admitted) {
+        for (Ticket ticket : admitted) {
+            ticket.admission.complete(null);
+        }
+    }
+
+    private void release(Ticket ticket) {
+        final List<Ticket> admitted;
+        final boolean waiting;
+        synchronized (this) {
+            if (ticket.released) {
+                return;
+            }
+            ticket.released = true;
+            waiting = !ticket.admitted;
+            if (ticket.admitted) {
+                running--;
+                if (ticket.lane == Lane.SLOW) {
+                    slowRunning--;
+                }
+                reservedMemoryBytes -= ticket.memoryBytes;
+            } else {
+                ((ticket.lane == Lane.FAST) ? fastLane : slowLane).remove(ticket);
+            }
+            admitted = dispatch();
+        }
+        admit(admitted);
+        if (waiting) {
+            ticket.admission.cancel(false);
+        }
+    }
+
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    public synchronized int getQueuedCount(Lane lane) {
+        return ((lane == Lane.FAST) ? fastLane : slowLane).size();
+    }
+
+    public synchronized long getReservedMemoryBytes() {
+        return reservedMemoryBytes;
+    }
+
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+
+    /**
+     * The place of an analysis in the queue (and later among the running analyses)
+     */
+    class Ticket {
+
+        private final Lane lane;
+        private final long memoryBytes;
+        private final long queuedAt = System.nanoTime();
+        private final CompletableFuture<Void> admission = new CompletableFuture<>();
+        private boolean admitted;
+        private long admittedAt;
+        private boolean released;
+
+        private Ticket(Lane lane, long memoryBytes) {
+            this.lane = lane;
+            this.memoryBytes = memoryBytes;
+        }
+
+        /**
+         * @return completed once the analysis may run
+         */
+        CompletableFuture<Void> getAdmission() {
+            return admission;
+        }
+
+        /**
+         * Let the next analysis run once this one is done (or remove it from the queue if it is still waiting)
+         */
+        void release() {
+            AnalysisScheduler.this.release(this);
+        }
+
+        Lane getLane() {
+            return lane;
+        }
+
+        /**
+         * @return how long the analysis waited to be admitted (in nanoseconds)
+         */
+        long getWaitNanos() {
+            synchronized (AnalysisScheduler.this) {
+                return (admitted ? admittedAt : System.nanoTime()) - queuedAt;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,1004 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.longrunning.OperationFuture;
+import com.google.api.gax.rpc.BidiStreamObserver;
+import com.google.api.gax.rpc.ClientStream;
+import com.google.api.gax.rpc.StreamController;
+import com.google.cloud.ReadChannel;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.CopyWriter;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.videointelligence.v1p3beta1.AnnotateVideoProgress;
+import com.google.cloud.videointelligence.v1p3beta1.AnnotateVideoRequest;
+import com.google.cloud.videointelligence.v1p3beta1.AnnotateVideoResponse;
+import com.google.cloud.videointelligence.v1p3beta1.ExplicitContentFrame;
+import com.google.cloud.videointelligence.v1p3beta1.Feature;
+import com.google.cloud.videointelligence.v1p3beta1.LabelAnnotation;
+import com.google.cloud.videointelligence.v1p3beta1.StreamingAnnotateVideoRequest;
+import com.google.cloud.videointelligence.v1p3beta1.StreamingAnnotateVideoResponse;
+import com.google.cloud.videointelligence.v1p3beta1.StreamingFeature;
+import com.google.cloud.videointelligence.v1p3beta1.StreamingVideoConfig;
+import com.google.cloud.videointelligence.v1p3beta1.StreamingVideoIntelligenceServiceClient;
+import com.google.cloud.videointelligence.v1p3beta1.VideoAnnotationResults;
+import com.google.cloud.videointelligence.v1p3beta1.VideoContext;
+import com.google.cloud.videointelligence.v1p3beta1.VideoIntelligenceServiceClient;
+import com.google.cloud.videointelligence.v1p3beta1.VideoSegment;
+import com.google.protobuf.ByteString;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the analysis of a video: annotating it with the Video Intelligence API, exporting the text tracks
+ * and moving everything to the output Bucket.
+ * <p>
+ * An analysis either runs synchronously ({@link #analyze(Video)}) or as a job ({@link #submit(Video)}),
+ * in which case the long-running annotation operation is tracked without blocking any thread
+ * and the export runs as its completion callback.
+ * <p>
+ * Either way, the analysis first has to be admitted by the {@link AnalysisScheduler}, which limits how many
+ * analyses run at the same time (<code>ANALYSIS_MAX_CONCURRENT</code>) and how much memory they need together
+ * (<code>ANALYSIS_MEMORY_BUDGET_MB</code>), lets clips up to <code>ANALYSIS_FAST_LANE_MAX_MB</code> overtake
+ * the larger videos and rejects new analyses once <code>ANALYSIS_MAX_QUEUED</code> are waiting.
+ * <p>
+ * Videos longer than <code>ANALYSIS_SEGMENT_SECONDS</code> are annotated in segments of that length,
+ * <code>ANALYSIS_SEGMENT_CONCURRENCY</code> at a time, and their results are stitched back together
+ * (see {@link SegmentedAnnotation}).
+ * <p>
+ * With <code>STREAMING_ANALYSIS</code>, the video is streamed to the streaming Video Intelligence API instead
+ * and the cues of the text tracks are written while its results arrive (see {@link StreamingAnnotationIngest}),
+ * so only the scenes that are still open are kept in memory.
+ * <p>
+ * The duration of each stage is recorded as a timer (<code>analysis.*</code>) in the {@link MeterRegistry},
+ * along with the number of videos in flight and the size of their timelines.
+ */
+@Singleton
+public class AnalysisService {
+
+    private static final Pattern GCS_URL_PATTERN =
+            Pattern.compile("^gs:\\/\\/([a-z0-9\\-]+)\\/(\\w+\\/?)*(\\.[a-zA-Z0-9]+)*$");
+
+    protected static final String FILE_NAME_METADATA = "metadata.json";
+    protected static final String FILE_NAME_TEST_TRACK = "objects.vtt";
+    protected static final String FILE_NAME_EMOJI_TRACK = "emoji.vtt";
+    protected static final String FILE_NAME_LOCK = "vis.lock";
+
+    private static final List<Feature> FEATURES = Arrays.asList(
+            Feature.SHOT_CHANGE_DETECTION,
+            Feature.LABEL_DETECTION,
+            Feature.EXPLICIT_CONTENT_DETECTION);
+
+    private static final List<StreamingFeature> STREAMING_FEATURES = Arrays.asList(
+            StreamingFeature.STREAMING_LABEL_DETECTION,
+            StreamingFeature.STREAMING_EXPLICIT_CONTENT_DETECTION);
+
+    private static final String ENV_VAR_STREAMING_ANALYSIS = "STREAMING_ANALYSIS";
+    private static final boolean STREAMING_ANALYSIS = Boolean.parseBoolean(System.getenv(ENV_VAR_STREAMING_ANALYSIS));
+    private static final String ENV_VAR_STREAMING_CHUNK_SIZE = "STREAMING_CHUNK_SIZE";
+    private static final int STREAMING_CHUNK_SIZE =
+            (System.getenv(ENV_VAR_STREAMING_CHUNK_SIZE) != null)
+                    ? Integer.parseInt(System.getenv(ENV_VAR_STREAMING_CHUNK_SIZE))
+                    : 1024 * 1024;
+    private static final String ENV_VAR_SEGMENT_SECONDS = "ANALYSIS_SEGMENT_SECONDS";
+    private static final long SEGMENT_SECONDS =
+            (System.getenv(ENV_VAR_SEGMENT_SECONDS) != null)
+                    ? Long.parseLong(System.getenv(ENV_VAR_SEGMENT_SECONDS))
+                    : 0;
+    private static final String ENV_VAR_SEGMENT_CONCURRENCY = "ANALYSIS_SEGMENT_CONCURRENCY";
+    private static final int SEGMENT_CONCURRENCY =
+            (System.getenv(ENV_VAR_SEGMENT_CONCURRENCY) != null)
+                    ? Integer.parseInt(System.getenv(ENV_VAR_SEGMENT_CONCURRENCY))
+                    : 4;
+    private static final int DURATION_READ_CHUNK_SIZE = 64 * 1024;
+    private static final String ENV_VAR_COMPRESS_TRACKS = "COMPRESS_TRACKS";
+    private static final boolean COMPRESS_TRACKS = Boolean.parseBoolean(System.getenv(ENV_VAR_COMPRESS_TRACKS));
+    private static final String ENV_VAR_TRACK_FORMATS = "TRACK_FORMATS";
+    private static final List<TrackFormat> TRACK_FORMATS =
+            (System.getenv(ENV_VAR_TRACK_FORMATS) != null)
+                    ? TrackFormat.parse(System.getenv(ENV_VAR_TRACK_FORMATS))
+                    : Collections.singletonList(TrackFormat.VTT);
+    private static final String ENV_VAR_TRACK_UPLOAD_CHUNK_SIZE = "TRACK_UPLOAD_CHUNK_SIZE";
+    private static final int TRACK_UPLOAD_CHUNK_SIZE =
+            (System.getenv(ENV_VAR_TRACK_UPLOAD_CHUNK_SIZE) != null)
+                    ? Integer.parseInt(System.getenv(ENV_VAR_TRACK_UPLOAD_CHUNK_SIZE))
+                    : 256 * 1024;
+
+    private static final String ENV_VAR_EXPORT_THREADS = "ANALYSIS_EXPORT_THREADS";
+    private static final int EXPORT_THREADS =
+            (System.getenv(ENV_VAR_EXPORT_THREADS) != null)
+                    ? Integer.parseInt(System.getenv(ENV_VAR_EXPORT_THREADS))
+                    : 4;
+    private static final String ENV_VAR_FINALIZE_THREADS = "ANALYSIS_FINALIZE_THREADS";
+    private static final int FINALIZE_THREADS =
+            (System.getenv(ENV_VAR_FINALIZE_THREADS) != null)
+                    ? Integer.parseInt(System.getenv(ENV_VAR_FINALIZE_THREADS))
+                    : 8;
+    private static final String ENV_VAR_MAX_CONCURRENT = "ANALYSIS_MAX_CONCURRENT";
+    private static final int MAX_CONCURRENT =
+            (System.getenv(ENV_VAR_MAX_CONCURRENT) != null)
+                    ? Integer.parseInt(System.getenv(ENV_VAR_MAX_CONCURRENT))
+                    : 4;
+    private static final String ENV_VAR_MAX_QUEUED = "ANALYSIS_MAX_QUEUED";
+    private static final int MAX_QUEUED =
+            (System.getenv(ENV_VAR_MAX_QUEUED) != null)
+                    ? Integer.parseInt(System.getenv(ENV_VAR_MAX_QUEUED))
+                    : 16;
+    private static final String ENV_VAR_MEMORY_BUDGET_MB = "ANALYSIS_MEMORY_BUDGET_MB";
+    private static final long MEMORY_BUDGET_BYTES =
+            (System.getenv(ENV_VAR_MEMORY_BUDGET_MB) != null)
+                    ? Long.parseLong(System.getenv(ENV_VAR_MEMORY_BUDGET_MB)) * 1024 * 1024
+                    : Runtime.getRuntime().maxMemory() / 2;
+    private static final String ENV_VAR_FAST_LANE_MAX_MB = "ANALYSIS_FAST_LANE_MAX_MB";
+    private static final long FAST_LANE_MAX_BYTES =
+            (System.getenv(ENV_VAR_FAST_LANE_MAX_MB) != null)
+                    ? Long.parseLong(System.getenv(ENV_VAR_FAST_LANE_MAX_MB)) * 1024 * 1024
+                    : 100L * 1024 * 1024;
+    private static final String ENV_VAR_JOB_RETENTION_MINUTES = "ANALYSIS_JOB_RETENTION_MINUTES";
+    private static final long JOB_RETENTION_MINUTES =
+            (System.getenv(ENV_VAR_JOB_RETENTION_MINUTES) != null)
+                    ? Long.parseLong(System.getenv(ENV_VAR_JOB_RETENTION_MINUTES))
+                    : 60;
+
+    private final Map<String, AnalysisJob> jobs = new ConcurrentHashMap<>();
+    private final Map<String, SegmentedAnnotation> operations = new ConcurrentHashMap<>();
+    private final AnalysisScheduler scheduler;
+    private final AtomicInteger exportThreadCount = new AtomicInteger();
+    private final AtomicInteger finalizeThreadCount = new AtomicInteger();
+    private final AtomicInteger streamingThreadCount = new AtomicInteger();
+    private final AtomicInteger uploadThreadCount = new AtomicInteger();
+    private final ExecutorService exportExecutor = Executors.newFixedThreadPool(EXPORT_THREADS, runnable -> {
+        final Thread thread = new Thread(runnable, "analysis-export-" + exportThreadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService finalizeExecutor = Executors.newFixedThreadPool(FINALIZE_THREADS, runnable -> {
+        final Thread thread = new Thread(runnable, "analysis-finalize-" + finalizeThreadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    // the streams (and the uploads of the video to them) last about as long as the video itself
+    private final ExecutorService streamingExecutor = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "analysis-streaming-" + streamingThreadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    // every track being written is uploaded by a thread of its own
+    private final ExecutorService uploadExecutor = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "analysis-upload-" + uploadThreadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Inject
+    private Storage gcs;
+
+    @Inject
+    private VideoIntelligenceServiceClient videoIntelligenceClient;
+
+    @Inject
+    private Provider<StreamingVideoIntelligenceServiceClient> streamingVideoIntelligenceClient;
+
+    @Inject
+    private EmojiConverter emojiConverter;
+
+    @Inject
+    private VideoLockManager videoLockManager;
+
+    @Inject
+    private AnnotationCache annotationCache;
+
+    @Inject
+    private MeterRegistry meterRegistry;
+
+
+    @Inject
+    public AnalysisService() {
+        this.scheduler = new AnalysisScheduler(MAX_CONCURRENT, MAX_QUEUED, MEMORY_BUDGET_BYTES, FAST_LANE_MAX_BYTES);
+    }
+
+    AnalysisService(
+            Storage gcs,
+            VideoIntelligenceServiceClient videoIntelligenceClient,
+            Provider<StreamingVideoIntelligenceServiceClient> streamingVideoIntelligenceClient,
+            EmojiConverter emojiConverter,
+            VideoLockManager videoLockManager,
+            AnnotationCache annotationCache,
+            MeterRegistry meterRegistry,
+            AnalysisScheduler scheduler) {
+        this.gcs = gcs;
+        this.videoIntelligenceClient = videoIntelligenceClient;
+        this.streamingVideoIntelligenceClient = streamingVideoIntelligenceClient;
+        this.emojiConverter = emojiConverter;
+        this.videoLockManager = videoLockManager;
+        this.annotationCache = annotationCache;
+        this.meterRegistry = meterRegistry;
+        this.scheduler = scheduler;
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        meterRegistry.gauge("analysis.videos.in-flight", videoLockManager, VideoLockManager::getLockCount);
+        meterRegistry.gauge("analysis.jobs.running", operations, Map::size);
+        meterRegistry.gauge("analysis.queue.running", scheduler, AnalysisScheduler::getRunningCount);
+        meterRegistry.gauge("analysis.queue.memory", scheduler, AnalysisScheduler::getReservedMemoryBytes);
+        for (AnalysisScheduler.Lane lane : AnalysisScheduler.Lane.values()) {
+            Gauge.builder("analysis.queue.depth", scheduler, s -> s.getQueuedCount(lane))
+                    .tag("lane", lane.name().toLowerCase())
+                    .register(meterRegistry);
+        }
+        FunctionCounter.builder("analysis.queue.rejected", scheduler, AnalysisScheduler::getRejectedCount)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Analyze the video, blocking until the analysis is completed (including the time it waits to be admitted)
+     *
+     * @return the result or <code>null</code> if the video is already being processed by another instance
+     * @throws RejectedExecutionException if the instance is saturated
+     */
+    public Result analyze(Video video) throws Exception {
+        final AnalysisScheduler.Ticket ticket = enqueue(video);
+        try {
+            return analyze(video, ticket);
+        } finally {
+            ticket.release();
+        }
+    }
+
+    private Result analyze(Video video, AnalysisScheduler.Ticket ticket) throws Exception {
+        ticket.getAdmission().get();
+        // Only lock the video once it is admitted, so the lock is not held (and heartbeated) while it is queued
+        final VideoLock lock = lock(video);
+        if (lock == null) {
+            return null;
+        }
+        final PipelineEvent analysisEvent = FlightRecording.beginVideoAnalysis(video);
+        boolean succeeded = false;
+        try {
+            // TODO Publish the "processing-started" event to Pub/Sub
+            if (STREAMING_ANALYSIS) {
+                final Result result = analyzeStreaming(video, lock, analysisEvent);
+                succeeded = true;
+                return result;
+            }
+            final List<VideoSegment> segments = split(video);
+            final List<AnnotateVideoRequest> requests = createRequests(video, segments);
+            AnnotateVideoResponse response = annotationCache.get(video.getId(), requests);
+            if (response == null) {
+                final Timer.Sample annotation = Timer.start(meterRegistry);
+                try {
+                    response = annotate(video, segments).getResponse().get();
+                } catch (Exception e) {
+                    annotation.stop(meterRegistry.timer("analysis.annotation", "outcome", "failure"));
+                    throw e;
+                }
+                annotation.stop(meterRegistry.timer("analysis.annotation", "outcome", "success"));
+                annotationCache.put(video.getId(), requests, response);
+            }
+            final Result result = export(video, response, lock, analysisEvent);
+            succeeded = true;
+            return result;
+        } finally {
+            unlock(lock, succeeded);
+            FlightRecording.endVideoAnalysis(analysisEvent, succeeded);
+        }
+    }
+
+    /**
+     * Start the analysis of the video as a job (once it is admitted), without waiting for the annotation to complete.
+     * The video is only locked once the job is admitted: if it is already being processed by another instance by then,
+     * the job is completed right away (with a message saying so).
+     *
+     * @return the job
+     * @throws RejectedExecutionException if the instance is saturated
+     */
+    public AnalysisJob submit(Video video) throws Exception {
+        final AnalysisScheduler.Ticket ticket = enqueue(video);
+        removeExpiredJobs();
+        final AnalysisJob job = new AnalysisJob(UUID.randomUUID().toString(), video.getId());
+        jobs.put(job.getId(), job);
+        job.whenDone(done -> ticket.release());
+        // The job stays queued until the scheduler admits it
+        ticket.getAdmission().thenRunAsync(() -> start(job, video), exportExecutor);
+        return job;
+    }
+
+    private void start(AnalysisJob job, Video video) {
+        final VideoLock lock;
+        try {
+            lock = lock(video);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            job.fail(e.getMessage());
+            return;
+        }
+        if (lock == null) {
+            job.complete(new Result(video.getId(), "Processing was already started by another instance"));
+            return;
+        }
+        start(job, video, lock);
+    }
+
+    private void start(AnalysisJob job, Video video, VideoLock lock) {
+        final PipelineEvent analysisEvent = FlightRecording.beginVideoAnalysis(video);
+        job.setState(AnalysisJob.State.ANNOTATING);
+        // TODO Publish the "processing-started" event to Pub/Sub
+        if (STREAMING_ANALYSIS) {
+            streamingExecutor.execute(() -> analyzeStreaming(job, video, lock, analysisEvent));
+            return;
+        }
+        final Timer.Sample annotation = Timer.start(meterRegistry);
+        final List<AnnotateVideoRequest> requests;
+        final SegmentedAnnotation operation;
+        try {
+            final List<VideoSegment> segments = split(video);
+            requests = createRequests(video, segments);
+            final AnnotateVideoResponse cachedResponse = annotationCache.get(video.getId(), requests);
+            if (cachedResponse != null) {
+                export(job, video, cachedResponse, lock, analysisEvent);
+                return;
+            }
+            operation = annotate(video, segments);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            unlock(lock, false);
+            job.fail(e.getMessage());
+            FlightRecording.endVideoAnalysis(analysisEvent, false);
+            return;
+        }
+        operations.put(job.getId(), operation);
+        ApiFutures.addCallback(operation.getResponse(), new ApiFutureCallback<AnnotateVideoResponse>() {
+            @Override
+            public void onSuccess(AnnotateVideoResponse response) {
+                annotation.stop(meterRegistry.timer("analysis.annotation", "outcome", "success"));
+                operations.remove(job.getId());
+                annotationCache.put(video.getId(), requests, response);
+                export(job, video, response, lock, analysisEvent);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                annotation.stop(meterRegistry.timer("analysis.annotation", "outcome", "failure"));
+                operations.remove(job.getId());
+                unlock(lock, false);
+                t.printStackTrace();
+                job.fail(t.getMessage());
+                FlightRecording.endVideoAnalysis(analysisEvent, false);
+            }
+        }, exportExecutor);
+    }
+
+    private void export(
+            AnalysisJob job,
+            Video video,
+            AnnotateVideoResponse response,
+            VideoLock lock,
+            PipelineEvent analysisEvent) {
+        job.setState(AnalysisJob.State.EXPORTING);
+        job.setProgressPercent(100);
+        try {
+            job.complete(export(video, response, lock, analysisEvent));
+        } catch (Exception e) {
+            e.printStackTrace();
+            job.fail(e.getMessage());
+        } finally {
+            unlock(lock, job.getState() == AnalysisJob.State.COMPLETED);
+            FlightRecording.endVideoAnalysis(analysisEvent, job.getState() == AnalysisJob.State.COMPLETED);
+        }
+    }
+
+    private Result export(
+            Video video,
+            AnnotateVideoResponse response,
+            VideoLock lock,
+            PipelineEvent analysisEvent) throws Exception {
+        final SceneTimeline timeline = toTimeline(video, response);
+        FlightRecording.setSceneCount(analysisEvent, timeline.size());
+        final Result result = exportTextTracks(video, timeline);
+        // TODO Publish the "processing-completed" event to Pub/Sub
+
+        if (lock.isLost()) {
+            throw new IllegalStateException("Lost the lock of " + video.getId() + " to another instance");
+        }
+        // TODO Move finalize() to separate Cloud Run service (subscribed to the "processing-completed" event)
+        return finalize(video, result, lock);
+    }
+
+    private void analyzeStreaming(AnalysisJob job, Video video, VideoLock lock, PipelineEvent analysisEvent) {
+        try {
+            job.complete(analyzeStreaming(video, lock, analysisEvent));
+        } catch (Exception e) {
+            e.printStackTrace();
+            job.fail(e.getMessage());
+        } finally {
+            unlock(lock, job.getState() == AnalysisJob.State.COMPLETED);
+            FlightRecording.endVideoAnalysis(analysisEvent, job.getState() == AnalysisJob.State.COMPLETED);
+        }
+    }
+
+    /**
+     * Stream the video to the streaming Video Intelligence API (once per feature), writing the cues of the text tracks
+     * while the results arrive
+     */
+    private Result analyzeStreaming(Video video, VideoLock lock, PipelineEvent analysisEvent) throws Exception {
+        final String processingBucketName = getBucketName(video.getUrl());
+        if (processingBucketName == null) {
+            return new Result(video.getId(), "Could not deduct Bucket Name from '" + video.getUrl() + "'");
+        }
+        final Timer.Sample sample = Timer.start(meterRegistry);
+        final StreamingAnnotationIngest ingest;
+        final List<AsyncUploadChannel> uploads = new ArrayList<>();
+        try (TrackWriter textTrack = createTrackWriters(processingBucketName, video, FILE_NAME_TEST_TRACK, uploads);
+             TrackWriter emojiTrack = createTrackWriters(processingBucketName, video, FILE_NAME_EMOJI_TRACK, uploads)) {
+            ingest = new StreamingAnnotationIngest(textTrack, emojiTrack, emojiConverter);
+            final List<CompletableFuture<Void>> streams = new ArrayList<>();
+            for (StreamingFeature feature : STREAMING_FEATURES) {
+                streams.add(annotateStreaming(video, feature, ingest));
+            }
+            try {
+                CompletableFuture.allOf(streams.toArray(new CompletableFuture[0])).join();
+            } catch (CompletionException e) {
+                // Stop the other stream as well
+                streams.forEach(stream -> stream.cancel(false));
+                abort(uploads);
+                sample.stop(meterRegistry.timer("analysis.streaming", "outcome", "failure"));
+                throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+            }
+        }
+        sample.stop(meterRegistry.timer("analysis.streaming", "outcome", "success"));
+        FlightRecording.setSceneCount(analysisEvent, ingest.getSceneCount());
+        meterRegistry.summary("analysis.video.scenes").record(ingest.getSceneCount());
+        meterRegistry.summary("analysis.video.labels").record(ingest.getLabelCount());
+        System.out.println("Created text tracks while streaming: " + getTrackFileNames());
+        final Result result = new Result(
+                video.getId(), "gs://" + processingBucketName + "/" + getBlobName(video, FILE_NAME_EMOJI_TRACK));
+
+        if (lock.isLost()) {
+            throw new IllegalStateException("Lost the lock of " + video.getId() + " to another instance");
+        }
+        return finalize(video, result, lock);
+    }
+
+    /**
+     * Open a stream for the feature and upload the video to it in chunks of <code>STREAMING_CHUNK_SIZE</code>,
+     * handing the results to the ingest as they arrive
+     *
+     * @return a future completed once the stream is (or cancelling it)
+     */
+    private CompletableFuture<Void> annotateStreaming(
+            Video video, StreamingFeature feature, StreamingAnnotationIngest ingest) {
+        final CompletableFuture<Void> completion = new CompletableFuture<>();
+        final ClientStreamReadySignal<StreamingAnnotateVideoRequest> stream = new ClientStreamReadySignal<>(completion);
+        final AtomicReference<StreamController> controller = new AtomicReference<>();
+        streamingVideoIntelligenceClient.get()
+                .streamingAnnotateVideoCallable()
+                .call(new BidiStreamObserver<StreamingAnnotateVideoRequest, StreamingAnnotateVideoResponse>() {
+
+                    @Override
+                    public void onStart(StreamController streamController) {
+                        controller.set(streamController);
+                    }
+
+                    @Override
+                    public void onReady(ClientStream<StreamingAnnotateVideoRequest> clientStream) {
+                        stream.onReady(clientStream);
+                    }
+
+                    @Override
+                    public void onResponse(StreamingAnnotateVideoResponse response) {
+                        try {
+                            if (completion.isDone()) {
+                                controller.get().cancel();
+                            } else if (response.hasError()) {
+                                throw new IllegalStateException("Streaming annotation of " + video.getId()
+                                        + " failed: " + response.getError().getMessage());
+                            } else {
+                                ingest.accept(feature, response.getAnnotationResults());
+                            }
+                        } catch (Exception e) {
+                            completion.completeExceptionally(e);
+                            controller.get().cancel();
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        completion.completeExceptionally(t);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        try {
+                            ingest.complete(feature);
+                            completion.complete(null);
+                        } catch (Exception e) {
+                            completion.completeExceptionally(e);
+                        }
+                    }
+                });
+
+        System.out.println("Starting streaming annotation (" + feature + ") of " + video.getId() + "...");
+        streamingExecutor.execute(() -> {
+            final BlobId blobId = BlobId.of(getBucketName(video.getUrl()), getBlobName(video.getUrl()));
+            try (ReadChannel reader = gcs.reader(blobId)) {
+                reader.setChunkSize(STREAMING_CHUNK_SIZE);
+                // Only read on once the stream took the previous request, so the video is never kept in memory
+                boolean sent = stream.send(StreamingAnnotateVideoRequest.newBuilder()
+                        .setVideoConfig(StreamingVideoConfig.newBuilder().setFeature(feature).build())
+                        .build());
+                final ByteBuffer buffer = ByteBuffer.allocate(STREAMING_CHUNK_SIZE);
+                int read = 0;
+                while (sent && (read >= 0)) {
+                    read = reader.read(buffer);
+                    if ((!buffer.hasRemaining() || (read < 0)) && (buffer.position() > 0)) {
+                        buffer.flip();
+                        sent = stream.send(StreamingAnnotateVideoRequest.newBuilder()
+                                .setInputContent(ByteString.copyFrom(buffer))
+                                .build());
+                        buffer.clear();
+                    }
+                }
+                if (sent) {
+                    stream.closeSend();
+                } else {
+                    // The analysis was stopped
+                    controller.get().cancel();
+                }
+            } catch (Exception e) {
+                completion.completeExceptionally(e);
+                controller.get().cancel();
+            }
+        });
+        return completion;
+    }
+
+    /**
+     * @return the job (with the current progress of its annotation) or <code>null</code> if there is no such job
+     */
+    public AnalysisJob getJob(String id) {
+        final AnalysisJob job = jobs.get(id);
+        final SegmentedAnnotation operation = operations.get(id);
+        if ((job != null) && (operation != null)) {
+            job.setProgressPercent(operation.getProgressPercent());
+        }
+        return job;
+    }
+
+    public int getRunningJobCount() {
+        return operations.size();
+    }
+
+    private void removeExpiredJobs() {
+        removeJobsDoneBefore(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(JOB_RETENTION_MINUTES));
+    }
+
+    /**
+     * Forget the jobs which were done before the time (the running ones are kept)
+     */
+    void removeJobsDoneBefore(long time) {
+        jobs.values().removeIf(job -> job.isDone() && (job.getEndTime() < time));
+    }
+
+    /**
+     * Queue the analysis of the video (recording how long it waits once it is admitted)
+     *
+     * @throws RejectedExecutionException if the instance is saturated
+     */
+    private AnalysisScheduler.Ticket enqueue(Video video) {
+        final AnalysisScheduler.Ticket ticket = scheduler.enqueue(AnalysisScheduler.getSize(video));
+        ticket.getAdmission().thenRun(() -> meterRegistry
+                .timer("analysis.queue.wait", "lane", ticket.getLane().name().toLowerCase())
+                .record(ticket.getWaitNanos(), TimeUnit.NANOSECONDS));
+        return ticket;
+    }
+
+    /**
+     * Lock the video with its lock file in the processing Bucket
+     *
+     * @return the lock or <code>null</code> if the video is already locked
+     */
+    private VideoLock lock(Video video) {
+        final Timer.Sample sample = Timer.start(meterRegistry);
+        final VideoLock lock = videoLockManager.lock(
+                video.getId(),
+                BlobId.of(getBucketName(video.getUrl()), getBlobName(video, FILE_NAME_LOCK)));
+        sample.stop(meterRegistry.timer("analysis.lock", "result", (lock != null) ? "acquired" : "locked"));
+        return lock;
+    }
+
+    /**
+     * Release the lock of the video, giving up its lease if the analysis failed, so the redelivered message
+     * retries it right away (instead of being taken for a duplicate while the lease lasts)
+     */
+    private void unlock(VideoLock lock, boolean succeeded) {
+        if (succeeded) {
+            videoLockManager.unlock(lock);
+        } else {
+            videoLockManager.abandon(lock);
+        }
+    }
+
+    /**
+     * Split the video into segments of <code>ANALYSIS_SEGMENT_SECONDS</code> (or none if it is not longer than that)
+     */
+    private List<VideoSegment> split(Video video) {
+        return SegmentedAnnotation.split(getDuration(video), TimeUnit.SECONDS.toNanos(SEGMENT_SECONDS));
+    }
+
+    /**
+     * @return the requests annotating the segments of the video (or just one annotating the whole video)
+     */
+    private List<AnnotateVideoRequest> createRequests(Video video, List<VideoSegment> segments) {
+        if (segments.isEmpty()) {
+            return Collections.singletonList(createRequest(video, null));
+        }
+        final List<AnnotateVideoRequest> requests = new ArrayList<>();
+        for (VideoSegment segment : segments) {
+            requests.add(createRequest(video, segment));
+        }
+        return requests;
+    }
+
+    /**
+     * @param segment the segment of the video to annotate (or <code>null</code> for the whole video)
+     */
+    private AnnotateVideoRequest createRequest(Video video, VideoSegment segment) {
+        final AnnotateVideoRequest.Builder request = AnnotateVideoRequest.newBuilder()
+                .setInputUri(video.getUrl())
+                .addAllFeatures(FEATURES);
+        if (segment != null) {
+            request.setVideoContext(VideoContext.newBuilder().addSegments(segment).build());
+        }
+        return request.build();
+    }
+
+    /**
+     * Start the annotation of the video (in the segments, if it was split)
+     */
+    private SegmentedAnnotation annotate(Video video, List<VideoSegment> segments) {
+        if (!segments.isEmpty()) {
+            System.out.println("Annotating " + video.getId() + " in " + segments.size() + " segments...");
+        }
+        return new SegmentedAnnotation(
+                segments, SEGMENT_CONCURRENCY, segment -> annotate(video, segment), exportExecutor).start();
+    }
+
+    /**
+     * @param segment the segment of the video to annotate (or <code>null</code> for the whole video)
+     */
+    private OperationFuture<AnnotateVideoResponse, AnnotateVideoProgress> annotate(Video video, VideoSegment segment) {
+        // Create an operation that will contain the response when the operation completes.
+        System.out.println("Starting annotation of " + video.getId() + "...");
+        return videoIntelligenceClient.annotateVideoAsync(createRequest(video, segment));
+    }
+
+    /**
+     * Read the duration of the video from its header (only if it is to be annotated in segments)
+     *
+     * @return the duration in nanoseconds or -1 if it is unknown
+     */
+    private long getDuration(Video video) {
+        if (SEGMENT_SECONDS <= 0) {
+            return -1;
+        }
+        final BlobId blobId = BlobId.of(getBucketName(video.getUrl()), getBlobName(video.getUrl()));
+        try (ReadChannel reader = gcs.reader(blobId)) {
+            reader.setChunkSize(DURATION_READ_CHUNK_SIZE);
+            return Mp4Duration.read((position, length) -> {
+                reader.seek(position);
+                final ByteBuffer buffer = ByteBuffer.allocate(length);
+                int read = 0;
+                while (buffer.hasRemaining() && (read >= 0)) {
+                    read = reader.read(buffer);
+                }
+                buffer.flip();
+                return buffer;
+            });
+        } catch (Exception e) {
+            System.out.println("Could not read the duration of " + video.getId() + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private SceneTimeline toTimeline(Video video, AnnotateVideoResponse response) throws Exception {
+        List<VideoAnnotationResults> results = response.getAnnotationResultsList();
+        if (results.isEmpty()) {
+            String message = "Could not detect anything in " + video.getId();
+            System.out.println(message);
+            throw new Exception(message);
+        } else {
+            List<LabelAnnotation> labelAnnotations = new ArrayList<>();
+            List<ExplicitContentFrame> explicitContentFrames = new ArrayList<>();
+            for (VideoAnnotationResults result : results) {
+                labelAnnotations.addAll(result.getShotLabelAnnotationsList());
+                explicitContentFrames.addAll(result.getExplicitAnnotation().getFramesList());
+            }
+            final PipelineEvent mergeEvent = FlightRecording.beginSceneMerge(video.getId(), labelAnnotations.size());
+            Timer.Sample sample = Timer.start(meterRegistry);
+            SceneTimeline timeline = SceneMerger.merge(labelAnnotations);
+            sample.stop(meterRegistry.timer("analysis.scenes.merge"));
+            FlightRecording.endSceneMerge(mergeEvent, timeline.size());
+            sample = Timer.start(meterRegistry);
+            ExplicitContentAssigner.assign(timeline, explicitContentFrames);
+            sample.stop(meterRegistry.timer("analysis.explicit-content.assign"));
+
+            int entityCount = 0;
+            for (int scene = 0; scene < timeline.size(); scene++) {
+                entityCount += timeline.getEntityCount(scene);
+            }
+            meterRegistry.summary("analysis.video.scenes").record(timeline.size());
+            meterRegistry.summary("analysis.video.entities").record(entityCount);
+            meterRegistry.summary("analysis.video.labels").record(timeline.getLabelCount());
+            return timeline;
+        }
+    }
+
+    private Result exportTextTracks(Video video, SceneTimeline timeline) throws IOException {
+        if ((video != null) && (timeline != null)) {
+            final String processingBucketName = getBucketName(video.getUrl());
+            if (processingBucketName != null) {
+                // Write all tracks in a single pass over the timeline, each one uploaded concurrently
+                final List<AsyncUploadChannel> uploads = new ArrayList<>();
+                try (TrackWriter textTrack =
+                             createTrackWriters(processingBucketName, video, FILE_NAME_TEST_TRACK, uploads);
+                     TrackWriter emojiTrack =
+                             createTrackWriters(processingBucketName, video, FILE_NAME_EMOJI_TRACK, uploads)) {
+                    try {
+                        timeline.writeTracks(textTrack, true, emojiTrack, emojiConverter);
+                    } catch (IOException | RuntimeException e) {
+                        abort(uploads);
+                        throw e;
+                    }
+                }
+                System.out.println("Created text tracks: " + getTrackFileNames());
+
+                return new Result(
+                        video.getId(), "gs://" + processingBucketName + "/" + getBlobName(video, FILE_NAME_EMOJI_TRACK));
+            } else {
+                return new Result(
+                        video.getId(),
+                        "Could not deduct Bucket Name from '" + video.getUrl() + "'");
+            }
+        } else {
+            return new Result(
+                    (video != null) ? video.getId() : null,
+                    "Either the video info or the scenes were null");
+        }
+    }
+
+    private Result finalize(Video video, Result result, VideoLock lock) {
+        if ((video != null) && (result != null)) {
+            final String processingBucketName = getBucketName(video.getUrl());
+            if (processingBucketName != null) {
+                final String outputBucketName = getOutputBucketName(processingBucketName);
+
+                final List<String> fileNames = new ArrayList<>(Arrays.asList(
+                        getVideoFileName(video),
+                        FILE_NAME_METADATA));
+                fileNames.addAll(getTrackFileNames());
+                final List<String> blobNames = new ArrayList<>();
+                for (String fileName : fileNames) {
+                    blobNames.add(getBlobName(video, fileName));
+                }
+
+                // Copy all files at once, so finalizing takes about as long as copying the largest one
+                final List<CompletableFuture<Blob>> copies = new ArrayList<>();
+                for (int i = 0; i < blobNames.size(); i++) {
+                    final Timer timer = meterRegistry.timer("analysis.finalize.copy", "file", fileNames.get(i));
+                    final Timer.Sample sample = Timer.start(meterRegistry);
+                    copies.add(copyBlob(
+                            BlobId.of(processingBucketName, blobNames.get(i)),
+                            BlobId.of(outputBucketName, blobNames.get(i)))
+                            .whenComplete((copied, error) -> sample.stop(timer)));
+                }
+                Blob blob = null;
+                for (CompletableFuture<Blob> copy : copies) {
+                    try {
+                        blob = copy.join();
+                    } catch (CompletionException e) {
+                        throw (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause() : e;
+                    }
+                    System.out.println(
+                            "Copied file to the output Bucket: " +
+                                    outputBucketName + "/" + blob.getName());
+                }
+
+                // Delete the copied files, the lock file and the folder in a single batch request
+                final List<BlobId> blobIds = new ArrayList<>();
+                for (String blobName : blobNames) {
+                    blobIds.add(BlobId.of(processingBucketName, blobName));
+                }
+                // Stop the heartbeats first, so the lock file is not rewritten while it is deleted
+                blobIds.add(videoLockManager.unlock(lock));
+                blobIds.add(BlobId.of(processingBucketName, video.getId() + "/"));
+                final Timer.Sample sample = Timer.start(meterRegistry);
+                final PipelineEvent storageCall = FlightRecording.beginStorageCall(
+                        "delete", processingBucketName, blobIds.get(0).getName(), blobIds.size());
+                gcs.delete(blobIds);
+                FlightRecording.endStorageCall(storageCall, true);
+                sample.stop(meterRegistry.timer("analysis.finalize.delete"));
+                System.out.println("Deleted the files of " + video.getId() + " from the processing Bucket");
+                return new Result(video.getId(), blob.getSelfLink());
+            } else {
+                return new Result(
+                        video.getId(),
+                        "Could not deduct Bucket Name from '" + video.getUrl() + "'");
+            }
+        } else {
+            return new Result(
+                    (video != null) ? video.getId() : null,
+                    "Either the video info or the scenes were null");
+        }
+    }
+
+    private String getBucketName(String objectUrl) {
+        final Matcher matcher = GCS_URL_PATTERN.matcher(objectUrl);
+        if (matcher.matches()) {
+            return (matcher.groupCount() > 1) ? matcher.group(1) : null;
+        } else {
+            return null;
+        }
+    }
+
+    private String getOutputBucketName(String processingBucketName) {
+        return processingBucketName.substring(0, processingBucketName.lastIndexOf('-')) + "-output";
+    }
+
+    private String getBlobName(String objectUrl) {
+        final String bucketName = getBucketName(objectUrl);
+        if (bucketName != null) {
+            return objectUrl.substring(("gs://" + bucketName + "/").length());
+        } else {
+            return null;
+        }
+    }
+
+    private String getBlobName(Video video, String filename) {
+        return String.format("%s/%s", video.getId(), filename);
+    }
+
+    private String getVideoFileName(Video video) {
+        final String extension = video.getContentType().substring(
+                video.getContentType().lastIndexOf('/') + 1);
+        return "video." + extension;
+    }
+
+    /**
+     * Copy the blob, continuing the rewrite of large blobs chunk by chunk as separate tasks
+     * (so no thread is blocked for the whole copy)
+     */
+    private CompletableFuture<Blob> copyBlob(BlobId source, BlobId target) {
+        final PipelineEvent storageCall = FlightRecording.beginStorageCall("copy", source);
+        return CompletableFuture
+                .supplyAsync(() -> gcs.copy(Storage.CopyRequest.of(source, target)), finalizeExecutor)
+                .thenCompose(this::completeCopy)
+                .whenComplete((blob, error) -> FlightRecording.endStorageCall(storageCall, error == null));
+    }
+
+    private CompletableFuture<Blob> completeCopy(CopyWriter copyWriter) {
+        if (copyWriter.isDone()) {
+            return CompletableFuture.completedFuture(copyWriter.getResult());
+        } else {
+            return CompletableFuture
+                    .runAsync(copyWriter::copyChunk, finalizeExecutor)
+                    .thenCompose(ignored -> completeCopy(copyWriter));
+        }
+    }
+
+    /**
+     * @return the names of the files of the text and emoji tracks in all the configured formats
+     */
+    private List<String> getTrackFileNames() {
+        final List<String> fileNames = new ArrayList<>();
+        for (TrackFormat format : TRACK_FORMATS) {
+            fileNames.add(format.getFileName(FILE_NAME_TEST_TRACK));
+            fileNames.add(format.getFileName(FILE_NAME_EMOJI_TRACK));
+        }
+        return fileNames;
+    }
+
+    /**
+     * Create a writer writing the track in all the configured formats (each into a blob of its own)
+     *
+     * @param uploads the uploads of the blobs are added to (to abort them if writing the tracks fails)
+     */
+    private TrackWriter createTrackWriters(
+            String bucketName, Video video, String trackFileName, List<AsyncUploadChannel> uploads)
+            throws IOException {
+        final List<TrackWriter> writers = new ArrayList<>();
+        try {
+            for (TrackFormat format : TRACK_FORMATS) {
+                writers.add(createTrackWriter(bucketName, video, format.getFileName(trackFileName), format, uploads));
+            }
+        } catch (IOException | RuntimeException e) {
+            abort(uploads);
+            try {
+                new MultiTrackWriter(writers).close();
+            } catch (IOException closeError) {
+                e.addSuppressed(closeError);
+            }
+            throw e;
+        }
+        return (writers.size() > 1) ? new MultiTrackWriter(writers) : writers.get(0);
+    }
+
+    /**
+     * Create a writer streaming a text track directly into the blob (without keeping the whole track in memory),
+     * uploading it concurrently with the other tracks being written
+     */
+    private TrackWriter createTrackWriter(
+            String bucketName, Video video, String fileName, TrackFormat format, List<AsyncUploadChannel> uploads)
+            throws IOException {
+        final BlobId blobId = BlobId.of(bucketName, getBlobName(video, fileName));
+        final BlobInfo.Builder blobInfo = BlobInfo
+                .newBuilder(blobId)
+                .setContentType(format.getContentType());
+        if (COMPRESS_TRACKS) {
+            blobInfo.setContentEncoding("gzip");
+        }
+        final WriteChannel channel = gcs.writer(blobInfo.build());
+        channel.setChunkSize(TRACK_UPLOAD_CHUNK_SIZE);
+
+        final Timer timer = meterRegistry.timer("analysis.track.export", "track", fileName);
+        final Timer.Sample sample = Timer.start(meterRegistry);
+        final PipelineEvent storageCall = FlightRecording.beginStorageCall("write", blobId);
+        final AsyncUploadChannel upload = new AsyncUploadChannel(channel, uploadExecutor);
+        uploads.add(upload);
+        upload.getCompletion().whenComplete((ignored, error) -> {
+            FlightRecording.endStorageCall(storageCall, error == null);
+            sample.stop(timer);
+        });
+        return format.create(upload, COMPRESS_TRACKS);
+    }
+
+    /**
+     * Abort the uploads of the tracks, so closing their writers does not complete the truncated tracks as blobs
+     * (which would be moved to the output Bucket by a later analysis that failed to overwrite them)
+     */
+    private static void abort(List<AsyncUploadChannel> uploads) {
+        for (AsyncUploadChannel upload : uploads) {
+            upload.abort();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        exportExecutor.shutdown();
+        finalizeExecutor.shutdown();
+        streamingExecutor.shutdownNow();
+        uploadExecutor.shutdown();
+    }
+
+
+}
@@ -0,0 +1,170 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.videointelligence.v1p3beta1.AnnotateVideoRequest;
+import com.google.cloud.videointelligence.v1p3beta1.AnnotateVideoResponse;
+import com.google.cloud.videointelligence.v1p3beta1.Feature;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache of the responses of the Video Intelligence API, so videos which were already annotated (with the same
+ * requests) do not have to be annotated again, e.g. to export their tracks with other settings.
+ * <p>
+ * Videos are identified by their ID, which is the hash of their content, and the responses by the hash of the requests
+ * they answer: their features and video context, e.g. the segment of each request of a video annotated in segments
+ * (see {@link SegmentedAnnotation}). The responses are stored gzipped in
+ * their protobuf format in the location given by <code>ANNOTATION_CACHE_LOCATION</code>, either a Cloud Storage
+ * folder (<code>gs://bucket/folder</code>) or a local directory. Without a location, nothing is cached.
+ */
+@Singleton
+public class AnnotationCache {
+
+    protected static final String API_VERSION = "v1p3beta1";
+
+    private static final String ENV_VAR_LOCATION = "ANNOTATION_CACHE_LOCATION";
+
+    @Inject
+    private Storage gcs;
+
+    private final String location;
+
+
+    @Inject
+    public AnnotationCache() {
+        this(System.getenv(ENV_VAR_LOCATION));
+    }
+
+    AnnotationCache(String location) {
+        this.location = location;
+    }
+
+    public boolean isEnabled() {
+        return location != null;
+    }
+
+    /**
+     * @return the cached response or <code>null</code> if the video was not annotated with these requests yet
+     */
+    public AnnotateVideoResponse get(String videoId, Collection<AnnotateVideoRequest> requests) {
+        if (location != null) {
+            final String name = getName(videoId, requests);
+            try {
+                final byte[] content = GcsLocation.isGcs(location) ? readFromGcs(name) : readFromFile(name);
+                if (content != null) {
+                    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(content))) {
+                        final AnnotateVideoResponse response = AnnotateVideoResponse.parseFrom(in);
+                        System.out.println("Found cached annotations of " + videoId + " in " + location);
+                        return response;
+                    }
+                }
+            } catch (Exception e) {
+                System.out.println("Could not read the cached annotations of " + videoId + ": " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param requests the requests answered by the response (one per segment if the video was annotated in segments)
+     */
+    public void put(String videoId, Collection<AnnotateVideoRequest> requests, AnnotateVideoResponse response) {
+        if (location != null) {
+            final String name = getName(videoId, requests);
+            try {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try (OutputStream gzip = new GZIPOutputStream(out)) {
+                    response.writeTo(gzip);
+                }
+                if (GcsLocation.isGcs(location)) {
+                    writeToGcs(name, out.toByteArray());
+                } else {
+                    writeToFile(name, out.toByteArray());
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                System.out.println("Could not cache the annotations of " + videoId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the name of the cached response, e.g. <code>{videoId}/v1p3beta1-{hash of the requests}.pb.gz</code>
+     */
+    protected static String getName(String videoId, Collection<AnnotateVideoRequest> requests) {
+        final MessageDigest digest = DigestUtils.getSha1Digest();
+        for (AnnotateVideoRequest request : requests) {
+            // Everything but the location of the video (identified by its ID) and the order of the features
+            final List<Feature> features = new ArrayList<>(request.getFeaturesList());
+            features.sort(Comparator.comparing(Feature::name));
+            final byte[] config = request.toBuilder()
+                    .clearInputUri()
+                    .clearInputContent()
+                    .clearFeatures()
+                    .addAllFeatures(features)
+                    .build()
+                    .toByteArray();
+            // Prefixed with its length, so the configs of consecutive requests cannot be confused
+            DigestUtils.updateDigest(digest, ByteBuffer.allocate(Integer.BYTES).putInt(config.length).array());
+            DigestUtils.updateDigest(digest, config);
+        }
+        return videoId + "/" + API_VERSION + "-" + Hex.encodeHexString(digest.digest()) + ".pb.gz";
+    }
+
+    private byte[] readFromGcs(String name) {
+        final BlobId blobId = GcsLocation.getBlobId(location, name);
+        final PipelineEvent storageCall = FlightRecording.beginStorageCall("read", blobId);
+        final Blob blob = gcs.get(blobId);
+        final byte[] content = (blob != null) ? blob.getContent() : null;
+        FlightRecording.endStorageCall(storageCall, true);
+        return content;
+    }
+
+    private void writeToGcs(String name, byte[] content) {
+        final BlobId blobId = GcsLocation.getBlobId(location, name);
+        final PipelineEvent storageCall = FlightRecording.beginStorageCall("write", blobId);
+        gcs.create(BlobInfo.newBuilder(blobId).setContentType("application/octet-stream").build(), content);
+        FlightRecording.endStorageCall(storageCall, true);
+    }
+
+    private byte[] readFromFile(String name) throws IOException {
+        final Path path = Paths.get(location, name);
+        return Files.exists(path) ? Files.readAllBytes(path) : null;
+    }
+
+    private void writeToFile(String name, byte[] content) throws IOException {
+        final Path path = Paths.get(location, name);
+        Files.createDirectories(path.getParent());
+        final Path temporaryPath = Files.createTempFile(path.getParent(), "annotations", ".tmp");
+        Files.write(temporaryPath, content);
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+}
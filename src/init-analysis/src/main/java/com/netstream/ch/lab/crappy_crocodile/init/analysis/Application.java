@@ -1,8 +1,27 @@
 package com.netstream.ch.lab.crappy_crocodile.init.analysis;
 
 import io.micronaut.context.env.Environment;
+import io.micronaut.core.annotation.TypeHint;
 import io.micronaut.runtime.Micronaut;
 
+/**
+ * The type hints generate the reflection configuration of the native image for the classes (de)serialized
+ * by Gson (through their fields) and Jackson (through their accessors).
+ */
+@TypeHint(
+        value = {
+                Video.class,
+                PubSubBody.class,
+                PubSubMessage.class,
+                Result.class,
+                AnalysisJob.class,
+                AnalysisJob.State.class
+        },
+        accessType = {
+                TypeHint.AccessType.ALL_DECLARED_CONSTRUCTORS,
+                TypeHint.AccessType.ALL_DECLARED_FIELDS,
+                TypeHint.AccessType.ALL_PUBLIC_METHODS
+        })
 public class Application {
 
     public static void main(String[] args) {
@@ -11,4 +30,4 @@ public class Application {
                  .environments(Environment.GOOGLE_COMPUTE)
                  .start();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,140 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands the bytes written to it over to a task writing them to the target channel (e.g. the
+ * {@link com.google.cloud.WriteChannel} of a Cloud Storage blob), so the uploads of a number of tracks written
+ * at the same time run concurrently instead of one after the other.
+ * <p>
+ * At most {@link #QUEUE_CAPACITY} writes are queued, after which writing blocks until the target caught up.
+ * Closing the channel waits for all of them to be written and closes the target. The target is only closed then,
+ * so an upload that failed or was aborted (see {@link #abort()}) is never completed with what was written so far.
+ */
+class AsyncUploadChannel implements WritableByteChannel {
+
+    private static final int QUEUE_CAPACITY = 32;
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final WritableByteChannel target;
+    private final BlockingQueue<ByteBuffer> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final CompletableFuture<Void> completion;
+    private volatile boolean aborted;
+    private boolean open = true;
+
+
+    AsyncUploadChannel(WritableByteChannel target, Executor executor) {
+        this.target = target;
+        this.completion = CompletableFuture.runAsync(this::drain, executor);
+    }
+
+    private void drain() {
+        try {
+            ByteBuffer buffer;
+            while (((buffer = queue.take()) != END) && !aborted) {
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+            }
+            if (aborted) {
+                throw new IOException("The upload was aborted");
+            }
+            target.close();
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(new InterruptedIOException("Interrupted while uploading"));
+        } finally {
+            // unblock the writer if the upload failed
+            queue.clear();
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        final int length = src.remaining();
+        if (aborted) {
+            // e.g. flushed by closing the writer on top of the channel
+            src.position(src.limit());
+            return length;
+        }
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        final ByteBuffer copy = ByteBuffer.allocate(length);
+        copy.put(src).flip();
+        put(copy);
+        return length;
+    }
+
+    private void put(ByteBuffer buffer) throws IOException {
+        try {
+            while (!queue.offer(buffer, 100, TimeUnit.MILLISECONDS)) {
+                if (completion.isDone()) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the upload");
+        }
+        if (completion.isCompletedExceptionally()) {
+            await();
+        }
+    }
+
+    /**
+     * @return completed once all the bytes were written and the target channel was closed
+     */
+    CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            if (!aborted) {
+                put(END);
+                await();
+            }
+        }
+    }
+
+    /**
+     * Stop the upload without closing the target (e.g. after writing the track failed, so the truncated track is not
+     * completed as a blob). Whatever is written afterwards is discarded.
+     */
+    void abort() {
+        aborted = true;
+        queue.clear();
+        // wake up the upload if it waits for the next write (or it sees the flag with the next one)
+        queue.offer(END);
+    }
+
+    private void await() throws IOException {
+        try {
+            completion.join();
+        } catch (CompletionException e) {
+            // a new exception every time, since both writing and closing rethrow it
+            throw new IOException("Could not upload the track: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+}
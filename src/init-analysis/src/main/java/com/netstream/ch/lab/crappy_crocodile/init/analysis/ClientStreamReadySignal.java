@@ -0,0 +1,70 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.api.gax.rpc.ClientStream;
+import com.google.api.gax.rpc.ClientStreamReadyObserver;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Flow control of a client stream: lets the sender block until gRPC signals (with <code>onReady</code>) that the stream
+ * can take the next request without buffering it, instead of polling the stream.
+ * <p>
+ * The sender is woken up as well once the call is done (completed, failed or cancelled), so it never waits for
+ * a stream that will no longer get ready.
+ */
+class ClientStreamReadySignal<T> implements ClientStreamReadyObserver<T> {
+
+    private final CompletableFuture<?> completion;
+
+    private ClientStream<T> stream;
+
+
+    /**
+     * @param completion the future completed once the call is done
+     */
+    ClientStreamReadySignal(CompletableFuture<?> completion) {
+        this.completion = completion;
+        completion.whenComplete((result, throwable) -> signal());
+    }
+
+    @Override
+    public synchronized void onReady(ClientStream<T> stream) {
+        this.stream = stream;
+        notifyAll();
+    }
+
+    /**
+     * Wait until the stream is ready and send the request
+     *
+     * @return <code>false</code> if the call was done before (and the request was not sent)
+     */
+    boolean send(T request) throws InterruptedException {
+        final ClientStream<T> readyStream;
+        synchronized (this) {
+            // gRPC only calls onReady after isReady() turned true, so the signal cannot be missed between the two
+            while (((stream == null) || !stream.isSendReady()) && !completion.isDone()) {
+                wait();
+            }
+            if (completion.isDone()) {
+                return false;
+            }
+            readyStream = stream;
+        }
+        readyStream.send(request);
+        return true;
+    }
+
+    /**
+     * Close the stream once all requests were sent
+     */
+    synchronized void closeSend() {
+        if (stream != null) {
+            stream.closeSend();
+        }
+    }
+
+    private synchronized void signal() {
+        notifyAll();
+    }
+
+}
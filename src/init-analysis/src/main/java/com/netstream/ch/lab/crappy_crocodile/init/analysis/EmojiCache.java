@@ -0,0 +1,256 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Thread-safe, size-bounded cache for the emojis of labels.
+ * <p>
+ * Entries expire after a configurable time to live, labels without any emoji are cached as well (as <code>null</code>,
+ * with their own time to live) and concurrent look-ups of the same label are collapsed into a single load.
+ * The least recently used entries are evicted once the cache is full.
+ */
+public class EmojiCache {
+
+    private final int maximumSize;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+
+    private final Map<String, Entry> entries;
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+
+
+    /**
+     * @param maximumSize the maximum number of entries
+     * @param ttl the time to live of entries with an emoji (no expiration if not positive)
+     * @param negativeTtl the time to live of entries for labels without an emoji (no expiration if not positive)
+     */
+    public EmojiCache(int maximumSize, long ttl, long negativeTtl, TimeUnit unit) {
+        this.maximumSize = maximumSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.negativeTtlNanos = unit.toNanos(negativeTtl);
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > EmojiCache.this.maximumSize) {
+                    evictions.increment();
+                    return true;
+                } else {
+                    return false;
+                }
+            }
+        };
+    }
+
+    /**
+     * Get the emoji for the label, loading it (once for all concurrent callers) if it is not cached yet
+     *
+     * @return the emoji or <code>null</code> if there is none for the label
+     */
+    public String get(String label, Function<String, String> loader) {
+        return getAsync(label, l -> {
+            try {
+                return CompletableFuture.completedFuture(loader.apply(l));
+            } catch (RuntimeException ex) {
+                return CompletableFuture.failedFuture(ex);
+            }
+        }).join();
+    }
+
+    /**
+     * Get the emoji for the label, loading it (once for all concurrent callers) if it is not cached yet.
+     * Failed loads are not cached.
+     *
+     * @return a future for the emoji (completed with <code>null</code> if there is none for the label)
+     */
+    public CompletableFuture<String> getAsync(String label, Function<String, CompletableFuture<String>> loader) {
+        final Entry entry = getIfPresent(label);
+        if (entry != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture(entry.emoji);
+        } else {
+            misses.increment();
+            final CompletableFuture<String> loading = new CompletableFuture<>();
+            final CompletableFuture<String> alreadyLoading = inFlight.putIfAbsent(label, loading);
+            if (alreadyLoading != null) {
+                return alreadyLoading;
+            } else {
+                // the label might have been loaded in the meantime by another caller
+                final Entry loaded = getIfPresent(label);
+                if (loaded != null) {
+                    inFlight.remove(label, loading);
+                    loading.complete(loaded.emoji);
+                } else {
+                    loads.increment();
+                    CompletableFuture<String> load;
+                    try {
+                        load = loader.apply(label);
+                    } catch (RuntimeException ex) {
+                        load = CompletableFuture.failedFuture(ex);
+                    }
+                    load.whenComplete((emoji, error) -> {
+                        if (error == null) {
+                            put(label, emoji);
+                        } else {
+                            loadFailures.increment();
+                        }
+                        inFlight.remove(label, loading);
+                        if (error == null) {
+                            loading.complete(emoji);
+                        } else {
+                            loading.completeExceptionally(error);
+                        }
+                    });
+                }
+                return loading;
+            }
+        }
+    }
+
+    /**
+     * @return the cached entry for the label or <code>null</code> if there is none (or it has expired)
+     */
+    public Entry getIfPresent(String label) {
+        synchronized (entries) {
+            final Entry entry = entries.get(label);
+            if ((entry != null) && entry.isExpired(System.nanoTime())) {
+                entries.remove(label);
+                expirations.increment();
+                return null;
+            } else {
+                return entry;
+            }
+        }
+    }
+
+    public void put(String label, String emoji) {
+        put(label, emoji, (emoji != null) ? ttlNanos : negativeTtlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Put the emoji with the given time to live instead of the configured one (no expiration if not positive)
+     */
+    public void put(String label, String emoji, long ttl, TimeUnit unit) {
+        final long ttlNanos = unit.toNanos(ttl);
+        final Entry entry = new Entry(
+                emoji,
+                ((ttlNanos > 0) && (ttlNanos < Long.MAX_VALUE)) ? System.nanoTime() + ttlNanos : Long.MAX_VALUE);
+        synchronized (entries) {
+            entries.put(label, entry);
+        }
+    }
+
+    /**
+     * @return a copy of the entries which have not expired yet
+     */
+    public Map<String, Entry> getEntries() {
+        final long now = System.nanoTime();
+        final Map<String, Entry> copy = new LinkedHashMap<>();
+        synchronized (entries) {
+            entries.forEach((label, entry) -> {
+                if (!entry.isExpired(now)) {
+                    copy.put(label, entry);
+                }
+            });
+        }
+        return copy;
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    public long getLoadFailureCount() {
+        return loadFailures.sum();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("EmojiCache{");
+        sb.append("size=").append(size());
+        sb.append(", maximumSize=").append(maximumSize);
+        sb.append(", hits=").append(getHitCount());
+        sb.append(", misses=").append(getMissCount());
+        sb.append(", evictions=").append(getEvictionCount());
+        sb.append('}');
+        return sb.toString();
+    }
+
+
+    /**
+     * A cached emoji (which is <code>null</code> for labels without an emoji)
+     */
+    public static class Entry {
+
+        private final String emoji;
+        private final long expiresAt;
+
+        private Entry(String emoji, long expiresAt) {
+            this.emoji = emoji;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getEmoji() {
+            return emoji;
+        }
+
+        /**
+         * @return the time left until the entry expires (or {@link Long#MAX_VALUE} if it does not expire)
+         */
+        public long getRemainingTime(TimeUnit unit) {
+            return (expiresAt != Long.MAX_VALUE)
+                    ? unit.convert(Math.max(expiresAt - System.nanoTime(), 0), TimeUnit.NANOSECONDS)
+                    : Long.MAX_VALUE;
+        }
+
+        private boolean isExpired(long now) {
+            return (expiresAt != Long.MAX_VALUE) && (now - expiresAt >= 0);
+        }
+    }
+
+}
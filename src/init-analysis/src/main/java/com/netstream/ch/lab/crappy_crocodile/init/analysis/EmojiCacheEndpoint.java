@@ -0,0 +1,34 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import io.micronaut.management.endpoint.annotation.Endpoint;
+import io.micronaut.management.endpoint.annotation.Read;
+
+import javax.inject.Inject;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Management endpoint exposing the statistics of the {@link EmojiCache}
+ */
+@Endpoint(id = "emojicache", defaultSensitive = false)
+public class EmojiCacheEndpoint {
+
+    @Inject
+    private EmojiConverter emojiConverter;
+
+    @Read
+    public Map<String, Object> statistics() {
+        final EmojiCache cache = emojiConverter.getCache();
+        final Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("size", cache.size());
+        statistics.put("maximumSize", cache.getMaximumSize());
+        statistics.put("hits", cache.getHitCount());
+        statistics.put("misses", cache.getMissCount());
+        statistics.put("evictions", cache.getEvictionCount());
+        statistics.put("expirations", cache.getExpirationCount());
+        statistics.put("loads", cache.getLoadCount());
+        statistics.put("loadFailures", cache.getLoadFailureCount());
+        return statistics;
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Snapshot of the entries of an {@link EmojiCache}, used to warm up the caches of new instances.
+ * <p>
+ * Snapshots are stored gzipped in a compact, versioned format: a magic number, the version of the format and
+ * the number of entries, followed by the label, the emoji (if there is one) and the expiration time
+ * (in milliseconds since the epoch) of each entry.
+ */
+public class EmojiCacheSnapshot {
+
+    protected static final int MAGIC = 0x454d4f4a;
+    protected static final int VERSION = 1;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+
+    public static EmojiCacheSnapshot of(EmojiCache cache) {
+        final EmojiCacheSnapshot snapshot = new EmojiCacheSnapshot();
+        final long now = System.currentTimeMillis();
+        cache.getEntries().forEach((label, entry) -> {
+            final long remaining = entry.getRemainingTime(TimeUnit.MILLISECONDS);
+            snapshot.entries.put(label, new Entry(
+                    entry.getEmoji(),
+                    (remaining != Long.MAX_VALUE) ? now + remaining : Long.MAX_VALUE));
+        });
+        return snapshot;
+    }
+
+    /**
+     * @throws IOException if the snapshot could not be read or has an unknown format
+     */
+    public static EmojiCacheSnapshot read(InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(new GZIPInputStream(new BufferedInputStream(in)));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not an emoji cache snapshot");
+        }
+        final int version = data.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version of the emoji cache snapshot: " + version);
+        }
+        final EmojiCacheSnapshot snapshot = new EmojiCacheSnapshot();
+        final int size = data.readInt();
+        for (int i = 0; i < size; i++) {
+            final String label = data.readUTF();
+            final String emoji = data.readBoolean() ? data.readUTF() : null;
+            snapshot.entries.put(label, new Entry(emoji, data.readLong()));
+        }
+        return snapshot;
+    }
+
+    public void write(OutputStream out) throws IOException {
+        final GZIPOutputStream gzip = new GZIPOutputStream(out);
+        final DataOutputStream data = new DataOutputStream(gzip);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeInt(entries.size());
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            data.writeUTF(entry.getKey());
+            data.writeBoolean(entry.getValue().emoji != null);
+            if (entry.getValue().emoji != null) {
+                data.writeUTF(entry.getValue().emoji);
+            }
+            data.writeLong(entry.getValue().expiresAt);
+        }
+        data.flush();
+        gzip.finish();
+    }
+
+    /**
+     * Merge the entries of the other snapshot into this one, preferring emojis over missing ones
+     * and otherwise the entries which expire later. Expired entries are dropped.
+     *
+     * @return this snapshot
+     */
+    public EmojiCacheSnapshot merge(EmojiCacheSnapshot other) {
+        other.entries.forEach((label, entry) -> entries.merge(label, entry, (mine, theirs) -> {
+            if ((mine.emoji != null) != (theirs.emoji != null)) {
+                return (mine.emoji != null) ? mine : theirs;
+            } else {
+                return (theirs.expiresAt > mine.expiresAt) ? theirs : mine;
+            }
+        }));
+        final long now = System.currentTimeMillis();
+        entries.values().removeIf(entry -> entry.isExpired(now));
+        return this;
+    }
+
+    /**
+     * Drop the entries expiring first until there are no more than the given number of entries left
+     */
+    public void truncate(int maximumSize) {
+        if (entries.size() > maximumSize) {
+            final List<Map.Entry<String, Entry>> byExpiration = new ArrayList<>(entries.entrySet());
+            byExpiration.sort(Comparator.comparingLong(entry -> entry.getValue().expiresAt));
+            for (int i = 0; i < byExpiration.size() - maximumSize; i++) {
+                entries.remove(byExpiration.get(i).getKey());
+            }
+        }
+    }
+
+    /**
+     * Put the entries of the snapshot which have not expired yet into the cache
+     *
+     * @return the number of entries restored
+     */
+    public int restoreInto(EmojiCache cache) {
+        final long now = System.currentTimeMillis();
+        int restored = 0;
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (!entry.getValue().isExpired(now)) {
+                final long expiresAt = entry.getValue().expiresAt;
+                cache.put(
+                        entry.getKey(), entry.getValue().emoji,
+                        (expiresAt != Long.MAX_VALUE) ? expiresAt - now : Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                restored++;
+            }
+        }
+        return restored;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the emoji of the label (or <code>null</code> if there is none or the label is not in the snapshot)
+     */
+    public String getEmoji(String label) {
+        final Entry entry = entries.get(label);
+        return (entry != null) ? entry.emoji : null;
+    }
+
+    public boolean contains(String label) {
+        return entries.containsKey(label);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("EmojiCacheSnapshot{");
+        sb.append("size=").append(entries.size());
+        sb.append('}');
+        return sb.toString();
+    }
+
+
+    private static class Entry {
+
+        private final String emoji;
+        private final long expiresAt;
+
+        private Entry(String emoji, long expiresAt) {
+            this.emoji = emoji;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return expiresAt <= now;
+        }
+    }
+
+}
@@ -0,0 +1,225 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import io.micronaut.context.annotation.Context;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restores the {@link EmojiCache} of the {@link EmojiConverter} from a snapshot at startup and periodically
+ * writes new entries back, so new instances do not have to look up the same labels again.
+ * <p>
+ * The snapshot is stored in the location given by <code>EMOJI_CACHE_SNAPSHOT_LOCATION</code>, either a Cloud Storage
+ * object (<code>gs://bucket/name</code>) or a local file. Before writing, the stored snapshot is merged with the
+ * cache, and the write only succeeds if nobody else wrote it in the meantime (otherwise it is merged again).
+ */
+@Context
+public class EmojiCacheSnapshotter {
+
+    private static final String ENV_VAR_SNAPSHOT_LOCATION = "EMOJI_CACHE_SNAPSHOT_LOCATION";
+    private static final String ENV_VAR_SNAPSHOT_INTERVAL_SECONDS = "EMOJI_CACHE_SNAPSHOT_INTERVAL_SECONDS";
+    private static final long SNAPSHOT_INTERVAL_SECONDS =
+            (System.getenv(ENV_VAR_SNAPSHOT_INTERVAL_SECONDS) != null)
+                    ? Long.parseLong(System.getenv(ENV_VAR_SNAPSHOT_INTERVAL_SECONDS))
+                    : 300;
+    private static final int MAX_WRITE_ATTEMPTS = 5;
+    private static final int HTTP_PRECONDITION_FAILED = 412;
+
+    @Inject
+    private EmojiConverter emojiConverter;
+
+    @Inject
+    private Storage gcs;
+
+    private final String location;
+    private ScheduledExecutorService scheduler;
+    private long savedLoadCount;
+
+
+    @Inject
+    public EmojiCacheSnapshotter() {
+        this(System.getenv(ENV_VAR_SNAPSHOT_LOCATION));
+    }
+
+    EmojiCacheSnapshotter(String location) {
+        this.location = location;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (location != null) {
+            final EmojiCache cache = emojiConverter.getCache();
+            restore(cache);
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "emoji-cache-snapshots");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(
+                    () -> save(cache), SNAPSHOT_INTERVAL_SECONDS, SNAPSHOT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            save(emojiConverter.getCache());
+        }
+    }
+
+    /**
+     * Put the entries of the stored snapshot into the cache (if there is a snapshot)
+     *
+     * @return the number of entries restored
+     */
+    public synchronized int restore(EmojiCache cache) {
+        try {
+            final EmojiCacheSnapshot snapshot = GcsLocation.isGcs(location) ? readFromGcs() : readFromFile();
+            final int restored = (snapshot != null) ? snapshot.restoreInto(cache) : 0;
+            savedLoadCount = cache.getLoadCount();
+            System.out.println("Restored " + restored + " cached emojis from the snapshot in " + location);
+            return restored;
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Could not restore the emoji cache from " + location + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Merge the cache into the stored snapshot (if anything was loaded into the cache since it was last saved)
+     *
+     * @return whether the snapshot was written
+     */
+    public synchronized boolean save(EmojiCache cache) {
+        final long loadCount = cache.getLoadCount();
+        if (loadCount != savedLoadCount) {
+            try {
+                final EmojiCacheSnapshot snapshot = EmojiCacheSnapshot.of(cache);
+                if (GcsLocation.isGcs(location)) {
+                    writeToGcs(snapshot, cache.getMaximumSize());
+                } else {
+                    writeToFile(snapshot, cache.getMaximumSize());
+                }
+                savedLoadCount = loadCount;
+                System.out.println("Saved " + snapshot.size() + " cached emojis to the snapshot in " + location);
+                return true;
+            } catch (Exception e) {
+                e.printStackTrace();
+                System.out.println("Could not save the emoji cache to " + location + ": " + e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    private EmojiCacheSnapshot readFromGcs() throws IOException {
+        final Blob blob = gcs.get(GcsLocation.getBlobId(location));
+        return (blob != null) ? read(new ByteArrayInputStream(blob.getContent())) : null;
+    }
+
+    private void writeToGcs(EmojiCacheSnapshot snapshot, int maximumSize) throws IOException {
+        final BlobId blobId = GcsLocation.getBlobId(location);
+        for (int attempt = 1; ; attempt++) {
+            final Blob blob = gcs.get(blobId);
+            if (blob != null) {
+                final EmojiCacheSnapshot stored = read(new ByteArrayInputStream(blob.getContent()));
+                if (stored != null) {
+                    snapshot.merge(stored);
+                }
+            }
+            snapshot.truncate(maximumSize);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            snapshot.write(out);
+            try {
+                if (blob != null) {
+                    gcs.create(
+                            BlobInfo.newBuilder(BlobId.of(blobId.getBucket(), blobId.getName(), blob.getGeneration()))
+                                    .setContentType("application/octet-stream")
+                                    .build(),
+                            out.toByteArray(),
+                            Storage.BlobTargetOption.generationMatch());
+                } else {
+                    gcs.create(
+                            BlobInfo.newBuilder(blobId).setContentType("application/octet-stream").build(),
+                            out.toByteArray(),
+                            Storage.BlobTargetOption.doesNotExist());
+                }
+                return;
+            } catch (StorageException e) {
+                if ((e.getCode() != HTTP_PRECONDITION_FAILED) || (attempt >= MAX_WRITE_ATTEMPTS)) {
+                    throw e;
+                }
+                // Somebody else wrote the snapshot in the meantime, so merge with theirs and try again
+            }
+        }
+    }
+
+    private EmojiCacheSnapshot readFromFile() throws IOException {
+        final Path path = Paths.get(location);
+        if (Files.exists(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                return read(in);
+            }
+        } else {
+            return null;
+        }
+    }
+
+    private void writeToFile(EmojiCacheSnapshot snapshot, int maximumSize) throws IOException {
+        final Path path = Paths.get(location);
+        final Path lockPath = Paths.get(location + ".lock");
+        try (FileChannel lockChannel = FileChannel.open(
+                lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = lockChannel.lock()) {
+            final EmojiCacheSnapshot stored = readFromFile();
+            if (stored != null) {
+                snapshot.merge(stored);
+            }
+            snapshot.truncate(maximumSize);
+            final Path temporaryPath = Files.createTempFile(path.toAbsolutePath().getParent(), "emoji-cache", ".tmp");
+            try (OutputStream out = Files.newOutputStream(temporaryPath)) {
+                snapshot.write(out);
+            }
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * @return the snapshot or <code>null</code> if it has an unknown format (e.g. from a newer version)
+     */
+    private EmojiCacheSnapshot read(InputStream in) {
+        try {
+            return EmojiCacheSnapshot.read(in);
+        } catch (IOException e) {
+            System.out.println("Ignoring the emoji cache snapshot in " + location + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+}
@@ -1,30 +1,25 @@
 package com.netstream.ch.lab.crappy_crocodile.init.analysis;
 
 import com.google.cloud.videointelligence.v1p3beta1.Entity;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
 //import io.micronaut.http.HttpRequest;
 //import io.micronaut.http.MediaType;
 //import io.micronaut.http.client.RxHttpClient;
 //import io.micronaut.http.client.annotation.Client;
 //import io.micronaut.http.uri.UriBuilder;
 //import io.reactivex.Maybe;
-import org.apache.commons.io.IOUtils;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
-
-//import javax.inject.Inject;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
 import javax.inject.Singleton;
-import java.io.IOException;
-import java.net.URI;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Created by Julian Hanhart (chdhaju0) on 08.11.19.
@@ -33,50 +28,188 @@ import java.util.Map;
 public class EmojiConverter {
 
 
-    protected static final String ENDPOINT_BASE_URL = "https://www.emojidex.com/api/v1/";
-    protected static final String RESOURCE_SEARCH = "/search/emoji";
-    protected static final String FIELD_NAME_MOJI = "moji";
-    protected static final String FIELD_NAME_EMOJI = "emoji";
-
-    private Map<String, String> emojiMap = new HashMap<>();
+    protected static final String EMOJI_UNKNOWN = "🤷";
+
+    private static final String ENV_VAR_CACHE_MAX_SIZE = "EMOJI_CACHE_MAX_SIZE";
+    private static final int CACHE_MAX_SIZE =
+            (System.getenv(ENV_VAR_CACHE_MAX_SIZE) != null)
+                    ? Integer.parseInt(System.getenv(ENV_VAR_CACHE_MAX_SIZE))
+                    : 10_000;
+    private static final String ENV_VAR_CACHE_TTL_SECONDS = "EMOJI_CACHE_TTL_SECONDS";
+    private static final long CACHE_TTL_SECONDS =
+            (System.getenv(ENV_VAR_CACHE_TTL_SECONDS) != null)
+                    ? Long.parseLong(System.getenv(ENV_VAR_CACHE_TTL_SECONDS))
+                    : TimeUnit.DAYS.toSeconds(1);
+    private static final String ENV_VAR_CACHE_NEGATIVE_TTL_SECONDS = "EMOJI_CACHE_NEGATIVE_TTL_SECONDS";
+    private static final long CACHE_NEGATIVE_TTL_SECONDS =
+            (System.getenv(ENV_VAR_CACHE_NEGATIVE_TTL_SECONDS) != null)
+                    ? Long.parseLong(System.getenv(ENV_VAR_CACHE_NEGATIVE_TTL_SECONDS))
+                    : TimeUnit.HOURS.toSeconds(1);
+    private static final String ENV_VAR_RESOLUTION_TIMEOUT_MILLIS = "EMOJI_RESOLUTION_TIMEOUT_MILLIS";
+    private static final long RESOLUTION_TIMEOUT_MILLIS =
+            (System.getenv(ENV_VAR_RESOLUTION_TIMEOUT_MILLIS) != null)
+                    ? Long.parseLong(System.getenv(ENV_VAR_RESOLUTION_TIMEOUT_MILLIS))
+                    : 10_000;
+    private static final String ENV_VAR_LOOK_UP_MODE = "EMOJI_LOOKUP_MODE";
+    private static final LookUpMode LOOK_UP_MODE =
+            (System.getenv(ENV_VAR_LOOK_UP_MODE) != null)
+                    ? LookUpMode.valueOf(System.getenv(ENV_VAR_LOOK_UP_MODE).toUpperCase())
+                    : LookUpMode.HYBRID;
+
+    private final EmojiCache cache =
+            new EmojiCache(CACHE_MAX_SIZE, CACHE_TTL_SECONDS, CACHE_NEGATIVE_TTL_SECONDS, TimeUnit.SECONDS);
 
 //    @Client(ENDPOINT_BASE_URL)
 //    @Inject
 //    RxHttpClient httpClient;
 
+    @Inject
+    private EmojidexClient emojidexClient;
+
+    @Inject
+    private EmojiIndex emojiIndex;
+
+    @Inject
+    private MeterRegistry meterRegistry;
+
+
+    /**
+     * Expose the statistics of the cache as metrics (<code>emoji.cache.*</code>)
+     */
+    @PostConstruct
+    public void registerMetrics() {
+        meterRegistry.gauge("emoji.cache.size", cache, EmojiCache::size);
+        FunctionCounter.builder("emoji.cache.gets", cache, EmojiCache::getHitCount)
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("emoji.cache.gets", cache, EmojiCache::getMissCount)
+                .tag("result", "miss")
+                .register(meterRegistry);
+        FunctionCounter.builder("emoji.cache.evictions", cache, EmojiCache::getEvictionCount)
+                .register(meterRegistry);
+        FunctionCounter.builder("emoji.cache.expirations", cache, EmojiCache::getExpirationCount)
+                .register(meterRegistry);
+        FunctionCounter.builder("emoji.cache.load.failures", cache, EmojiCache::getLoadFailureCount)
+                .register(meterRegistry);
+    }
 
     public String convertToEmoji(SceneEntity entity) {
+        return convertToEmojiAsync(entity).join();
+    }
+
+    /**
+     * Convert the entity to an emoji without blocking, falling back to its categories if there is none for the label
+     *
+     * @return a future for the emoji (or {@link #EMOJI_UNKNOWN} if there is none for the entity or its categories)
+     */
+    public CompletableFuture<String> convertToEmojiAsync(SceneEntity entity) {
         if (entity != null) {
-            String emoji = emojiMap.get(entity.getEntity().getDescription());
-            if (emoji != null) {
-                return emoji;
-            } else {
-                emoji = lookUp(entity.getEntity().getDescription());
-                if (emoji != null) {
-                    emojiMap.put(entity.getEntity().getDescription(), emoji);
-                    return emoji;
-                } else {
-                    for (Entity categoryEntity : entity.getCategoryEntities()) {
-                        if (emoji != null) {
-                            emoji = lookUp(categoryEntity.getDescription());
-                        }
-                    }
+            CompletableFuture<String> emoji = findEmojiAsync(entity.getEntity().getDescription());
+            for (Entity categoryEntity : entity.getCategoryEntities()) {
+                emoji = emoji.thenCompose(found -> (found != null)
+                        ? CompletableFuture.completedFuture(found)
+                        : findEmojiAsync(categoryEntity.getDescription()));
+            }
+            return emoji.thenApply(found -> (found != null) ? found : EMOJI_UNKNOWN);
+        } else {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Convert the entity to an emoji with the emojis resolved by {@link #resolveAll(Collection)},
+     * falling back to its categories if there is none for the label
+     *
+     * @return the emoji (or {@link #EMOJI_UNKNOWN} if there is none for the entity or its categories)
+     */
+    public String convertToEmoji(SceneEntity entity, Map<String, String> emojis) {
+        if (entity != null) {
+            String emoji = emojis.get(entity.getEntity().getDescription());
+            if (emoji == null) {
+                for (Entity categoryEntity : entity.getCategoryEntities()) {
+                    emoji = emojis.get(categoryEntity.getDescription());
                     if (emoji != null) {
-                        emojiMap.put(entity.getEntity().getDescription(), emoji);
-                        return emoji;
-                    } else {
-                        return "🤷";
+                        break;
                     }
                 }
             }
+            return (emoji != null) ? emoji : EMOJI_UNKNOWN;
         } else {
             return null;
         }
     }
 
+    public Map<String, String> resolveAll(Collection<String> labels) {
+        return resolveAll(labels, RESOLUTION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Resolve the emojis of all the given labels in one batch, looking up the ones which are not cached concurrently
+     * and waiting for them at most until the timeout has passed.
+     * Labels which could not be resolved in time are left out (their look-ups still complete and fill the cache).
+     *
+     * @return the emojis of the labels for which one was found
+     */
+    public Map<String, String> resolveAll(Collection<String> labels, long timeout, TimeUnit unit) {
+        final Map<String, CompletableFuture<String>> lookUps = new HashMap<>();
+        for (String label : labels) {
+            lookUps.computeIfAbsent(label, this::findEmojiAsync);
+        }
+        try {
+            CompletableFuture.allOf(lookUps.values().toArray(new CompletableFuture[0])).get(timeout, unit);
+        } catch (TimeoutException ex) {
+            System.out.println(
+                    "Could not resolve the emojis of " +
+                            lookUps.values().stream().filter(lookUp -> !lookUp.isDone()).count() +
+                            " out of " + lookUps.size() + " labels within " + unit.toMillis(timeout) + "ms");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            ex.printStackTrace();
+        }
+
+        final Map<String, String> emojis = new HashMap<>();
+        lookUps.forEach((label, lookUp) -> {
+            final String emoji = lookUp.getNow(null);
+            if (emoji != null) {
+                emojis.put(label, emoji);
+            }
+        });
+        return emojis;
+    }
+
+    /**
+     * Find the emoji for the label in the offline index and/or the cache, or look it up on Emojidex
+     * (depending on the {@link LookUpMode}; failed look-ups are not cached)
+     *
+     * @return a future for the emoji (completed with <code>null</code> if there is none for the label)
+     */
+    protected CompletableFuture<String> findEmojiAsync(String label) {
+        if (LOOK_UP_MODE != LookUpMode.REMOTE) {
+            final String emoji = emojiIndex.find(label);
+            if ((emoji != null) || (LOOK_UP_MODE == LookUpMode.OFFLINE)) {
+                return CompletableFuture.completedFuture(emoji);
+            }
+        }
+        final PipelineEvent lookUpEvent = FlightRecording.beginEmojiLookup(label);
+        return cache.getAsync(label, term -> {
+                    FlightRecording.setEmojiSource(lookUpEvent, "emojidex");
+                    return emojidexClient.search(term);
+                })
+                .exceptionally(ex -> {
+                    ex.printStackTrace();
+                    return null;
+                })
+                .whenComplete((emoji, ex) -> FlightRecording.endEmojiLookup(lookUpEvent, emoji != null));
+    }
+
+    public EmojiCache getCache() {
+        return cache;
+    }
+
     public String lookUp(String object) {
         //  Since the Micronaut HTTP client does not allow GET requests with a body,
-        //  we'll have to use the Apache Client and misappropriate it a bit to use the Emojidex API (>_<)
+        //  we'll have to use the JDK's HTTP Client (see EmojidexClient) to use the Emojidex API (>_<)
 
         /* Won't work:
         Maybe<String> response = httpClient
@@ -90,51 +223,20 @@ public class EmojiConverter {
         JsonElement json = JsonParser.parseString(response.blockingGet());
         */
 
-        try {
-            HttpClient client = new DefaultHttpClient();
-            HttpGetWithEntity get = new HttpGetWithEntity(ENDPOINT_BASE_URL + RESOURCE_SEARCH);
-            final StringEntity entity = new StringEntity("code_cont=" + object);
-            entity.setContentType(ContentType.APPLICATION_FORM_URLENCODED.getMimeType());
-            get.setEntity(entity);
-            HttpResponse response = client.execute(get);
-            JsonElement json = JsonParser.parseString(IOUtils.toString(response.getEntity().getContent()));
-            JsonArray emojis = json.getAsJsonObject().getAsJsonArray(FIELD_NAME_EMOJI);
-            if ((emojis != null) && (emojis.size() > 0)) {
-                for (JsonElement emoji : emojis) {
-                    JsonObject entry = emoji.getAsJsonObject();
-                    if (entry.has(FIELD_NAME_MOJI) && !entry.get(FIELD_NAME_MOJI).isJsonNull()) {
-                        return entry.get(FIELD_NAME_MOJI).getAsString();
-                    }
-                }
-            }
-            return null;
-        } catch (IOException ex) {
-            ex.printStackTrace();
-            return null;
-        }
+        return findEmojiAsync(object).join();
     }
 
+
     /**
-     * Manhandle the Apache HTTP Client to allow for GET calls with a body
+     * Where to look for the emojis of labels
      */
-    public static class HttpGetWithEntity extends HttpEntityEnclosingRequestBase {
-
-        public final static String GET_METHOD = "GET";
-
-        public HttpGetWithEntity(final URI uri) {
-            super();
-            setURI(uri);
-        }
-
-        public HttpGetWithEntity(final String uri) {
-            super();
-            setURI(URI.create(uri));
-        }
-
-        @Override
-        public String getMethod() {
-            return GET_METHOD;
-        }
+    protected enum LookUpMode {
+        /** Only use the offline {@link EmojiIndex} */
+        OFFLINE,
+        /** Use the offline {@link EmojiIndex} and look the labels it does not know up on Emojidex */
+        HYBRID,
+        /** Only look the labels up on Emojidex */
+        REMOTE
     }
 
 }
@@ -0,0 +1,245 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import io.micronaut.context.annotation.Context;
+
+import javax.inject.Inject;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Offline index of emojis, mapping label descriptions to emojis without any network calls.
+ * <p>
+ * The index is loaded at startup from the bundled <code>emoji-index.tsv</code> (or the file given by
+ * <code>EMOJI_INDEX_PATH</code>), which lists an emoji and the names it stands for on each line. The file is read
+ * line by line (so it is never on the heap as a whole) and the names are kept in a trie, against which the words
+ * of a label are matched: the longest name covering the last words of the label wins (so "hunting dog" is matched
+ * by "dog"), otherwise the name ending the latest in it (so "dog breed" is still matched by "dog").
+ * Plurals ("cars", "puppies") match the singular names.
+ */
+@Context
+public class EmojiIndex {
+
+    protected static final String RESOURCE_INDEX = "/emoji-index.tsv";
+
+    private static final String ENV_VAR_INDEX_PATH = "EMOJI_INDEX_PATH";
+    private static final Pattern LINE_SEPARATOR = Pattern.compile("\r?\n");
+    private static final Pattern NON_WORD_CHARACTERS = Pattern.compile("[^\\p{L}\\p{N}']+");
+
+    private final Node root = new Node();
+    private int size;
+
+
+    @Inject
+    public EmojiIndex() {
+        final String path = System.getenv(ENV_VAR_INDEX_PATH);
+        try (BufferedReader reader = open(path)) {
+            reader.lines().forEach(this::addLine);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not read the emoji index " + path, ex);
+        }
+    }
+
+    /**
+     * @param index the content of an index file (an emoji, a tab and the comma separated names on each line)
+     */
+    public EmojiIndex(CharSequence index) {
+        LINE_SEPARATOR.splitAsStream(index).forEach(this::addLine);
+    }
+
+    /**
+     * @param path the path of the index file or <code>null</code> for the bundled index
+     */
+    private static BufferedReader open(String path) throws IOException {
+        if (path != null) {
+            return Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8);
+        } else {
+            final InputStream in = EmojiIndex.class.getResourceAsStream(RESOURCE_INDEX);
+            if (in != null) {
+                return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            } else {
+                System.out.println("Could not find the emoji index " + RESOURCE_INDEX);
+                return new BufferedReader(new StringReader(""));
+            }
+        }
+    }
+
+    private void addLine(String line) {
+        final int tab = line.indexOf('\t');
+        if (!line.startsWith("#") && (tab > 0)) {
+            final String emoji = line.substring(0, tab).trim();
+            for (String name : line.substring(tab + 1).split(",")) {
+                add(normalize(name), emoji);
+            }
+        }
+    }
+
+    private void add(String name, String emoji) {
+        if (!name.isEmpty()) {
+            Node node = root;
+            for (int i = 0; i < name.length(); i++) {
+                node = node.addChild(name.charAt(i));
+            }
+            if (node.emoji == null) {
+                node.emoji = emoji;
+                size++;
+            }
+        }
+    }
+
+    /**
+     * Find the emoji for the label
+     *
+     * @return the emoji or <code>null</code> if no name of the index matches the label
+     */
+    public String find(String label) {
+        final String words = normalize(label);
+        Match best = null;
+        for (int start = 0; start < words.length(); start = nextWord(words, start)) {
+            final Match match = match(words, start);
+            if (match != null) {
+                if (match.end == words.length()) {
+                    return match.emoji;
+                } else if ((best == null) || (match.end > best.end)) {
+                    best = match;
+                }
+            }
+        }
+        return (best != null) ? best.emoji : null;
+    }
+
+    /**
+     * @return the longest name starting at the given position which ends with a word (or <code>null</code>)
+     */
+    private Match match(String words, int start) {
+        Match match = null;
+        Node node = root;
+        for (int i = start; node != null; i++) {
+            if (node.emoji != null) {
+                final int end = endOfWord(words, i);
+                if (end >= 0) {
+                    match = new Match(node.emoji, end);
+                }
+            }
+            if (i == words.length()) {
+                break;
+            }
+            if (words.startsWith("ies", i) && isEndOfWord(words, i + 3)) {
+                final Node singular = node.child('y');
+                if ((singular != null) && (singular.emoji != null)) {
+                    match = new Match(singular.emoji, i + 3);
+                }
+            }
+            node = node.child(words.charAt(i));
+        }
+        return match;
+    }
+
+    /**
+     * @return the end of the word if it ends at the position (with an optional plural suffix) or <code>-1</code>
+     */
+    private static int endOfWord(String words, int position) {
+        if (isEndOfWord(words, position)) {
+            return position;
+        } else if (words.startsWith("s", position) && isEndOfWord(words, position + 1)) {
+            return position + 1;
+        } else if (words.startsWith("es", position) && isEndOfWord(words, position + 2)) {
+            return position + 2;
+        } else {
+            return -1;
+        }
+    }
+
+    private static boolean isEndOfWord(String words, int position) {
+        return (position == words.length()) || (words.charAt(position) == ' ');
+    }
+
+    private static int nextWord(String words, int position) {
+        final int space = words.indexOf(' ', position);
+        return (space >= 0) ? space + 1 : words.length();
+    }
+
+    /**
+     * @return the words of the text in lower case, separated by single spaces
+     */
+    protected static String normalize(String text) {
+        return (text != null)
+                ? NON_WORD_CHARACTERS.matcher(text.toLowerCase(Locale.ROOT)).replaceAll(" ").trim()
+                : "";
+    }
+
+    /**
+     * @return the number of names in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("EmojiIndex{");
+        sb.append("size=").append(size);
+        sb.append('}');
+        return sb.toString();
+    }
+
+
+    private static class Match {
+
+        private final String emoji;
+        private final int end;
+
+        private Match(String emoji, int end) {
+            this.emoji = emoji;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Node of the trie, with its children sorted by their characters
+     */
+    private static class Node {
+
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        private char[] keys = NO_KEYS;
+        private Node[] children = NO_CHILDREN;
+        private String emoji;
+
+        private Node child(char key) {
+            final int index = Arrays.binarySearch(keys, key);
+            return (index >= 0) ? children[index] : null;
+        }
+
+        private Node addChild(char key) {
+            int index = Arrays.binarySearch(keys, key);
+            if (index >= 0) {
+                return children[index];
+            } else {
+                index = -(index + 1);
+                final char[] newKeys = new char[keys.length + 1];
+                final Node[] newChildren = new Node[children.length + 1];
+                System.arraycopy(keys, 0, newKeys, 0, index);
+                System.arraycopy(children, 0, newChildren, 0, index);
+                newKeys[index] = key;
+                newChildren[index] = new Node();
+                System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+                System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+                keys = newKeys;
+                children = newChildren;
+                return newChildren[index];
+            }
+        }
+    }
+
+}
@@ -0,0 +1,30 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for looking up the emoji of a label (only to be created through {@link FlightRecording})
+ */
+@Name(FlightRecording.EVENT_NAME_PREFIX + "EmojiLookup")
+@Label("Emoji Lookup")
+@Description("Looking up the emoji of a label in the emoji cache or on Emojidex")
+@Category({FlightRecording.CATEGORY, "Emojis"})
+@StackTrace(false)
+class EmojiLookupEvent extends Event implements PipelineEvent {
+
+    @Label("Label")
+    String label;
+
+    @Label("Source")
+    @Description("Where the emoji was found: cache or emojidex")
+    String source;
+
+    @Label("Found")
+    boolean found;
+
+}
@@ -0,0 +1,191 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Non-blocking client for the search API of Emojidex.
+ * <p>
+ * All look-ups share a single {@link HttpClient} (and with it its pool of keep-alive connections), and at most
+ * a configurable number of requests are in flight at once. Further requests are queued without blocking the caller.
+ * The latency of the requests is recorded as <code>emojidex.requests</code> (not counting the time spent queued).
+ */
+@Singleton
+public class EmojidexClient {
+
+    protected static final String ENDPOINT_BASE_URL = "https://www.emojidex.com/api/v1/";
+    protected static final String RESOURCE_SEARCH = "/search/emoji";
+    protected static final String FIELD_NAME_MOJI = "moji";
+    protected static final String FIELD_NAME_EMOJI = "emoji";
+
+    private static final String ENV_VAR_CONNECT_TIMEOUT_MILLIS = "EMOJIDEX_CONNECT_TIMEOUT_MILLIS";
+    private static final long CONNECT_TIMEOUT_MILLIS =
+            (System.getenv(ENV_VAR_CONNECT_TIMEOUT_MILLIS) != null)
+                    ? Long.parseLong(System.getenv(ENV_VAR_CONNECT_TIMEOUT_MILLIS))
+                    : 2_000;
+    private static final String ENV_VAR_READ_TIMEOUT_MILLIS = "EMOJIDEX_READ_TIMEOUT_MILLIS";
+    private static final long READ_TIMEOUT_MILLIS =
+            (System.getenv(ENV_VAR_READ_TIMEOUT_MILLIS) != null)
+                    ? Long.parseLong(System.getenv(ENV_VAR_READ_TIMEOUT_MILLIS))
+                    : 5_000;
+    private static final String ENV_VAR_MAX_CONCURRENT_REQUESTS = "EMOJIDEX_MAX_CONCURRENT_REQUESTS";
+    private static final int MAX_CONCURRENT_REQUESTS =
+            (System.getenv(ENV_VAR_MAX_CONCURRENT_REQUESTS) != null)
+                    ? Integer.parseInt(System.getenv(ENV_VAR_MAX_CONCURRENT_REQUESTS))
+                    : 8;
+    private static final String ENV_VAR_KEEP_ALIVE_SECONDS = "EMOJIDEX_KEEP_ALIVE_SECONDS";
+    private static final String PROPERTY_KEEP_ALIVE_TIMEOUT = "jdk.httpclient.keepalive.timeout";
+
+    static {
+        // The JDK client only reads the idle timeout of its pooled connections from this system property
+        if ((System.getenv(ENV_VAR_KEEP_ALIVE_SECONDS) != null)
+                && (System.getProperty(PROPERTY_KEEP_ALIVE_TIMEOUT) == null)) {
+            System.setProperty(PROPERTY_KEEP_ALIVE_TIMEOUT, System.getenv(ENV_VAR_KEEP_ALIVE_SECONDS));
+        }
+    }
+
+    private final URI searchUri;
+    private final Duration readTimeout;
+    private final HttpClient httpClient;
+    private final MeterRegistry meterRegistry;
+
+    private final Semaphore permits;
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+
+
+    @Inject
+    public EmojidexClient(MeterRegistry meterRegistry) {
+        this(
+                URI.create(ENDPOINT_BASE_URL + RESOURCE_SEARCH),
+                Duration.ofMillis(CONNECT_TIMEOUT_MILLIS),
+                Duration.ofMillis(READ_TIMEOUT_MILLIS),
+                MAX_CONCURRENT_REQUESTS,
+                meterRegistry);
+    }
+
+    EmojidexClient(
+            URI searchUri,
+            Duration connectTimeout,
+            Duration readTimeout,
+            int maxConcurrentRequests,
+            MeterRegistry meterRegistry) {
+        this.searchUri = searchUri;
+        this.meterRegistry = meterRegistry;
+        this.readTimeout = readTimeout;
+        this.permits = new Semaphore(Math.max(maxConcurrentRequests, 1));
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        meterRegistry.gauge("emojidex.requests.pending", pending, Queue::size);
+    }
+
+    /**
+     * Search for an emoji for the given term
+     *
+     * @return a future for the first emoji found (completed with <code>null</code> if there is none),
+     * which fails if the API could not be reached or did not respond in time
+     */
+    public CompletableFuture<String> search(String term) {
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        pending.add(() -> send(term).whenComplete((emoji, error) -> {
+            permits.release();
+            drain();
+            if (error == null) {
+                result.complete(emoji);
+            } else {
+                result.completeExceptionally(error);
+            }
+        }));
+        drain();
+        return result;
+    }
+
+    /**
+     * Start as many of the pending requests as there are permits left
+     */
+    private void drain() {
+        while (!pending.isEmpty() && permits.tryAcquire()) {
+            final Runnable request = pending.poll();
+            if (request != null) {
+                request.run();
+            } else {
+                permits.release();
+            }
+        }
+    }
+
+    private CompletableFuture<String> send(String term) {
+        //  Emojidex expects the search term as form data in the body of a GET request
+        final HttpRequest request = HttpRequest.newBuilder(searchUri)
+                .timeout(readTimeout)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .method("GET", HttpRequest.BodyPublishers.ofString(
+                        "code_cont=" + URLEncoder.encode(term, StandardCharsets.UTF_8)))
+                .build();
+        final Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+                    .whenComplete((response, error) -> sample.stop(meterRegistry.timer(
+                            "emojidex.requests",
+                            "status", (response != null) ? String.valueOf(response.statusCode()) : "error")))
+                    .thenApply(response -> {
+                        if (response.statusCode() == 200) {
+                            return parseEmoji(response.body());
+                        } else {
+                            throw new CompletionException(new IOException(
+                                    "Emojidex responded with status " + response.statusCode() + " for '" + term + "'"));
+                        }
+                    });
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    /**
+     * @return the first emoji in the search result or <code>null</code> if there is none
+     */
+    protected static String parseEmoji(String body) {
+        JsonElement json = JsonParser.parseString(body);
+        JsonArray emojis = json.getAsJsonObject().getAsJsonArray(FIELD_NAME_EMOJI);
+        if ((emojis != null) && (emojis.size() > 0)) {
+            for (JsonElement emoji : emojis) {
+                JsonObject entry = emoji.getAsJsonObject();
+                if (entry.has(FIELD_NAME_MOJI) && !entry.get(FIELD_NAME_MOJI).isJsonNull()) {
+                    return entry.get(FIELD_NAME_MOJI).getAsString();
+                }
+            }
+        }
+        return null;
+    }
+
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+}
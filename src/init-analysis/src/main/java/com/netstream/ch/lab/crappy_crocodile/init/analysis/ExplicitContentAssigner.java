@@ -0,0 +1,66 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.videointelligence.v1p3beta1.ExplicitContentFrame;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Assigns the likelihood for explicit content of the detected frames to the scenes containing them.
+ * <p>
+ * The frames are sorted once and merge-joined against the (already ordered) scenes of the timeline, so the cost
+ * is linear in the number of frames plus scenes instead of calling
+ * {@link Scene#updateExplicitContentLikelihoodIfContains(ExplicitContentFrame)} for every combination of them.
+ */
+class ExplicitContentAssigner {
+
+    private ExplicitContentAssigner() {
+    }
+
+    public static void assign(SceneTimeline timeline, Collection<ExplicitContentFrame> frames) {
+        if ((timeline != null) && !timeline.isEmpty() && (frames != null) && !frames.isEmpty()) {
+            final long[] offsets = new long[frames.size()];
+            final int[] likelihoods = new int[frames.size()];
+            if (!collect(frames, offsets, likelihoods)) {
+                final List<ExplicitContentFrame> sorted = new ArrayList<>(frames);
+                sorted.sort(Comparator
+                        .comparingLong((ExplicitContentFrame f) -> f.getTimeOffset().getSeconds())
+                        .thenComparingInt(f -> f.getTimeOffset().getNanos()));
+                collect(sorted, offsets, likelihoods);
+            }
+
+            // the scenes are ordered by their start, so the first frame that could be part of a scene only moves forward
+            int first = 0;
+            for (int scene = 0; scene < timeline.size(); scene++) {
+                final long start = timeline.getStart(scene);
+                final long end = timeline.getEnd(scene);
+                while ((first < offsets.length) && (offsets[first] < start)) {
+                    first++;
+                }
+                int likelihood = timeline.getLikelihoodForExplicitContentValue(scene);
+                for (int i = first; (i < offsets.length) && (offsets[i] <= end); i++) {
+                    likelihood = Math.max(likelihood, likelihoods[i]);
+                }
+                timeline.setLikelihoodForExplicitContent(scene, likelihood);
+            }
+        }
+    }
+
+    /**
+     * @return whether the frames were already ordered by their time offset
+     */
+    private static boolean collect(Collection<ExplicitContentFrame> frames, long[] offsets, int[] likelihoods) {
+        boolean ordered = true;
+        int i = 0;
+        for (ExplicitContentFrame frame : frames) {
+            offsets[i] = SceneMerger.toNanos(frame.getTimeOffset());
+            likelihoods[i] = frame.getPornographyLikelihoodValue();
+            ordered &= (i == 0) || (offsets[i - 1] <= offsets[i]);
+            i++;
+        }
+        return ordered;
+    }
+
+}
@@ -0,0 +1,249 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.storage.BlobId;
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Custom JDK Flight Recorder events of the pipeline and the recording of them on demand.
+ * <p>
+ * Flight Recorder is not available on every JVM (e.g. not on the OpenJ9 the container runs on by default),
+ * so the events must only be created and committed through the methods of this class (and only be referred to
+ * as {@link PipelineEvent}s). They return <code>null</code> (and accept <code>null</code>) if Flight Recorder is not
+ * available or the event is not enabled by any recording, so profiling costs next to nothing unless something
+ * is actually being recorded.
+ */
+public final class FlightRecording {
+
+    protected static final String EVENT_NAME_PREFIX = "com.netstream.ch.lab.crappy_crocodile.";
+    protected static final String CATEGORY = "Crappy Crocodile";
+
+    private static final String RECORDING_NAME = "init-analysis";
+    private static final boolean AVAILABLE = isFlightRecorderAvailable();
+
+    private static Recording recording;
+
+
+    private FlightRecording() {
+    }
+
+    private static boolean isFlightRecorderAvailable() {
+        // Native images do not support Flight Recorder either
+        if (System.getProperty("org.graalvm.nativeimage.imagecode") != null) {
+            return false;
+        }
+        try {
+            return ModuleLayer.boot().findModule("jdk.jfr").isPresent() && FlightRecorder.isAvailable();
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    static PipelineEvent beginVideoAnalysis(Video video) {
+        if (AVAILABLE) {
+            final VideoAnalysisEvent event = new VideoAnalysisEvent();
+            if (event.isEnabled()) {
+                event.videoId = video.getId();
+                event.videoSize = parseSize(video.getSize());
+                event.begin();
+                return event;
+            }
+        }
+        return null;
+    }
+
+    static void setSceneCount(PipelineEvent event, int sceneCount) {
+        if (event != null) {
+            ((VideoAnalysisEvent) event).sceneCount = sceneCount;
+        }
+    }
+
+    static void endVideoAnalysis(PipelineEvent event, boolean succeeded) {
+        if (event != null) {
+            final VideoAnalysisEvent videoAnalysis = (VideoAnalysisEvent) event;
+            videoAnalysis.succeeded = succeeded;
+            videoAnalysis.commit();
+        }
+    }
+
+    static PipelineEvent beginSceneMerge(String videoId, int labelCount) {
+        if (AVAILABLE) {
+            final SceneMergeEvent event = new SceneMergeEvent();
+            if (event.isEnabled()) {
+                event.videoId = videoId;
+                event.labelCount = labelCount;
+                event.begin();
+                return event;
+            }
+        }
+        return null;
+    }
+
+    static void endSceneMerge(PipelineEvent event, int sceneCount) {
+        if (event != null) {
+            final SceneMergeEvent sceneMerge = (SceneMergeEvent) event;
+            sceneMerge.sceneCount = sceneCount;
+            sceneMerge.commit();
+        }
+    }
+
+    static PipelineEvent beginEmojiLookup(String label) {
+        if (AVAILABLE) {
+            final EmojiLookupEvent event = new EmojiLookupEvent();
+            if (event.isEnabled()) {
+                event.label = label;
+                event.source = "cache";
+                event.begin();
+                return event;
+            }
+        }
+        return null;
+    }
+
+    static void setEmojiSource(PipelineEvent event, String source) {
+        if (event != null) {
+            ((EmojiLookupEvent) event).source = source;
+        }
+    }
+
+    static void endEmojiLookup(PipelineEvent event, boolean found) {
+        if (event != null) {
+            final EmojiLookupEvent emojiLookup = (EmojiLookupEvent) event;
+            emojiLookup.found = found;
+            emojiLookup.commit();
+        }
+    }
+
+    static PipelineEvent beginStorageCall(String operation, BlobId blobId) {
+        return beginStorageCall(operation, blobId.getBucket(), blobId.getName(), 1);
+    }
+
+    static PipelineEvent beginStorageCall(String operation, String bucket, String objectName, int objectCount) {
+        if (AVAILABLE) {
+            final StorageCallEvent event = new StorageCallEvent();
+            if (event.isEnabled()) {
+                event.operation = operation;
+                event.bucket = bucket;
+                event.objectName = objectName;
+                event.objectCount = objectCount;
+                event.begin();
+                return event;
+            }
+        }
+        return null;
+    }
+
+    static void endStorageCall(PipelineEvent event, boolean succeeded) {
+        if (event != null) {
+            final StorageCallEvent storageCall = (StorageCallEvent) event;
+            storageCall.succeeded = succeeded;
+            storageCall.commit();
+        }
+    }
+
+    /**
+     * Start recording with the given settings (e.g. <code>default</code> or <code>profile</code>),
+     * keeping the events of at most the given time (or of the whole recording if it is <code>null</code>)
+     */
+    public static synchronized void start(String settings, Duration maxAge) throws IOException, ParseException {
+        requireAvailable();
+        if ((recording != null) && (recording.getState() == RecordingState.RUNNING)) {
+            throw new IllegalStateException("A recording is already running");
+        }
+        close();
+        final Recording newRecording = new Recording(Configuration.getConfiguration(settings));
+        newRecording.setName(RECORDING_NAME);
+        newRecording.setToDisk(true);
+        if (maxAge != null) {
+            newRecording.setMaxAge(maxAge);
+        }
+        newRecording.start();
+        recording = newRecording;
+    }
+
+    /**
+     * Write what was recorded so far into a temporary file, without stopping the recording
+     *
+     * @return the temporary file (to be deleted by the caller)
+     */
+    public static synchronized Path dump() throws IOException {
+        requireAvailable();
+        if (recording == null) {
+            throw new IllegalStateException("Nothing was recorded yet");
+        }
+        final Path path = Files.createTempFile(RECORDING_NAME + "-", ".jfr");
+        recording.dump(path);
+        return path;
+    }
+
+    /**
+     * Stop the recording and write it into a temporary file
+     *
+     * @return the temporary file (to be deleted by the caller)
+     */
+    public static synchronized Path stop() throws IOException {
+        requireAvailable();
+        if ((recording == null) || (recording.getState() != RecordingState.RUNNING)) {
+            throw new IllegalStateException("No recording is running");
+        }
+        recording.stop();
+        final Path path = dump();
+        close();
+        return path;
+    }
+
+    public static synchronized void close() {
+        if (recording != null) {
+            recording.close();
+            recording = null;
+        }
+    }
+
+    /**
+     * @return the state of the recording
+     */
+    public static synchronized Map<String, Object> getStatus() {
+        final Map<String, Object> status = new LinkedHashMap<>();
+        status.put("available", AVAILABLE);
+        if (recording != null) {
+            status.put("name", recording.getName());
+            status.put("state", recording.getState().name());
+            status.put("startTime", String.valueOf(recording.getStartTime()));
+            status.put("maxAge", String.valueOf(recording.getMaxAge()));
+            status.put("size", recording.getSize());
+        } else {
+            status.put("state", AVAILABLE ? "NONE" : "UNAVAILABLE");
+        }
+        return status;
+    }
+
+    private static void requireAvailable() {
+        if (!AVAILABLE) {
+            throw new UnsupportedOperationException(
+                    "Flight Recorder is not available on " + System.getProperty("java.vm.name"));
+        }
+    }
+
+    private static long parseSize(String size) {
+        try {
+            return (size != null) ? Long.parseLong(size) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.exceptions.HttpStatusException;
+import io.micronaut.management.endpoint.annotation.Endpoint;
+import io.micronaut.management.endpoint.annotation.Read;
+import io.micronaut.management.endpoint.annotation.Selector;
+import io.micronaut.management.endpoint.annotation.Write;
+
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+
+/**
+ * Management endpoint to record the service with JDK Flight Recorder on demand
+ * (e.g. to correlate slow videos with GC pauses and allocations in the actual container):
+ * <ul>
+ *     <li><code>POST /flightrecording/start</code> starts a recording (with the given <code>settings</code>,
+ *     <code>profile</code> by default, and keeping at most the last <code>maxAgeSeconds</code>)</li>
+ *     <li><code>POST /flightrecording/dump</code> writes what was recorded so far</li>
+ *     <li><code>POST /flightrecording/stop</code> stops the recording and writes it</li>
+ * </ul>
+ * Recordings are written to the location given by <code>FLIGHT_RECORDING_LOCATION</code>, either a Cloud Storage
+ * folder (<code>gs://bucket/folder</code>) or a local directory (the temporary directory by default).
+ * The endpoint is disabled by default (enable it with <code>ENDPOINTS_FLIGHTRECORDING_ENABLED=true</code>) and
+ * sensitive, as recordings include the environment and stack traces of the service (only open it with
+ * <code>ENDPOINTS_FLIGHTRECORDING_SENSITIVE=false</code> where the service is not reachable publicly).
+ */
+@Endpoint(id = "flightrecording", defaultEnabled = false, defaultSensitive = true)
+public class FlightRecordingEndpoint {
+
+    private static final String ENV_VAR_LOCATION = "FLIGHT_RECORDING_LOCATION";
+    private static final String ENV_VAR_REVISION = "K_REVISION";
+    private static final String DEFAULT_SETTINGS = "profile";
+    private static final DateTimeFormatter FILE_NAME_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    @Inject
+    private Storage gcs;
+
+    private final String location;
+
+
+    @Inject
+    public FlightRecordingEndpoint() {
+        this(System.getenv(ENV_VAR_LOCATION));
+    }
+
+    FlightRecordingEndpoint(String location) {
+        this.location = (location != null) ? location : System.getProperty("java.io.tmpdir");
+    }
+
+    @Read
+    public Map<String, Object> status() {
+        final Map<String, Object> status = FlightRecording.getStatus();
+        status.put("location", location);
+        return status;
+    }
+
+    @Write
+    public Map<String, Object> control(
+            @Selector String action,
+            @Nullable String settings,
+            @Nullable Long maxAgeSeconds) throws IOException {
+        try {
+            switch (action) {
+                case "start":
+                    FlightRecording.start(
+                            (settings != null) ? settings : DEFAULT_SETTINGS,
+                            (maxAgeSeconds != null) ? Duration.ofSeconds(maxAgeSeconds) : null);
+                    System.out.println("Started the flight recording");
+                    return status();
+                case "dump":
+                    return store(FlightRecording.dump());
+                case "stop":
+                    return store(FlightRecording.stop());
+                default:
+                    throw new HttpStatusException(HttpStatus.BAD_REQUEST, "Unknown action '" + action + "'");
+            }
+        } catch (IllegalStateException e) {
+            throw new HttpStatusException(HttpStatus.CONFLICT, e.getMessage());
+        } catch (UnsupportedOperationException e) {
+            throw new HttpStatusException(HttpStatus.NOT_IMPLEMENTED, e.getMessage());
+        } catch (NoSuchFileException | ParseException e) {
+            throw new HttpStatusException(HttpStatus.BAD_REQUEST, "Invalid settings '" + settings + "'");
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        FlightRecording.close();
+    }
+
+    /**
+     * Move the dumped recording to the location
+     */
+    private Map<String, Object> store(Path dump) throws IOException {
+        final String fileName = getFileName();
+        final String file;
+        try {
+            if (GcsLocation.isGcs(location)) {
+                final BlobId blobId = GcsLocation.getBlobId(location, fileName);
+                try (WriteChannel writer = gcs.writer(BlobInfo
+                        .newBuilder(blobId)
+                        .setContentType("application/octet-stream")
+                        .build());
+                     OutputStream out = Channels.newOutputStream(writer)) {
+                    Files.copy(dump, out);
+                }
+                file = GcsLocation.toString(blobId);
+            } else {
+                final Path path = Paths.get(location, fileName);
+                Files.createDirectories(path.getParent());
+                Files.move(dump, path, StandardCopyOption.REPLACE_EXISTING);
+                file = path.toString();
+            }
+        } finally {
+            Files.deleteIfExists(dump);
+        }
+        System.out.println("Wrote the flight recording to " + file);
+        final Map<String, Object> status = status();
+        status.put("file", file);
+        return status;
+    }
+
+    /**
+     * @return the name of the recording, e.g. <code>init-analysis-{revision}-{timestamp}.jfr</code>
+     */
+    private static String getFileName() {
+        final String revision = System.getenv(ENV_VAR_REVISION);
+        return "init-analysis-" +
+                ((revision != null) ? revision + "-" : "") +
+                LocalDateTime.now().format(FILE_NAME_TIMESTAMP) + ".jfr";
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.storage.BlobId;
+
+/**
+ * Parses the Cloud Storage locations configured for the caches and recordings: an object
+ * (<code>gs://bucket/name</code>) or a folder (<code>gs://bucket/folder</code>, or just the Bucket).
+ * Any other location is a local file or directory.
+ */
+class GcsLocation {
+
+    static final String PREFIX = "gs://";
+
+
+    private GcsLocation() {
+    }
+
+    /**
+     * @return whether the location is in Cloud Storage (rather than a local file or directory)
+     */
+    static boolean isGcs(String location) {
+        return location.startsWith(PREFIX);
+    }
+
+    /**
+     * @return the ID of the object at the location
+     */
+    static BlobId getBlobId(String location) {
+        final String path = location.substring(PREFIX.length());
+        final int slash = path.indexOf('/');
+        return BlobId.of(path.substring(0, slash), path.substring(slash + 1));
+    }
+
+    /**
+     * @return the ID of the object with the given name in the folder at the location
+     */
+    static BlobId getBlobId(String location, String name) {
+        final String path = location.substring(PREFIX.length());
+        final int slash = path.indexOf('/');
+        if ((slash < 0) || (slash == path.length() - 1)) {
+            return BlobId.of((slash < 0) ? path : path.substring(0, slash), name);
+        } else {
+            final String folder = path.substring(slash + 1);
+            return BlobId.of(path.substring(0, slash), folder.endsWith("/") ? folder + name : folder + "/" + name);
+        }
+    }
+
+    /**
+     * @return the location of the object, e.g. to log it
+     */
+    static String toString(BlobId blobId) {
+        return PREFIX + blobId.getBucket() + "/" + blobId.getName();
+    }
+
+}
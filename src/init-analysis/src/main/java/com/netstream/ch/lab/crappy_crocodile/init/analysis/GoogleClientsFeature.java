@@ -0,0 +1,126 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.oracle.svm.core.annotate.AutomaticFeature;
+import com.oracle.svm.hosted.FeatureImpl;
+import org.graalvm.nativeimage.hosted.Feature;
+import org.graalvm.nativeimage.hosted.RuntimeReflection;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Registers the classes of the Google clients which are accessed by reflection for the native image:
+ * the protobuf messages of the Video Intelligence API and its long-running operations (whose accessors
+ * and default instances are looked up by reflection), the messages of Pub/Sub and the JSON models of Cloud Storage.
+ * <p>
+ * The classes are found on the class path while the image is built, so the configuration is generated
+ * for whatever versions of the clients are used (instead of being maintained by hand).
+ * The feature is only used by <code>native-image</code>, it is never loaded on the JVM.
+ */
+@AutomaticFeature
+final class GoogleClientsFeature implements Feature {
+
+    private static final List<String> PACKAGES = Arrays.asList(
+            "com/google/cloud/videointelligence/v1p3beta1/",
+            "com/google/longrunning/",
+            "com/google/rpc/",
+            "com/google/pubsub/v1/",
+            "com/google/api/services/storage/model/");
+    private static final List<String> CLASSES = Arrays.asList(
+            "com.google.protobuf.Any",
+            "com.google.protobuf.Any$Builder",
+            "com.google.protobuf.Duration",
+            "com.google.protobuf.Duration$Builder",
+            "com.google.protobuf.Timestamp",
+            "com.google.protobuf.Timestamp$Builder",
+            "com.google.protobuf.Empty",
+            "com.google.protobuf.Empty$Builder",
+            "com.google.api.client.util.GenericData",
+            "com.google.api.client.json.GenericJson",
+            "com.google.api.client.json.webtoken.JsonWebSignature$Header",
+            "com.google.api.client.json.webtoken.JsonWebToken$Header",
+            "com.google.api.client.json.webtoken.JsonWebToken$Payload",
+            "com.google.api.client.googleapis.json.GoogleJsonError",
+            "com.google.api.client.googleapis.json.GoogleJsonError$ErrorInfo",
+            "com.google.api.client.googleapis.json.GoogleJsonErrorContainer");
+
+
+    @Override
+    public void beforeAnalysis(BeforeAnalysisAccess access) {
+        final Set<String> classNames = new LinkedHashSet<>(CLASSES);
+        // the class path of the image (not the one of the image builder)
+        final List<String> classPath =
+                ((FeatureImpl.BeforeAnalysisAccessImpl) access).getImageClassLoader().getClasspath();
+        for (String entry : classPath) {
+            classNames.addAll(findClassNames(Paths.get(entry)));
+        }
+        int registered = 0;
+        for (String className : classNames) {
+            final Class<?> clazz = access.findClassByName(className);
+            if (clazz != null) {
+                RuntimeReflection.register(clazz);
+                RuntimeReflection.register(clazz.getDeclaredConstructors());
+                RuntimeReflection.register(clazz.getDeclaredMethods());
+                RuntimeReflection.register(clazz.getDeclaredFields());
+                registered++;
+            }
+        }
+        System.out.println("Registered " + registered + " classes of the Google clients for reflection");
+    }
+
+    /**
+     * @return the names of the classes in the packages in the JAR or directory
+     */
+    private static List<String> findClassNames(Path entry) {
+        final List<String> resourceNames = new ArrayList<>();
+        try {
+            if (Files.isDirectory(entry)) {
+                try (Stream<Path> paths = Files.walk(entry)) {
+                    resourceNames.addAll(paths
+                            .map(path -> entry.relativize(path).toString().replace('\\', '/'))
+                            .collect(Collectors.toList()));
+                }
+            } else if (entry.toString().endsWith(".jar")) {
+                try (JarFile jar = new JarFile(entry.toFile())) {
+                    final Enumeration<JarEntry> entries = jar.entries();
+                    while (entries.hasMoreElements()) {
+                        resourceNames.add(entries.nextElement().getName());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final List<String> classNames = new ArrayList<>();
+        for (String resourceName : resourceNames) {
+            if (resourceName.endsWith(".class") && !resourceName.endsWith("-info.class") && isInPackages(resourceName)) {
+                classNames.add(resourceName.substring(0, resourceName.length() - ".class".length()).replace('/', '.'));
+            }
+        }
+        return classNames;
+    }
+
+    private static boolean isInPackages(String resourceName) {
+        for (String packageName : PACKAGES) {
+            if (resourceName.startsWith(packageName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,157 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.videointelligence.v1p3beta1.LabelAnnotation;
+import com.google.cloud.videointelligence.v1p3beta1.LabelSegment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Merges label segments into scenes like the {@link SceneMerger}, but while the segments are still arriving.
+ * <p>
+ * The caller promises with {@link #flush(long)} that no segment added afterwards starts before the given watermark.
+ * All scenes that can no longer change are then appended to the timeline (so it can be written and cleared),
+ * while only the segments still open at the watermark are kept. Once all segments were added, {@link #finish()}
+ * appends the rest. The scenes are the same as if all segments were merged at once.
+ */
+class IncrementalSceneMerger {
+
+    private static final Comparator<Segment> BY_START = Comparator.comparingLong(s -> s.start);
+    private static final Comparator<Segment> BY_END = Comparator.comparingLong(s -> s.end);
+
+    private final SceneTimeline timeline;
+    private final List<Segment> pending = new ArrayList<>();
+    private final TreeMap<Long, SceneMerger.Members> instants = new TreeMap<>();
+    private long watermark = Long.MIN_VALUE;
+
+
+    IncrementalSceneMerger(SceneTimeline timeline) {
+        this.timeline = timeline;
+    }
+
+    /**
+     * Add the segments of the annotation (with the same confidence filtering as the {@link SceneMerger})
+     */
+    public void add(LabelAnnotation annotation) {
+        final int label = timeline.labelId(annotation.getEntity(), annotation.getCategoryEntitiesList());
+        for (LabelSegment segment : SceneMerger.getSegments(annotation)) {
+            add(label,
+                    SceneMerger.toNanos(segment.getSegment().getStartTimeOffset()),
+                    SceneMerger.toNanos(segment.getSegment().getEndTimeOffset()),
+                    segment.getConfidence());
+        }
+    }
+
+    /**
+     * Add a segment of the label with the given id (see {@link SceneTimeline#labelId})
+     */
+    public void add(int label, long start, long end, float confidence) {
+        if (start < watermark) {
+            throw new IllegalArgumentException(
+                    "The segment starting at " + start + "ns starts before the watermark at " + watermark + "ns");
+        }
+        if (start < end) {
+            pending.add(new Segment(start, end, label, confidence));
+        } else if (start == end) {
+            instants.computeIfAbsent(start, t -> new SceneMerger.Members(1)).add(label, confidence);
+        }
+    }
+
+    /**
+     * Append the scenes ending at or before the watermark to the timeline
+     *
+     * @param watermark no segment added afterwards starts before it (in nanoseconds)
+     * @return the number of scenes appended
+     */
+    public int flush(long watermark) {
+        this.watermark = Math.max(this.watermark, watermark);
+        final Segment[] byStart = pending.toArray(new Segment[0]);
+        Arrays.sort(byStart, BY_START);
+        final Segment[] byEnd = Arrays.copyOf(byStart, byStart.length);
+        Arrays.sort(byEnd, BY_END);
+
+        final List<Segment> active = new ArrayList<>();
+        final SceneMerger.Members members = new SceneMerger.Members(timeline.getLabelCount());
+        final int size = timeline.size();
+        long previous = Long.MIN_VALUE;
+        int starts = 0;
+        int ends = 0;
+        while (ends < byEnd.length) {
+            final long boundary = (starts < byStart.length)
+                    ? Math.min(byStart[starts].start, byEnd[ends].end)
+                    : byEnd[ends].end;
+            // a later segment could still start before the boundary and split the scene ending there
+            if (boundary > this.watermark) {
+                break;
+            }
+            if (!active.isEmpty() && (boundary > previous)) {
+                members.clear();
+                for (Segment segment : active) {
+                    members.add(segment.label, segment.confidence);
+                }
+                members.addTo(timeline, previous, boundary);
+            }
+            addInstants(Math.min(boundary, this.watermark - 1));
+            while ((ends < byEnd.length) && (byEnd[ends].end == boundary)) {
+                active.remove(byEnd[ends++]);
+            }
+            while ((starts < byStart.length) && (byStart[starts].start == boundary)) {
+                active.add(byStart[starts++]);
+            }
+            previous = boundary;
+        }
+        // without open segments, no scene can end after the instants before the watermark anymore
+        if (active.isEmpty()) {
+            addInstants(this.watermark - 1);
+        }
+
+        // keep the rest of the open segments (the scenes up to where they were cut are already in the timeline)
+        pending.clear();
+        for (Segment segment : active) {
+            pending.add(new Segment(previous, segment.end, segment.label, segment.confidence));
+        }
+        pending.addAll(Arrays.asList(byStart).subList(starts, byStart.length));
+        return timeline.size() - size;
+    }
+
+    /**
+     * Append all remaining scenes to the timeline (after the last segment was added)
+     *
+     * @return the number of scenes appended
+     */
+    public int finish() {
+        return flush(Long.MAX_VALUE);
+    }
+
+    /**
+     * Append the instants up to the given time (those at the watermark could still get more labels)
+     */
+    private void addInstants(long until) {
+        // segments without any duration can't be part of the sweep, so they become scenes of their own
+        while (!instants.isEmpty() && (instants.firstKey() <= until)) {
+            final Map.Entry<Long, SceneMerger.Members> instant = instants.pollFirstEntry();
+            instant.getValue().addTo(timeline, instant.getKey(), instant.getKey());
+        }
+    }
+
+
+    private static class Segment {
+
+        private final long start;
+        private final long end;
+        private final int label;
+        private final float confidence;
+
+        private Segment(long start, long end, int label, float confidence) {
+            this.start = start;
+            this.end = end;
+            this.label = label;
+            this.confidence = confidence;
+        }
+    }
+
+}
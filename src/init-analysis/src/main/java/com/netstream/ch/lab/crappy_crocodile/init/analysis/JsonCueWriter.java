@@ -0,0 +1,69 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streams the cues of a text track to a writer as a JSON array (closing it on close), one object per line:
+ * <pre>
+ * {"start":1234,"end":5678,"items":["dog","cat"]}
+ * </pre>
+ * The start and end of the cues are given in milliseconds.
+ */
+public class JsonCueWriter extends AbstractTrackWriter {
+
+    private int cues;
+    private int items;
+
+
+    public JsonCueWriter(Writer writer) throws IOException {
+        super(writer);
+        this.writer.write('[');
+    }
+
+    @Override
+    public void beginCue(long start, long end) throws IOException {
+        writer.write((cues++ > 0) ? ",\n" : "\n");
+        writer.write("{\"start\":");
+        writer.write(Long.toString(start / 1_000_000L));
+        writer.write(",\"end\":");
+        writer.write(Long.toString(end / 1_000_000L));
+        writer.write(",\"items\":[");
+        items = 0;
+    }
+
+    @Override
+    public void appendItem(CharSequence item) throws IOException {
+        if (items++ > 0) {
+            writer.write(',');
+        }
+        writer.write('"');
+        for (int i = 0; i < item.length(); i++) {
+            final char c = item.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                writer.write(String.format("\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+
+    @Override
+    public void endCue() throws IOException {
+        writer.write("]}");
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writer.write("\n]\n");
+        } finally {
+            super.close();
+        }
+    }
+
+}
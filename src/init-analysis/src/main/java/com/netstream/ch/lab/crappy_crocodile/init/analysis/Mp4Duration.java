@@ -0,0 +1,115 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the duration of an MP4 (or QuickTime) video from the header of its movie (the <code>mvhd</code> box
+ * in the <code>moov</code> box), without reading the media data: only the headers of the top-level boxes
+ * in front of it are read, so it also works when the movie box is at the end of the file.
+ */
+class Mp4Duration {
+
+    private static final int BOX_HEADER_SIZE = 8;
+    private static final int LARGE_BOX_HEADER_SIZE = 16;
+    private static final int MOVIE_HEADER_SIZE = 40;
+    private static final int MAX_BOXES = 64;
+
+    /**
+     * Reads a range of the video
+     */
+    interface RangeReader {
+
+        /**
+         * @return the bytes read (fewer than requested at the end of the video)
+         */
+        ByteBuffer read(long position, int length) throws IOException;
+    }
+
+
+    private Mp4Duration() {
+    }
+
+    /**
+     * @return the duration in nanoseconds or -1 if the video is not an MP4 video (or has no movie header)
+     */
+    public static long read(RangeReader reader) throws IOException {
+        final long moov = findBox(reader, 0, Long.MAX_VALUE, "moov");
+        if (moov >= 0) {
+            final ByteBuffer header = reader.read(moov, LARGE_BOX_HEADER_SIZE);
+            final long size = boxSize(header);
+            final long mvhd = findBox(
+                    reader, moov + headerSize(header), (size > 0) ? moov + size : Long.MAX_VALUE, "mvhd");
+            if (mvhd >= 0) {
+                return readMovieHeader(reader.read(mvhd, MOVIE_HEADER_SIZE));
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position of the first box of the given type between the start and the end or -1 if there is none
+     */
+    private static long findBox(RangeReader reader, long start, long end, String type) throws IOException {
+        long position = start;
+        for (int box = 0; (box < MAX_BOXES) && (position < end); box++) {
+            final ByteBuffer header = reader.read(position, LARGE_BOX_HEADER_SIZE);
+            if (header.remaining() < BOX_HEADER_SIZE) {
+                return -1;
+            }
+            if (type.equals(boxType(header))) {
+                return position;
+            }
+            final long size = boxSize(header);
+            if (size < BOX_HEADER_SIZE) {
+                // either invalid or the rest of the file (which is the media data then)
+                return -1;
+            }
+            position += size;
+        }
+        return -1;
+    }
+
+    private static long readMovieHeader(ByteBuffer mvhd) {
+        // version 0 has 32 bit times (and ends with the duration), version 1 has 64 bit times
+        if (mvhd.remaining() < BOX_HEADER_SIZE + 20) {
+            return -1;
+        }
+        final int version = mvhd.get(BOX_HEADER_SIZE);
+        final long timescale;
+        final long duration;
+        if (version == 1) {
+            if (mvhd.remaining() < MOVIE_HEADER_SIZE) {
+                return -1;
+            }
+            timescale = Integer.toUnsignedLong(mvhd.getInt(BOX_HEADER_SIZE + 20));
+            duration = mvhd.getLong(BOX_HEADER_SIZE + 24);
+        } else {
+            timescale = Integer.toUnsignedLong(mvhd.getInt(BOX_HEADER_SIZE + 12));
+            duration = Integer.toUnsignedLong(mvhd.getInt(BOX_HEADER_SIZE + 16));
+        }
+        if ((timescale == 0) || (duration < 0) || (duration == 0xFFFFFFFFL)) {
+            return -1;
+        }
+        return (duration / timescale) * 1_000_000_000L + ((duration % timescale) * 1_000_000_000L) / timescale;
+    }
+
+    private static String boxType(ByteBuffer header) {
+        final byte[] type = new byte[4];
+        for (int i = 0; i < type.length; i++) {
+            type[i] = header.get(4 + i);
+        }
+        return new String(type, StandardCharsets.US_ASCII);
+    }
+
+    private static long boxSize(ByteBuffer header) {
+        final long size = Integer.toUnsignedLong(header.getInt(0));
+        return ((size == 1) && (header.remaining() >= LARGE_BOX_HEADER_SIZE)) ? header.getLong(BOX_HEADER_SIZE) : size;
+    }
+
+    private static int headerSize(ByteBuffer header) {
+        return (Integer.toUnsignedLong(header.getInt(0)) == 1) ? LARGE_BOX_HEADER_SIZE : BOX_HEADER_SIZE;
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the same cues to a number of tracks (e.g. the same track in different formats) at once
+ */
+public class MultiTrackWriter implements TrackWriter {
+
+    private final List<TrackWriter> writers;
+
+
+    public MultiTrackWriter(List<TrackWriter> writers) {
+        this.writers = new ArrayList<>(writers);
+    }
+
+    @Override
+    public void beginCue(long start, long end) throws IOException {
+        for (TrackWriter writer : writers) {
+            writer.beginCue(start, end);
+        }
+    }
+
+    @Override
+    public void appendItem(CharSequence item) throws IOException {
+        for (TrackWriter writer : writers) {
+            writer.appendItem(item);
+        }
+    }
+
+    @Override
+    public void endCue() throws IOException {
+        for (TrackWriter writer : writers) {
+            writer.endCue();
+        }
+    }
+
+    /**
+     * Close all the writers (even if closing one of them fails)
+     */
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (TrackWriter writer : writers) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+}
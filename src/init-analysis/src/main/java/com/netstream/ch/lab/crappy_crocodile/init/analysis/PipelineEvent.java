@@ -0,0 +1,10 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+/**
+ * Flight Recorder event of the pipeline, as handed out by {@link FlightRecording}.
+ * <p>
+ * The events are only referred to by this interface outside of {@link FlightRecording}, so the classes of
+ * Flight Recorder are not loaded on JVMs without it (not even by lambdas capturing an event).
+ */
+public interface PipelineEvent {
+}
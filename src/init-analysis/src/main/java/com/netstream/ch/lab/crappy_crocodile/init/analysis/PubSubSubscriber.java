@@ -0,0 +1,130 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.api.gax.batching.FlowControlSettings;
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.cloud.ServiceOptions;
+import com.google.cloud.pubsub.v1.Subscriber;
+import com.google.pubsub.v1.ProjectSubscriptionName;
+import io.grpc.ManagedChannelBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micronaut.context.annotation.Context;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Pulls the videos to analyze from a Pub/Sub subscription (as an alternative to the push requests
+ * of {@link InitAnalysisController}), if one is given with <code>PUBSUB_SUBSCRIPTION</code>
+ * (either as <code>projects/{project}/subscriptions/{subscription}</code> or just the name in the default project).
+ * <p>
+ * The flow control of the subscriber limits the messages (<code>PUBSUB_MAX_OUTSTANDING_MESSAGES</code>)
+ * and bytes (<code>PUBSUB_MAX_OUTSTANDING_BYTES</code>) being processed by the instance at the same time,
+ * so it only pulls more videos once it is done with others. The ack deadlines of the messages are extended
+ * while their analyses run (for at most <code>PUBSUB_MAX_ACK_EXTENSION_MINUTES</code>) and the messages are
+ * only acknowledged once their analyses are done (see {@link VideoMessageReceiver}).
+ * <p>
+ * To run against the Pub/Sub emulator, set <code>PUBSUB_EMULATOR_HOST</code> (e.g. <code>localhost:8085</code>):
+ * the subscriber then connects in plain text and without credentials.
+ */
+@Context
+public class PubSubSubscriber {
+
+    private static final String ENV_VAR_SUBSCRIPTION = "PUBSUB_SUBSCRIPTION";
+    private static final String ENV_VAR_EMULATOR_HOST = "PUBSUB_EMULATOR_HOST";
+    private static final String ENV_VAR_MAX_OUTSTANDING_MESSAGES = "PUBSUB_MAX_OUTSTANDING_MESSAGES";
+    private static final long MAX_OUTSTANDING_MESSAGES =
+            (System.getenv(ENV_VAR_MAX_OUTSTANDING_MESSAGES) != null)
+                    ? Long.parseLong(System.getenv(ENV_VAR_MAX_OUTSTANDING_MESSAGES))
+                    : 4;
+    private static final String ENV_VAR_MAX_OUTSTANDING_BYTES = "PUBSUB_MAX_OUTSTANDING_BYTES";
+    private static final long MAX_OUTSTANDING_BYTES =
+            (System.getenv(ENV_VAR_MAX_OUTSTANDING_BYTES) != null)
+                    ? Long.parseLong(System.getenv(ENV_VAR_MAX_OUTSTANDING_BYTES))
+                    : 1024 * 1024;
+    private static final String ENV_VAR_PARALLEL_PULLS = "PUBSUB_PARALLEL_PULLS";
+    private static final int PARALLEL_PULLS =
+            (System.getenv(ENV_VAR_PARALLEL_PULLS) != null)
+                    ? Integer.parseInt(System.getenv(ENV_VAR_PARALLEL_PULLS))
+                    : 1;
+    private static final String ENV_VAR_MAX_ACK_EXTENSION_MINUTES = "PUBSUB_MAX_ACK_EXTENSION_MINUTES";
+    private static final long MAX_ACK_EXTENSION_MINUTES =
+            (System.getenv(ENV_VAR_MAX_ACK_EXTENSION_MINUTES) != null)
+                    ? Long.parseLong(System.getenv(ENV_VAR_MAX_ACK_EXTENSION_MINUTES))
+                    : 120;
+    private static final String ENV_VAR_SHUTDOWN_TIMEOUT_SECONDS = "PUBSUB_SHUTDOWN_TIMEOUT_SECONDS";
+    private static final long SHUTDOWN_TIMEOUT_SECONDS =
+            (System.getenv(ENV_VAR_SHUTDOWN_TIMEOUT_SECONDS) != null)
+                    ? Long.parseLong(System.getenv(ENV_VAR_SHUTDOWN_TIMEOUT_SECONDS))
+                    : 10;
+
+    @Inject
+    private AnalysisService analysisService;
+
+    @Inject
+    private MeterRegistry meterRegistry;
+
+    private final String subscription;
+    private Subscriber subscriber;
+
+
+    @Inject
+    public PubSubSubscriber() {
+        this(System.getenv(ENV_VAR_SUBSCRIPTION));
+    }
+
+    PubSubSubscriber(String subscription) {
+        this.subscription = subscription;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (subscription != null) {
+            final ProjectSubscriptionName subscriptionName = ProjectSubscriptionName.isParsableFrom(subscription)
+                    ? ProjectSubscriptionName.parse(subscription)
+                    : ProjectSubscriptionName.of(ServiceOptions.getDefaultProjectId(), subscription);
+            final VideoMessageReceiver receiver = new VideoMessageReceiver(analysisService::submit, meterRegistry);
+            meterRegistry.gauge("pubsub.messages.outstanding", receiver, VideoMessageReceiver::getOutstandingCount);
+
+            final Subscriber.Builder builder = Subscriber.newBuilder(subscriptionName, receiver)
+                    .setFlowControlSettings(FlowControlSettings.newBuilder()
+                            .setMaxOutstandingElementCount(MAX_OUTSTANDING_MESSAGES)
+                            .setMaxOutstandingRequestBytes(MAX_OUTSTANDING_BYTES)
+                            .build())
+                    .setMaxAckExtensionPeriod(org.threeten.bp.Duration.ofMinutes(MAX_ACK_EXTENSION_MINUTES))
+                    .setParallelPullCount(PARALLEL_PULLS);
+            final String emulatorHost = System.getenv(ENV_VAR_EMULATOR_HOST);
+            if (emulatorHost != null) {
+                builder.setChannelProvider(InstantiatingGrpcChannelProvider.newBuilder()
+                        .setEndpoint(emulatorHost)
+                        .setChannelConfigurator(ManagedChannelBuilder::usePlaintext)
+                        .build())
+                        .setCredentialsProvider(NoCredentialsProvider.create());
+                System.out.println("Using the Pub/Sub emulator at " + emulatorHost);
+            }
+            subscriber = builder.build();
+            subscriber.startAsync().awaitRunning();
+            System.out.println("Pulling videos from " + subscriptionName + " (at most "
+                    + MAX_OUTSTANDING_MESSAGES + " at a time)");
+        }
+    }
+
+    /**
+     * Stop pulling (the messages not acknowledged yet are redelivered to another instance)
+     */
+    @PreDestroy
+    public void stop() {
+        if (subscriber != null) {
+            subscriber.stopAsync();
+            try {
+                subscriber.awaitTerminated(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                System.out.println("Pub/Sub subscriber did not stop within " + SHUTDOWN_TIMEOUT_SECONDS + "s");
+            }
+        }
+    }
+
+}
@@ -24,7 +24,7 @@ public class Scene implements Comparable<Scene> {
 
 
     private static final String ENV_VAR_CONFIDENCE_THRESHOLD = "CONFIDENCE_THRESHOLD";
-    private static final double CONFIDENCE_THRESHOLD =
+    static final double CONFIDENCE_THRESHOLD =
             (System.getenv(ENV_VAR_CONFIDENCE_THRESHOLD) != null)
                     ? Float.parseFloat(System.getenv(ENV_VAR_CONFIDENCE_THRESHOLD))
                     : 0.5;
@@ -101,54 +101,12 @@ public class Scene implements Comparable<Scene> {
         }
     }
 
+    /**
+     * Merge the segments of all annotations into a timeline of non-overlapping scenes
+     * (see {@link SceneMerger#merge(Collection)})
+     */
     public static SortedSet<Scene> from(Collection<LabelAnnotation> annotations) {
-        if ((annotations != null) && !annotations.isEmpty()) {
-            final SortedSet<Scene> scenes = new TreeSet<>();
-            for (LabelAnnotation annotation : annotations) {
-                final SortedSet<Scene> newScenes = from(annotation);
-                final Set<Scene> overlapping = scenes.stream()
-                        .filter(s -> newScenes.stream().anyMatch(s::overlaps))
-                        .collect(Collectors.toSet());
-                if (overlapping.isEmpty()) {
-                    scenes.addAll(newScenes);
-                } else {
-                    for (Scene scene : overlapping) {
-                        for (Scene newScene : newScenes) {
-                            if (scene.matchesTime(newScene)) {
-                                scene.amendWith(newScene);
-                            } else {
-                                scenes.remove(scene);
-                                if (newScene.start.isAfter(scene.start)
-                                        && newScene.end.isBefore(scene.end)) {
-                                    final SortedSet<Scene> split = scene.split(newScene.start, newScene.end);
-                                    scenes.addAll(split.stream()
-                                            .filter(s -> s.matchesTime(newScene))
-                                            .map(s -> s.amendWith(newScene))
-                                            .collect(Collectors.toSet()));
-                                } else if (newScene.start.isBefore(scene.start)
-                                        && newScene.end.isAfter(scene.start)
-                                        && newScene.end.isBefore(scene.end)) {
-                                    scenes.addAll(mergeOverlapping(
-                                            scene, scene.split(newScene.end),
-                                            newScene, newScene.split(scene.start)));
-                                } else if (newScene.start.isBefore(scene.end)
-                                        && newScene.start.isAfter(scene.start)
-                                        && newScene.end.isAfter(scene.end)) {
-                                    scenes.addAll(mergeOverlapping(
-                                            scene, scene.split(newScene.start),
-                                            newScene, newScene.split(scene.end)));
-                                } else {
-                                    scenes.add(scene);
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-            return scenes;
-        } else {
-            return new TreeSet<>();
-        }
+        return SceneMerger.merge(annotations).toScenes();
     }
 
     public static SortedSet<Scene> mergeOverlapping(
@@ -0,0 +1,30 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for merging the label annotations of a video into scenes
+ * (only to be created through {@link FlightRecording})
+ */
+@Name(FlightRecording.EVENT_NAME_PREFIX + "SceneMerge")
+@Label("Scene Merge")
+@Description("Merging the shot label annotations of a video into scenes")
+@Category({FlightRecording.CATEGORY, "Analysis"})
+@StackTrace(false)
+class SceneMergeEvent extends Event implements PipelineEvent {
+
+    @Label("Video ID")
+    String videoId;
+
+    @Label("Label Count")
+    int labelCount;
+
+    @Label("Scene Count")
+    int sceneCount;
+
+}
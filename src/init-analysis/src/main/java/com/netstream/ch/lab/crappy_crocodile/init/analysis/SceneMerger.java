@@ -0,0 +1,217 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.videointelligence.v1p3beta1.LabelAnnotation;
+import com.google.cloud.videointelligence.v1p3beta1.LabelSegment;
+import com.google.protobuf.Duration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Merges the shot label annotations of a video into a timeline of non-overlapping scenes.
+ * <p>
+ * Instead of checking every annotation against all the scenes collected so far, the boundaries of all segments
+ * are sorted once and the timeline is built in a single sweep over them (O(n log n) for n segments, plus
+ * O(k log k) for every scene with k labels).
+ * Every resulting scene carries the entities of all the segments covering it, just like {@link Scene#amendWith(Scene)}.
+ */
+class SceneMerger {
+
+    private static final Comparator<Segment> BY_START = Comparator
+            .comparingLong((Segment s) -> s.start)
+            .thenComparingLong(s -> s.end)
+            .thenComparingInt(s -> s.annotation)
+            .thenComparingInt(s -> s.ordinal);
+    private static final Comparator<Segment> BY_END = Comparator.comparingLong(s -> s.end);
+
+
+    private SceneMerger() {
+    }
+
+    public static SceneTimeline merge(Collection<LabelAnnotation> annotations) {
+        if ((annotations != null) && !annotations.isEmpty()) {
+            final SceneTimeline timeline = new SceneTimeline();
+            final TreeMap<Long, Members> instants = new TreeMap<>();
+            final Segment[] byStart = collect(annotations, timeline, instants);
+            final Segment[] byEnd = Arrays.copyOf(byStart, byStart.length);
+            Arrays.sort(byEnd, BY_END);
+
+            final Segment[] active = new Segment[byStart.length];
+            final Members members = new Members(timeline.getLabelCount());
+            int activeCount = 0;
+            long previous = 0;
+            int starts = 0;
+            int ends = 0;
+            while (ends < byEnd.length) {
+                final long boundary = (starts < byStart.length)
+                        ? Math.min(byStart[starts].start, byEnd[ends].end)
+                        : byEnd[ends].end;
+                if ((activeCount > 0) && (boundary > previous)) {
+                    members.clear();
+                    for (int i = 0; i < activeCount; i++) {
+                        members.add(active[i].label, active[i].confidence);
+                    }
+                    members.addTo(timeline, previous, boundary);
+                }
+                // segments without any duration can't be part of the sweep, so they become scenes of their own
+                while (!instants.isEmpty() && (instants.firstKey() <= boundary)) {
+                    final Map.Entry<Long, Members> instant = instants.pollFirstEntry();
+                    instant.getValue().addTo(timeline, instant.getKey(), instant.getKey());
+                }
+                while ((ends < byEnd.length) && (byEnd[ends].end == boundary)) {
+                    final Segment ended = byEnd[ends++];
+                    active[ended.position] = active[--activeCount];
+                    active[ended.position].position = ended.position;
+                }
+                while ((starts < byStart.length) && (byStart[starts].start == boundary)) {
+                    final Segment started = byStart[starts++];
+                    started.position = activeCount;
+                    active[activeCount++] = started;
+                }
+                previous = boundary;
+            }
+            instants.forEach((instant, instantMembers) -> instantMembers.addTo(timeline, instant, instant));
+            return timeline;
+        } else {
+            return new SceneTimeline();
+        }
+    }
+
+    /**
+     * Collect the segments of all annotations (sorted by their start), applying the same confidence filtering
+     * and de-duplication of segments with identical times as {@link Scene#from(LabelAnnotation)}
+     */
+    private static Segment[] collect(
+            Collection<LabelAnnotation> annotations, SceneTimeline timeline, Map<Long, Members> instants) {
+        final List<Segment> segments = new ArrayList<>();
+        int annotationIndex = 0;
+        for (LabelAnnotation annotation : annotations) {
+            final int label = timeline.labelId(annotation.getEntity(), annotation.getCategoryEntitiesList());
+            final Set<Long> seenInstants = new HashSet<>();
+            int ordinal = 0;
+            for (LabelSegment labelSegment : getSegments(annotation)) {
+                final long start = toNanos(labelSegment.getSegment().getStartTimeOffset());
+                final long end = toNanos(labelSegment.getSegment().getEndTimeOffset());
+                if (start < end) {
+                    segments.add(new Segment(
+                            start, end, annotationIndex, ordinal++, label, labelSegment.getConfidence()));
+                } else if ((start == end) && seenInstants.add(start)) {
+                    instants.computeIfAbsent(start, t -> new Members(1))
+                            .add(label, labelSegment.getConfidence());
+                }
+            }
+            annotationIndex++;
+        }
+        segments.sort(BY_START);
+
+        final List<Segment> unique = new ArrayList<>(segments.size());
+        Segment last = null;
+        for (Segment segment : segments) {
+            if ((last == null)
+                    || (last.annotation != segment.annotation)
+                    || (last.start != segment.start)
+                    || (last.end != segment.end)) {
+                unique.add(segment);
+                last = segment;
+            }
+        }
+        return unique.toArray(new Segment[0]);
+    }
+
+    static List<LabelSegment> getSegments(LabelAnnotation annotation) {
+        if (annotation.getSegmentsCount() == 1) {
+            return annotation.getSegmentsList();
+        } else {
+            final List<LabelSegment> segments = new ArrayList<>(annotation.getSegmentsCount());
+            for (LabelSegment segment : annotation.getSegmentsList()) {
+                if (segment.getConfidence() >= Scene.CONFIDENCE_THRESHOLD) {
+                    segments.add(segment);
+                }
+            }
+            return segments;
+        }
+    }
+
+    static long toNanos(Duration offset) {
+        return (offset.getSeconds() * 1_000_000_000L) + offset.getNanos();
+    }
+
+
+    private static class Segment {
+
+        private final long start;
+        private final long end;
+        private final int annotation;
+        private final int ordinal;
+        private final int label;
+        private final float confidence;
+        private int position;
+
+        private Segment(long start, long end, int annotation, int ordinal, int label, float confidence) {
+            this.start = start;
+            this.end = end;
+            this.annotation = annotation;
+            this.ordinal = ordinal;
+            this.label = label;
+            this.confidence = confidence;
+        }
+    }
+
+    /**
+     * The labels of a single scene (ordered by their id), each with the highest confidence of the segments covering it.
+     * <p>
+     * The labels are collected unordered and only sorted once the scene is added (O(k log k) for k labels),
+     * with each label packed together with its confidence into a single <code>long</code>.
+     */
+    static class Members {
+
+        private int count;
+        private long[] entries;
+        private int[] ids;
+        private float[] confidences;
+
+        Members(int capacity) {
+            this.entries = new long[Math.max(capacity, 1)];
+            this.ids = new int[entries.length];
+            this.confidences = new float[entries.length];
+        }
+
+        void clear() {
+            count = 0;
+        }
+
+        void add(int id, float confidence) {
+            if (count == entries.length) {
+                entries = Arrays.copyOf(entries, count * 2);
+                ids = new int[entries.length];
+                confidences = new float[entries.length];
+            }
+            // the (non-negative) id in the upper half, so the entries are sorted by it
+            entries[count++] = ((long) id << 32) | (Float.floatToRawIntBits(confidence) & 0xFFFFFFFFL);
+        }
+
+        void addTo(SceneTimeline timeline, long start, long end) {
+            Arrays.sort(entries, 0, count);
+            int unique = 0;
+            for (int i = 0; i < count; i++) {
+                final int id = (int) (entries[i] >>> 32);
+                final float confidence = Float.intBitsToFloat((int) entries[i]);
+                if ((unique > 0) && (ids[unique - 1] == id)) {
+                    confidences[unique - 1] = Math.max(confidences[unique - 1], confidence);
+                } else {
+                    ids[unique] = id;
+                    confidences[unique++] = confidence;
+                }
+            }
+            timeline.add(start, end, ids, confidences, unique);
+        }
+    }
+
+}
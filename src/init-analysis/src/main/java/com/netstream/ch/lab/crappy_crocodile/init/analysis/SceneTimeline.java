@@ -0,0 +1,270 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.videointelligence.v1p3beta1.Entity;
+import com.google.cloud.videointelligence.v1p3beta1.Likelihood;
+
+import java.io.IOException;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Compact, columnar timeline of the (non-overlapping) scenes of a video, ordered by their start.
+ * <p>
+ * Instead of a {@link Scene} object per scene, the start and end offsets (in nanoseconds) and the likelihood
+ * for explicit content are kept in parallel primitive arrays. The entities of the scenes are stored as ids into
+ * a dictionary of the distinct labels of the video (with the confidence of the label for each scene alongside).
+ */
+public class SceneTimeline {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final List<SceneEntity> labels = new ArrayList<>();
+    private final Map<SceneEntity, Integer> labelIds = new HashMap<>();
+
+    private int size;
+    private long[] starts;
+    private long[] ends;
+    private byte[] likelihoods;
+    private int[] memberOffsets;
+    private int memberCount;
+    private int[] memberIds;
+    private float[] memberConfidences;
+
+
+    public SceneTimeline() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public SceneTimeline(int capacity) {
+        final int initialCapacity = Math.max(capacity, 1);
+        this.starts = new long[initialCapacity];
+        this.ends = new long[initialCapacity];
+        this.likelihoods = new byte[initialCapacity];
+        this.memberOffsets = new int[initialCapacity + 1];
+        this.memberIds = new int[initialCapacity];
+        this.memberConfidences = new float[initialCapacity];
+    }
+
+    /**
+     * Get the id of the label for the given entity (adding it to the dictionary of labels if necessary)
+     */
+    public int labelId(Entity entity, Collection<Entity> categoryEntities) {
+        final SceneEntity label = SceneEntity.create(0, entity, categoryEntities);
+        final Integer id = labelIds.get(label);
+        if (id != null) {
+            return id;
+        } else {
+            labels.add(label);
+            labelIds.put(label, labels.size() - 1);
+            return labels.size() - 1;
+        }
+    }
+
+    /**
+     * Append a scene to the timeline (scenes have to be added in order)
+     */
+    public void add(long start, long end, int[] ids, float[] confidences, int count) {
+        ensureCapacity(size + 1, memberCount + count);
+        starts[size] = start;
+        ends[size] = end;
+        likelihoods[size] = (byte) Likelihood.LIKELIHOOD_UNSPECIFIED.getNumber();
+        System.arraycopy(ids, 0, memberIds, memberCount, count);
+        System.arraycopy(confidences, 0, memberConfidences, memberCount, count);
+        memberCount += count;
+        memberOffsets[++size] = memberCount;
+    }
+
+    /**
+     * Remove all scenes (but keep the dictionary of labels, so their ids stay the same)
+     */
+    public void clear() {
+        size = 0;
+        memberCount = 0;
+    }
+
+    private void ensureCapacity(int scenes, int members) {
+        if (scenes > starts.length) {
+            final int capacity = Math.max(scenes, starts.length * 2);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            likelihoods = Arrays.copyOf(likelihoods, capacity);
+            memberOffsets = Arrays.copyOf(memberOffsets, capacity + 1);
+        }
+        if (members > memberIds.length) {
+            final int capacity = Math.max(members, memberIds.length * 2);
+            memberIds = Arrays.copyOf(memberIds, capacity);
+            memberConfidences = Arrays.copyOf(memberConfidences, capacity);
+        }
+    }
+
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getStart(int scene) {
+        return starts[scene];
+    }
+
+    public long getEnd(int scene) {
+        return ends[scene];
+    }
+
+    public int getLikelihoodForExplicitContentValue(int scene) {
+        return likelihoods[scene];
+    }
+
+    public Likelihood getLikelihoodForExplicitContent(int scene) {
+        final Likelihood likelihood = Likelihood.forNumber(likelihoods[scene]);
+        return (likelihood != null) ? likelihood : Likelihood.UNRECOGNIZED;
+    }
+
+    public void setLikelihoodForExplicitContent(int scene, int likelihood) {
+        likelihoods[scene] = (byte) likelihood;
+    }
+
+    public int getEntityCount(int scene) {
+        return memberOffsets[scene + 1] - memberOffsets[scene];
+    }
+
+    public int getEntityId(int scene, int index) {
+        return memberIds[memberOffsets[scene] + index];
+    }
+
+    public float getConfidence(int scene, int index) {
+        return memberConfidences[memberOffsets[scene] + index];
+    }
+
+    public int getLabelCount() {
+        return labels.size();
+    }
+
+    /**
+     * @return the label with the given id (its confidence is not set, since it differs per scene)
+     */
+    public SceneEntity getLabel(int id) {
+        return labels.get(id);
+    }
+
+
+    public Scene toScene(int scene) {
+        final Scene result = new Scene(LocalTime.ofNanoOfDay(starts[scene]), LocalTime.ofNanoOfDay(ends[scene]));
+        for (int i = memberOffsets[scene]; i < memberOffsets[scene + 1]; i++) {
+            final SceneEntity label = labels.get(memberIds[i]);
+            result.getEntities().add(SceneEntity.create(
+                    memberConfidences[i], label.getEntity(), label.getCategoryEntities()));
+        }
+        result.setLikelihoodForExplicitContent(getLikelihoodForExplicitContent(scene));
+        return result;
+    }
+
+    /**
+     * @return the scenes of the timeline as {@link Scene} objects (only possible for videos shorter than a day)
+     */
+    public SortedSet<Scene> toScenes() {
+        final SortedSet<Scene> scenes = new TreeSet<>();
+        for (int i = 0; i < size; i++) {
+            scenes.add(toScene(i));
+        }
+        return scenes;
+    }
+
+    public void writeTextTrack(TrackWriter writer, boolean includeCategories) throws IOException {
+        writeTrack(writer, getDescriptions(includeCategories));
+    }
+
+    /**
+     * @return the distinct descriptions of all the labels and their categories
+     */
+    public Set<String> getLabelDescriptions() {
+        final Set<String> descriptions = new LinkedHashSet<>();
+        for (SceneEntity label : labels) {
+            descriptions.add(label.getEntity().getDescription());
+            for (Entity categoryEntity : label.getCategoryEntities()) {
+                descriptions.add(categoryEntity.getDescription());
+            }
+        }
+        return descriptions;
+    }
+
+    /**
+     * Write the emoji track, resolving the emojis of all the distinct labels (and their categories) in one batch first
+     */
+    public void writeEmojiTrack(TrackWriter writer, EmojiConverter emojiConverter) throws IOException {
+        writeTrack(writer, getEmojis(emojiConverter));
+    }
+
+    /**
+     * Write the text and the emoji track in a single pass over the scenes
+     * (see {@link #writeTextTrack(TrackWriter, boolean)} and {@link #writeEmojiTrack(TrackWriter, EmojiConverter)})
+     */
+    public void writeTracks(
+            TrackWriter textTrack,
+            boolean includeCategories,
+            TrackWriter emojiTrack,
+            EmojiConverter emojiConverter) throws IOException {
+        final String[] descriptions = getDescriptions(includeCategories);
+        final String[] emojis = getEmojis(emojiConverter);
+        for (int scene = 0; scene < size; scene++) {
+            textTrack.beginCue(starts[scene], ends[scene]);
+            emojiTrack.beginCue(starts[scene], ends[scene]);
+            for (int i = memberOffsets[scene]; i < memberOffsets[scene + 1]; i++) {
+                textTrack.appendItem(descriptions[memberIds[i]]);
+                emojiTrack.appendItem(emojis[memberIds[i]]);
+            }
+            textTrack.endCue();
+            emojiTrack.endCue();
+        }
+    }
+
+    private void writeTrack(TrackWriter writer, String[] items) throws IOException {
+        for (int scene = 0; scene < size; scene++) {
+            writer.beginCue(starts[scene], ends[scene]);
+            for (int i = memberOffsets[scene]; i < memberOffsets[scene + 1]; i++) {
+                writer.appendItem(items[memberIds[i]]);
+            }
+            writer.endCue();
+        }
+    }
+
+    private String[] getDescriptions(boolean includeCategories) {
+        final String[] descriptions = new String[labels.size()];
+        for (int id = 0; id < descriptions.length; id++) {
+            descriptions[id] = labels.get(id).toDescription(includeCategories);
+        }
+        return descriptions;
+    }
+
+    private String[] getEmojis(EmojiConverter emojiConverter) {
+        final Map<String, String> resolved = emojiConverter.resolveAll(getLabelDescriptions());
+        final String[] emojis = new String[labels.size()];
+        for (int id = 0; id < emojis.length; id++) {
+            emojis[id] = emojiConverter.convertToEmoji(labels.get(id), resolved);
+        }
+        return emojis;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("SceneTimeline{");
+        sb.append("size=").append(size);
+        sb.append(", labels=").append(labels.size());
+        sb.append(", entities=").append(memberCount);
+        sb.append('}');
+        return sb.toString();
+    }
+
+}
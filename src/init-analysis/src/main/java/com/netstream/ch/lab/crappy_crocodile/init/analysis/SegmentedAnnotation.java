@@ -0,0 +1,262 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.google.api.gax.longrunning.OperationFuture;
+import com.google.cloud.videointelligence.v1p3beta1.AnnotateVideoProgress;
+import com.google.cloud.videointelligence.v1p3beta1.AnnotateVideoResponse;
+import com.google.cloud.videointelligence.v1p3beta1.ExplicitContentAnnotation;
+import com.google.cloud.videointelligence.v1p3beta1.ExplicitContentFrame;
+import com.google.cloud.videointelligence.v1p3beta1.LabelAnnotation;
+import com.google.cloud.videointelligence.v1p3beta1.LabelSegment;
+import com.google.cloud.videointelligence.v1p3beta1.VideoAnnotationProgress;
+import com.google.cloud.videointelligence.v1p3beta1.VideoAnnotationResults;
+import com.google.cloud.videointelligence.v1p3beta1.VideoSegment;
+import com.google.protobuf.Duration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Annotates a video as a number of time segments (given in the video context of the requests), of which at most
+ * a given number are annotated concurrently, and stitches their results back into a single response.
+ * <p>
+ * The shots (and with them the shot labels) of the segments are cut at their boundaries, so when stitching,
+ * the segments of a label ending at a boundary are joined with the ones of the same label starting there.
+ * Merging the stitched labels with the {@link SceneMerger} then results in the same scenes as without segments.
+ * Without any segments, the whole video is annotated with a single request.
+ */
+class SegmentedAnnotation {
+
+    /**
+     * How far from a boundary of the segments the shots cut there can end (on the last frame before it)
+     */
+    private static final long BOUNDARY_TOLERANCE_NANOS = 1_000_000_000L;
+    private static final Comparator<LabelSegment> BY_START = Comparator.comparingLong(
+            s -> SceneMerger.toNanos(s.getSegment().getStartTimeOffset()));
+
+    private final List<VideoSegment> segments;
+    private final int concurrency;
+    private final Function<VideoSegment, OperationFuture<AnnotateVideoResponse, AnnotateVideoProgress>> annotate;
+    private final Executor executor;
+    private final List<OperationFuture<AnnotateVideoResponse, AnnotateVideoProgress>> operations = new ArrayList<>();
+    private final AnnotateVideoResponse[] responses;
+    private final SettableApiFuture<AnnotateVideoResponse> response = SettableApiFuture.create();
+    private int completed;
+
+
+    /**
+     * @param segments   the segments to annotate (or none to annotate the whole video)
+     * @param annotate   starts the annotation of a segment (or the whole video for <code>null</code>)
+     * @param executor   runs the callbacks of the operations (including the stitching)
+     */
+    SegmentedAnnotation(
+            List<VideoSegment> segments,
+            int concurrency,
+            Function<VideoSegment, OperationFuture<AnnotateVideoResponse, AnnotateVideoProgress>> annotate,
+            Executor executor) {
+        this.segments = segments.isEmpty() ? Collections.singletonList(null) : segments;
+        this.concurrency = Math.max(concurrency, 1);
+        this.annotate = annotate;
+        this.executor = executor;
+        this.responses = new AnnotateVideoResponse[this.segments.size()];
+    }
+
+    /**
+     * Split the video into segments of the given length (or none if it is not longer than that)
+     */
+    public static List<VideoSegment> split(long durationNanos, long segmentNanos) {
+        final List<VideoSegment> segments = new ArrayList<>();
+        if ((segmentNanos > 0) && (durationNanos > segmentNanos)) {
+            for (long start = 0; start < durationNanos; start += segmentNanos) {
+                segments.add(VideoSegment.newBuilder()
+                        .setStartTimeOffset(toDuration(start))
+                        .setEndTimeOffset(toDuration(Math.min(start + segmentNanos, durationNanos)))
+                        .build());
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Start the annotation of the first segments (the others are started as these complete)
+     */
+    public synchronized SegmentedAnnotation start() {
+        while ((operations.size() < concurrency) && (operations.size() < segments.size())) {
+            startNext();
+        }
+        return this;
+    }
+
+    private void startNext() {
+        final int index = operations.size();
+        final OperationFuture<AnnotateVideoResponse, AnnotateVideoProgress> operation =
+                annotate.apply(segments.get(index));
+        operations.add(operation);
+        ApiFutures.addCallback(operation, new ApiFutureCallback<AnnotateVideoResponse>() {
+            @Override
+            public void onSuccess(AnnotateVideoResponse segmentResponse) {
+                completeSegment(index, segmentResponse);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                fail(t);
+            }
+        }, executor);
+    }
+
+    /**
+     * Fail the whole annotation and stop polling the operations of the other segments
+     */
+    private synchronized void fail(Throwable t) {
+        if (response.setException(t)) {
+            for (OperationFuture<AnnotateVideoResponse, AnnotateVideoProgress> operation : operations) {
+                operation.cancel(false);
+            }
+        }
+    }
+
+    private synchronized void completeSegment(int index, AnnotateVideoResponse segmentResponse) {
+        responses[index] = segmentResponse;
+        completed++;
+        try {
+            if (completed == responses.length) {
+                response.set((responses.length > 1) ? stitch(segments, responses) : segmentResponse);
+            } else if ((operations.size() < segments.size()) && !response.isDone()) {
+                startNext();
+            }
+        } catch (RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Stitch the responses of the segments (in the same order) into one
+     */
+    static AnnotateVideoResponse stitch(List<VideoSegment> segments, AnnotateVideoResponse[] responses) {
+        final Map<SceneEntity, LabelAnnotation> annotations = new LinkedHashMap<>();
+        final Map<SceneEntity, List<LabelSegment>> labelSegments = new LinkedHashMap<>();
+        final List<ExplicitContentFrame> frames = new ArrayList<>();
+        for (AnnotateVideoResponse segmentResponse : responses) {
+            for (VideoAnnotationResults results : segmentResponse.getAnnotationResultsList()) {
+                for (LabelAnnotation annotation : results.getShotLabelAnnotationsList()) {
+                    final SceneEntity label = SceneEntity.create(
+                            0, annotation.getEntity(), annotation.getCategoryEntitiesList());
+                    annotations.putIfAbsent(label, annotation);
+                    labelSegments.computeIfAbsent(label, l -> new ArrayList<>()).addAll(annotation.getSegmentsList());
+                }
+                frames.addAll(results.getExplicitAnnotation().getFramesList());
+            }
+        }
+
+        final long[] boundaries = new long[segments.size() - 1];
+        for (int i = 0; i < boundaries.length; i++) {
+            boundaries[i] = SceneMerger.toNanos(segments.get(i).getEndTimeOffset());
+        }
+        final VideoAnnotationResults.Builder results = VideoAnnotationResults.newBuilder();
+        for (Map.Entry<SceneEntity, LabelAnnotation> annotation : annotations.entrySet()) {
+            results.addShotLabelAnnotations(LabelAnnotation.newBuilder()
+                    .setEntity(annotation.getValue().getEntity())
+                    .addAllCategoryEntities(annotation.getValue().getCategoryEntitiesList())
+                    .addAllSegments(join(labelSegments.get(annotation.getKey()), boundaries))
+                    .build());
+        }
+        results.setExplicitAnnotation(ExplicitContentAnnotation.newBuilder().addAllFrames(frames).build());
+        return AnnotateVideoResponse.newBuilder().addAnnotationResults(results.build()).build();
+    }
+
+    /**
+     * Join the segments of a label that were cut at a boundary (with the higher confidence of the two)
+     */
+    private static List<LabelSegment> join(List<LabelSegment> labelSegments, long[] boundaries) {
+        labelSegments.sort(BY_START);
+        final List<LabelSegment> joined = new ArrayList<>(labelSegments.size());
+        for (LabelSegment segment : labelSegments) {
+            final LabelSegment last = joined.isEmpty() ? null : joined.get(joined.size() - 1);
+            if ((last != null) && isCutAtBoundary(
+                    SceneMerger.toNanos(last.getSegment().getEndTimeOffset()),
+                    SceneMerger.toNanos(segment.getSegment().getStartTimeOffset()),
+                    boundaries)) {
+                joined.set(joined.size() - 1, LabelSegment.newBuilder()
+                        .setSegment(VideoSegment.newBuilder()
+                                .setStartTimeOffset(last.getSegment().getStartTimeOffset())
+                                .setEndTimeOffset(segment.getSegment().getEndTimeOffset())
+                                .build())
+                        .setConfidence(Math.max(last.getConfidence(), segment.getConfidence()))
+                        .build());
+            } else {
+                joined.add(segment);
+            }
+        }
+        return joined;
+    }
+
+    private static boolean isCutAtBoundary(long end, long start, long[] boundaries) {
+        for (long boundary : boundaries) {
+            if ((end <= boundary) && (end >= boundary - BOUNDARY_TOLERANCE_NANOS)
+                    && (start >= boundary) && (start <= boundary + BOUNDARY_TOLERANCE_NANOS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Duration toDuration(long nanos) {
+        return Duration.newBuilder()
+                .setSeconds(nanos / 1_000_000_000L)
+                .setNanos((int) (nanos % 1_000_000_000L))
+                .build();
+    }
+
+    public ApiFuture<AnnotateVideoResponse> getResponse() {
+        return response;
+    }
+
+    public int getSegmentCount() {
+        return responses.length;
+    }
+
+    /**
+     * @return the average progress of all segments (those not started yet count as 0%)
+     */
+    public synchronized int getProgressPercent() {
+        int percent = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            if (responses[i] != null) {
+                percent += 100;
+            } else {
+                final ApiFuture<AnnotateVideoProgress> metadata = operations.get(i).peekMetadata();
+                if ((metadata != null) && metadata.isDone()) {
+                    try {
+                        percent += getProgressPercent(metadata.get());
+                    } catch (Exception e) {
+                        // No progress yet
+                    }
+                }
+            }
+        }
+        return percent / responses.length;
+    }
+
+    private static int getProgressPercent(AnnotateVideoProgress progress) {
+        if (progress.getAnnotationProgressCount() > 0) {
+            int percent = 0;
+            for (VideoAnnotationProgress annotationProgress : progress.getAnnotationProgressList()) {
+                percent += annotationProgress.getProgressPercent();
+            }
+            return percent / progress.getAnnotationProgressCount();
+        } else {
+            return 0;
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streams the cues of a SubRip (SRT) text track to a writer.
+ * <p>
+ * The cues are numbered from 1 and their items are separated by " - " (like in the WebVTT tracks).
+ * Timestamps are written with millisecond precision (<code>hh:mm:ss,ttt</code>).
+ */
+public class SrtWriter extends AbstractTrackWriter {
+
+    private static final String ARROW = " --> ";
+    private static final String ITEM_SEPARATOR = " - ";
+
+    private int cues;
+    private int items;
+
+
+    public SrtWriter(Writer writer) {
+        super(writer);
+    }
+
+    @Override
+    public void beginCue(long start, long end) throws IOException {
+        writer.write(Integer.toString(++cues));
+        writer.write('\n');
+        writeTimestamp(start, ',');
+        writer.write(ARROW);
+        writeTimestamp(end, ',');
+        writer.write('\n');
+        items = 0;
+    }
+
+    @Override
+    public void appendItem(CharSequence item) throws IOException {
+        if (items++ > 0) {
+            writer.write(ITEM_SEPARATOR);
+        }
+        writer.append(item);
+    }
+
+    @Override
+    public void endCue() throws IOException {
+        writer.write("\n\n");
+    }
+
+}
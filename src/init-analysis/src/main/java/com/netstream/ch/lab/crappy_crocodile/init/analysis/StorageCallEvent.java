@@ -0,0 +1,36 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for a call to Cloud Storage (only to be created through {@link FlightRecording})
+ */
+@Name(FlightRecording.EVENT_NAME_PREFIX + "StorageCall")
+@Label("Storage Call")
+@Description("Call to Cloud Storage, e.g. uploading a track or copying a file to the output Bucket")
+@Category({FlightRecording.CATEGORY, "Storage"})
+@StackTrace(false)
+class StorageCallEvent extends Event implements PipelineEvent {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Bucket")
+    String bucket;
+
+    @Label("Object")
+    @Description("Name of the object (or of the first one of a batch)")
+    String objectName;
+
+    @Label("Object Count")
+    int objectCount;
+
+    @Label("Succeeded")
+    boolean succeeded;
+
+}
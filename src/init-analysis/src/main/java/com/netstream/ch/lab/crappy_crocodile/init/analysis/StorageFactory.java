@@ -0,0 +1,20 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageOptions;
+import io.micronaut.context.annotation.Factory;
+
+import javax.inject.Singleton;
+
+/**
+ * Creates the Cloud Storage client shared by all beans (which can be replaced by a local one, e.g. for load tests)
+ */
+@Factory
+public class StorageFactory {
+
+    @Singleton
+    public Storage storage() {
+        return StorageOptions.getDefaultInstance().getService();
+    }
+
+}
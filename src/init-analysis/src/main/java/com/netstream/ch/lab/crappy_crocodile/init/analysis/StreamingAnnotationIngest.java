@@ -0,0 +1,157 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.videointelligence.v1p3beta1.ExplicitContentFrame;
+import com.google.cloud.videointelligence.v1p3beta1.LabelAnnotation;
+import com.google.cloud.videointelligence.v1p3beta1.LabelFrame;
+import com.google.cloud.videointelligence.v1p3beta1.StreamingFeature;
+import com.google.cloud.videointelligence.v1p3beta1.StreamingVideoAnnotationResults;
+import com.google.cloud.videointelligence.v1p3beta1.VideoSegment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the text tracks of a video while the streaming Video Intelligence API is still annotating it.
+ * <p>
+ * The labels and the explicit content are streamed separately (the API only takes one feature per stream).
+ * Each response of the label stream covers the time since the previous one: a label detected in consecutive
+ * responses becomes a single segment, which is handed to the {@link IncrementalSceneMerger} once the detected
+ * labels change. The scenes that can no longer change (and for which the explicit content is known)
+ * are written as cues right away, so only the open labels and frames are kept in memory.
+ */
+class StreamingAnnotationIngest {
+
+    private final SceneTimeline window = new SceneTimeline();
+    private final IncrementalSceneMerger merger = new IncrementalSceneMerger(window);
+    private final Map<Integer, Run> runs = new HashMap<>();
+    private final List<ExplicitContentFrame> frames = new ArrayList<>();
+    private final TrackWriter textTrack;
+    private final TrackWriter emojiTrack;
+    private final EmojiConverter emojiConverter;
+
+    private long labelsUntil;
+    private long explicitContentUntil;
+    private boolean labelsCompleted;
+    private boolean explicitContentCompleted;
+    private int sceneCount;
+
+
+    StreamingAnnotationIngest(TrackWriter textTrack, TrackWriter emojiTrack, EmojiConverter emojiConverter) {
+        this.textTrack = textTrack;
+        this.emojiTrack = emojiTrack;
+        this.emojiConverter = emojiConverter;
+    }
+
+    /**
+     * Take the results of the next response of the stream for the feature and write the scenes completed by them
+     */
+    public synchronized void accept(StreamingFeature feature, StreamingVideoAnnotationResults results)
+            throws IOException {
+        if (feature == StreamingFeature.STREAMING_EXPLICIT_CONTENT_DETECTION) {
+            for (ExplicitContentFrame frame : results.getExplicitAnnotation().getFramesList()) {
+                frames.add(frame);
+                explicitContentUntil = Math.max(explicitContentUntil, SceneMerger.toNanos(frame.getTimeOffset()));
+            }
+        } else {
+            acceptLabels(results);
+        }
+        write();
+    }
+
+    private void acceptLabels(StreamingVideoAnnotationResults results) {
+        long until = labelsUntil;
+        for (VideoSegment shot : results.getShotAnnotationsList()) {
+            until = Math.max(until, SceneMerger.toNanos(shot.getEndTimeOffset()));
+        }
+        final Map<Integer, Float> detected = new HashMap<>();
+        for (LabelAnnotation annotation : results.getLabelAnnotationsList()) {
+            float confidence = 0;
+            for (LabelFrame frame : annotation.getFramesList()) {
+                confidence = Math.max(confidence, frame.getConfidence());
+                until = Math.max(until, SceneMerger.toNanos(frame.getTimeOffset()));
+            }
+            if (confidence >= Scene.CONFIDENCE_THRESHOLD) {
+                detected.merge(
+                        window.labelId(annotation.getEntity(), annotation.getCategoryEntitiesList()),
+                        confidence,
+                        Math::max);
+            }
+        }
+        if (until > labelsUntil) {
+            // a scene ends with the previous response if any label is no longer (or newly) detected,
+            // so the segments of the labels still detected can be cut there as well (and written up to there)
+            if (!runs.keySet().equals(detected.keySet())) {
+                for (Map.Entry<Integer, Run> run : runs.entrySet()) {
+                    merger.add(run.getKey(), run.getValue().start, labelsUntil, run.getValue().confidence);
+                }
+                runs.clear();
+            }
+            for (Map.Entry<Integer, Float> label : detected.entrySet()) {
+                final Run run = runs.computeIfAbsent(label.getKey(), id -> new Run(labelsUntil));
+                run.confidence = Math.max(run.confidence, label.getValue());
+            }
+            labelsUntil = until;
+        }
+    }
+
+    /**
+     * Mark the stream of the given feature as completed (writing the remaining scenes once both are)
+     */
+    public synchronized void complete(StreamingFeature feature) throws IOException {
+        if (feature == StreamingFeature.STREAMING_EXPLICIT_CONTENT_DETECTION) {
+            explicitContentCompleted = true;
+        } else {
+            for (Map.Entry<Integer, Run> run : runs.entrySet()) {
+                merger.add(run.getKey(), run.getValue().start, labelsUntil, run.getValue().confidence);
+            }
+            runs.clear();
+            labelsCompleted = true;
+        }
+        write();
+    }
+
+    private void write() throws IOException {
+        long watermark = labelsCompleted ? Long.MAX_VALUE : labelsUntil;
+        for (Run run : runs.values()) {
+            watermark = Math.min(watermark, run.start);
+        }
+        if (!explicitContentCompleted) {
+            watermark = Math.min(watermark, explicitContentUntil);
+        }
+        if (merger.flush(watermark) > 0) {
+            ExplicitContentAssigner.assign(window, frames);
+            window.writeTracks(textTrack, true, emojiTrack, emojiConverter);
+            sceneCount += window.size();
+            // the following scenes start at (or after) the end of the last one
+            final long written = window.getEnd(window.size() - 1);
+            frames.removeIf(frame -> SceneMerger.toNanos(frame.getTimeOffset()) < written);
+            window.clear();
+        }
+    }
+
+    public synchronized int getSceneCount() {
+        return sceneCount;
+    }
+
+    public synchronized int getLabelCount() {
+        return window.getLabelCount();
+    }
+
+
+    /**
+     * A label detected in consecutive responses
+     */
+    private static class Run {
+
+        private final long start;
+        private float confidence;
+
+        private Run(long start) {
+            this.start = start;
+        }
+    }
+
+}
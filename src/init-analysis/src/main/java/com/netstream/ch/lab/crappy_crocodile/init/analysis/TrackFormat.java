@@ -0,0 +1,83 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The formats the text tracks can be written in (named after the extension of their files)
+ */
+public enum TrackFormat {
+    /** WebVTT (see {@link WebVttWriter}) */
+    VTT("text/vtt"),
+    /** SubRip (see {@link SrtWriter}) */
+    SRT("application/x-subrip"),
+    /** Timed Text Markup Language (see {@link TtmlWriter}) */
+    TTML("application/ttml+xml"),
+    /** JSON cues (see {@link JsonCueWriter}) */
+    JSON("application/json");
+
+    private final String contentType;
+
+
+    TrackFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * Parse a comma separated list of formats (e.g. <code>srt,json</code>)
+     *
+     * @return the formats, always starting with {@link #VTT} (the tracks linked by the results of the analyses)
+     */
+    public static List<TrackFormat> parse(String formats) {
+        final List<TrackFormat> result = new ArrayList<>();
+        result.add(VTT);
+        for (String format : formats.split(",")) {
+            final TrackFormat trackFormat = valueOf(format.trim().toUpperCase());
+            if (!result.contains(trackFormat)) {
+                result.add(trackFormat);
+            }
+        }
+        return result;
+    }
+
+    public TrackWriter create(Writer writer) throws IOException {
+        switch (this) {
+            case SRT:
+                return new SrtWriter(writer);
+            case TTML:
+                return new TtmlWriter(writer);
+            case JSON:
+                return new JsonCueWriter(writer);
+            default:
+                return new WebVttWriter(writer);
+        }
+    }
+
+    /**
+     * Create a writer for the given channel, optionally compressing the track with gzip
+     * (see {@link WebVttWriter#create(WritableByteChannel, boolean)})
+     */
+    public TrackWriter create(WritableByteChannel channel, boolean gzip) throws IOException {
+        return create(AbstractTrackWriter.createWriter(channel, gzip));
+    }
+
+    public String getExtension() {
+        return name().toLowerCase();
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the name of the file of the track in this format (replacing the extension of the given name)
+     */
+    public String getFileName(String trackFileName) {
+        final int extension = trackFileName.lastIndexOf('.');
+        return ((extension >= 0) ? trackFileName.substring(0, extension) : trackFileName) + "." + getExtension();
+    }
+
+}
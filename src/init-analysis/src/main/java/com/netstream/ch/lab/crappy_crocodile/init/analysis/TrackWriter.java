@@ -0,0 +1,24 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Streams the cues of a text track in one of the {@link TrackFormat}s.
+ * <p>
+ * Cues are written in order with {@link #beginCue(long, long)}, followed by {@link #appendItem(CharSequence)} for each
+ * of the items in the cue and {@link #endCue()}. Closing the writer completes the track.
+ */
+public interface TrackWriter extends Closeable {
+
+    /**
+     * @param start the start of the cue (in nanoseconds)
+     * @param end   the end of the cue (in nanoseconds)
+     */
+    void beginCue(long start, long end) throws IOException;
+
+    void appendItem(CharSequence item) throws IOException;
+
+    void endCue() throws IOException;
+
+}
@@ -0,0 +1,74 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streams the cues of a TTML text track to a writer, as one paragraph per cue (closing the document on close).
+ * <p>
+ * The items of a cue are separated by " - " (like in the WebVTT tracks) and escaped for XML.
+ * Timestamps are written as clock times with millisecond precision (<code>hh:mm:ss.ttt</code>).
+ */
+public class TtmlWriter extends AbstractTrackWriter {
+
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<tt xmlns=\"http://www.w3.org/ns/ttml\" xml:lang=\"en\">\n<body>\n<div>\n";
+    private static final String FOOTER = "</div>\n</body>\n</tt>\n";
+    private static final String ITEM_SEPARATOR = " - ";
+
+    private int items;
+
+
+    public TtmlWriter(Writer writer) throws IOException {
+        super(writer);
+        this.writer.write(HEADER);
+    }
+
+    @Override
+    public void beginCue(long start, long end) throws IOException {
+        writer.write("<p begin=\"");
+        writeTimestamp(start, '.');
+        writer.write("\" end=\"");
+        writeTimestamp(end, '.');
+        writer.write("\">");
+        items = 0;
+    }
+
+    @Override
+    public void appendItem(CharSequence item) throws IOException {
+        if (items++ > 0) {
+            writer.write(ITEM_SEPARATOR);
+        }
+        for (int i = 0; i < item.length(); i++) {
+            final char c = item.charAt(i);
+            switch (c) {
+                case '&':
+                    writer.write("&amp;");
+                    break;
+                case '<':
+                    writer.write("&lt;");
+                    break;
+                case '>':
+                    writer.write("&gt;");
+                    break;
+                default:
+                    writer.write(c);
+            }
+        }
+    }
+
+    @Override
+    public void endCue() throws IOException {
+        writer.write("</p>\n");
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writer.write(FOOTER);
+        } finally {
+            super.close();
+        }
+    }
+
+}
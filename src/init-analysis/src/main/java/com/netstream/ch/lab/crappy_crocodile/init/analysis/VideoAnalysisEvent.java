@@ -0,0 +1,34 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for the analysis of a video (only to be created through {@link FlightRecording})
+ */
+@Name(FlightRecording.EVENT_NAME_PREFIX + "VideoAnalysis")
+@Label("Video Analysis")
+@Description("Analysis of a video, from acquiring its lock until its files were moved to the output Bucket")
+@Category({FlightRecording.CATEGORY, "Analysis"})
+@StackTrace(false)
+class VideoAnalysisEvent extends Event implements PipelineEvent {
+
+    @Label("Video ID")
+    String videoId;
+
+    @Label("Video Size")
+    @DataAmount
+    long videoSize;
+
+    @Label("Scene Count")
+    int sceneCount;
+
+    @Label("Succeeded")
+    boolean succeeded;
+
+}
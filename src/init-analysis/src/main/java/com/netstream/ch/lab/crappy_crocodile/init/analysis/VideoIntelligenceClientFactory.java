@@ -0,0 +1,145 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.cloud.videointelligence.v1p3beta1.StreamingVideoIntelligenceServiceClient;
+import com.google.cloud.videointelligence.v1p3beta1.StreamingVideoIntelligenceServiceSettings;
+import com.google.cloud.videointelligence.v1p3beta1.VideoIntelligenceServiceClient;
+import com.google.cloud.videointelligence.v1p3beta1.VideoIntelligenceServiceSettings;
+import io.grpc.ManagedChannelBuilder;
+import io.micronaut.context.annotation.Context;
+import io.micronaut.context.annotation.Factory;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the {@link VideoIntelligenceServiceClient} shared by all analyses at startup, so the requests do not have
+ * to load the credentials and open a new gRPC channel every time, and shuts it down gracefully on exit.
+ * <p>
+ * To run against a local fake, set <code>VIDEO_INTELLIGENCE_ENDPOINT</code> (e.g. <code>localhost:8085</code>):
+ * the client then connects in plain text and without credentials. Tests can also replace the client bean
+ * (<code>@Replaces(VideoIntelligenceServiceClient.class)</code>) with one created from a fake stub.
+ * <p>
+ * The {@link StreamingVideoIntelligenceServiceClient} (for <code>STREAMING_ANALYSIS</code>) is only created
+ * when it is first used.
+ */
+@Factory
+public class VideoIntelligenceClientFactory {
+
+    private static final String ENV_VAR_ENDPOINT = "VIDEO_INTELLIGENCE_ENDPOINT";
+    private static final String ENV_VAR_CHANNEL_POOL_SIZE = "VIDEO_INTELLIGENCE_CHANNEL_POOL_SIZE";
+    private static final int CHANNEL_POOL_SIZE =
+            (System.getenv(ENV_VAR_CHANNEL_POOL_SIZE) != null)
+                    ? Integer.parseInt(System.getenv(ENV_VAR_CHANNEL_POOL_SIZE))
+                    : 1;
+    private static final String ENV_VAR_KEEP_ALIVE_SECONDS = "VIDEO_INTELLIGENCE_KEEP_ALIVE_SECONDS";
+    private static final long KEEP_ALIVE_SECONDS =
+            (System.getenv(ENV_VAR_KEEP_ALIVE_SECONDS) != null)
+                    ? Long.parseLong(System.getenv(ENV_VAR_KEEP_ALIVE_SECONDS))
+                    : 60;
+    private static final String ENV_VAR_KEEP_ALIVE_TIMEOUT_SECONDS = "VIDEO_INTELLIGENCE_KEEP_ALIVE_TIMEOUT_SECONDS";
+    private static final long KEEP_ALIVE_TIMEOUT_SECONDS =
+            (System.getenv(ENV_VAR_KEEP_ALIVE_TIMEOUT_SECONDS) != null)
+                    ? Long.parseLong(System.getenv(ENV_VAR_KEEP_ALIVE_TIMEOUT_SECONDS))
+                    : 20;
+    private static final String ENV_VAR_SHUTDOWN_TIMEOUT_SECONDS = "VIDEO_INTELLIGENCE_SHUTDOWN_TIMEOUT_SECONDS";
+    private static final long SHUTDOWN_TIMEOUT_SECONDS =
+            (System.getenv(ENV_VAR_SHUTDOWN_TIMEOUT_SECONDS) != null)
+                    ? Long.parseLong(System.getenv(ENV_VAR_SHUTDOWN_TIMEOUT_SECONDS))
+                    : 10;
+
+    private VideoIntelligenceServiceClient client;
+    private StreamingVideoIntelligenceServiceClient streamingClient;
+
+
+    @Context
+    public VideoIntelligenceServiceClient videoIntelligenceServiceClient() throws IOException {
+        return videoIntelligenceServiceClient(System.getenv(ENV_VAR_ENDPOINT));
+    }
+
+    VideoIntelligenceServiceClient videoIntelligenceServiceClient(String endpoint) throws IOException {
+        client = VideoIntelligenceServiceClient.create(newSettingsBuilder(endpoint).build());
+        return client;
+    }
+
+    @Singleton
+    public StreamingVideoIntelligenceServiceClient streamingVideoIntelligenceServiceClient() throws IOException {
+        return streamingVideoIntelligenceServiceClient(System.getenv(ENV_VAR_ENDPOINT));
+    }
+
+    /**
+     * @param endpoint the endpoint of a local fake (or <code>null</code> to use the Video Intelligence API)
+     */
+    StreamingVideoIntelligenceServiceClient streamingVideoIntelligenceServiceClient(String endpoint)
+            throws IOException {
+        final InstantiatingGrpcChannelProvider.Builder channelProvider = StreamingVideoIntelligenceServiceSettings
+                .defaultGrpcTransportProviderBuilder()
+                .setPoolSize(CHANNEL_POOL_SIZE);
+        final StreamingVideoIntelligenceServiceSettings.Builder settings =
+                StreamingVideoIntelligenceServiceSettings.newBuilder();
+        if (endpoint != null) {
+            channelProvider
+                    .setEndpoint(endpoint)
+                    .setChannelConfigurator(ManagedChannelBuilder::usePlaintext);
+            settings.setCredentialsProvider(NoCredentialsProvider.create());
+        }
+        streamingClient = StreamingVideoIntelligenceServiceClient.create(
+                settings.setTransportChannelProvider(channelProvider.build()).build());
+        return streamingClient;
+    }
+
+    /**
+     * @param endpoint the endpoint of a local fake (or <code>null</code> to use the Video Intelligence API)
+     */
+    static VideoIntelligenceServiceSettings.Builder newSettingsBuilder(String endpoint) {
+        final InstantiatingGrpcChannelProvider.Builder channelProvider = VideoIntelligenceServiceSettings
+                .defaultGrpcTransportProviderBuilder()
+                .setPoolSize(CHANNEL_POOL_SIZE)
+                .setKeepAliveTime(org.threeten.bp.Duration.ofSeconds(KEEP_ALIVE_SECONDS))
+                .setKeepAliveTimeout(org.threeten.bp.Duration.ofSeconds(KEEP_ALIVE_TIMEOUT_SECONDS))
+                // Keep the channel open between bursts of videos (the operations are polled in between anyway)
+                .setKeepAliveWithoutCalls(true);
+        final VideoIntelligenceServiceSettings.Builder settings = VideoIntelligenceServiceSettings.newBuilder();
+        if (endpoint != null) {
+            channelProvider
+                    .setEndpoint(endpoint)
+                    .setChannelConfigurator(ManagedChannelBuilder::usePlaintext);
+            settings.setCredentialsProvider(NoCredentialsProvider.create());
+            System.out.println("Using the Video Intelligence API at " + endpoint);
+        }
+        return settings.setTransportChannelProvider(channelProvider.build());
+    }
+
+    /**
+     * Let the running calls complete (but no longer than <code>VIDEO_INTELLIGENCE_SHUTDOWN_TIMEOUT_SECONDS</code>)
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (client != null) {
+            client.shutdown();
+            try {
+                if (!client.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    client.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                client.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (streamingClient != null) {
+            streamingClient.shutdown();
+            try {
+                if (!streamingClient.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    streamingClient.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                streamingClient.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
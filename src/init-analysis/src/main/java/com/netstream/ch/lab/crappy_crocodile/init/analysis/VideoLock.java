@@ -0,0 +1,75 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.storage.BlobId;
+
+/**
+ * Lock of a video held by this instance (see {@link VideoLockManager})
+ */
+public class VideoLock {
+
+    private final String videoId;
+    private volatile BlobId blobId;
+    private volatile long leaseDeadline;
+    private volatile boolean released;
+    private volatile boolean lost;
+
+
+    VideoLock(String videoId) {
+        this.videoId = videoId;
+    }
+
+    public String getVideoId() {
+        return videoId;
+    }
+
+    /**
+     * @return the ID of the lock file (including the generation written last by this instance)
+     */
+    public BlobId getBlobId() {
+        return blobId;
+    }
+
+    void setBlobId(BlobId blobId) {
+        this.blobId = blobId;
+    }
+
+    public long getLeaseDeadline() {
+        return leaseDeadline;
+    }
+
+    void setLeaseDeadline(long leaseDeadline) {
+        this.leaseDeadline = leaseDeadline;
+    }
+
+    public boolean isReleased() {
+        return released;
+    }
+
+    void setReleased(boolean released) {
+        this.released = released;
+    }
+
+    /**
+     * @return whether the lease expired and another instance took over the lock
+     */
+    public boolean isLost() {
+        return lost;
+    }
+
+    void setLost(boolean lost) {
+        this.lost = lost;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("VideoLock{");
+        sb.append("videoId='").append(videoId).append('\'');
+        sb.append(", blobId=").append(blobId);
+        sb.append(", leaseDeadline=").append(leaseDeadline);
+        sb.append(", released=").append(released);
+        sb.append(", lost=").append(lost);
+        sb.append('}');
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,242 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Locks videos for their analysis, so duplicate deliveries of a video do not start another (expensive) analysis.
+ * <p>
+ * The lock is a lock file in the processing Bucket, created with a single conditional request, so only one
+ * instance can create it. The lock file records its owner and the deadline of its lease, which is extended by
+ * heartbeats as long as the analysis is running. If the owner crashes, the lease expires and another instance
+ * can take over the lock.
+ */
+@Singleton
+public class VideoLockManager {
+
+    protected static final String METADATA_OWNER = "owner";
+    protected static final String METADATA_LEASE_DEADLINE = "leaseDeadline";
+
+    private static final String ENV_VAR_LEASE_SECONDS = "ANALYSIS_LOCK_LEASE_SECONDS";
+    private static final long LEASE_SECONDS =
+            (System.getenv(ENV_VAR_LEASE_SECONDS) != null)
+                    ? Long.parseLong(System.getenv(ENV_VAR_LEASE_SECONDS))
+                    : 600;
+    private static final String ENV_VAR_HEARTBEAT_SECONDS = "ANALYSIS_LOCK_HEARTBEAT_SECONDS";
+    private static final long HEARTBEAT_SECONDS =
+            (System.getenv(ENV_VAR_HEARTBEAT_SECONDS) != null)
+                    ? Long.parseLong(System.getenv(ENV_VAR_HEARTBEAT_SECONDS))
+                    : 120;
+    private static final int HTTP_PRECONDITION_FAILED = 412;
+
+    private final Storage gcs;
+    private final long leaseMillis;
+    private final String owner = UUID.randomUUID().toString();
+    private final Map<String, VideoLock> locks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+
+    @Inject
+    public VideoLockManager(Storage gcs) {
+        this(
+                gcs,
+                TimeUnit.SECONDS.toMillis(LEASE_SECONDS),
+                TimeUnit.SECONDS.toMillis(HEARTBEAT_SECONDS));
+    }
+
+    VideoLockManager(Storage gcs, long leaseMillis, long heartbeatMillis) {
+        this.gcs = gcs;
+        this.leaseMillis = leaseMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "video-lock-heartbeats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::heartbeat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Lock the video by creating its lock file (or taking it over if its lease expired)
+     *
+     * @return the lock or <code>null</code> if the video is already locked (by this or another instance)
+     */
+    public VideoLock lock(String videoId, BlobId lockBlobId) {
+        final VideoLock lock = new VideoLock(videoId);
+        // Collapse concurrent deliveries of the same video before they touch the Bucket
+        if (locks.putIfAbsent(videoId, lock) != null) {
+            return null;
+        }
+        final PipelineEvent storageCall = FlightRecording.beginStorageCall("lock", lockBlobId);
+        try {
+            final Blob lockFile = acquire(lock, lockBlobId);
+            FlightRecording.endStorageCall(storageCall, true);
+            if (lockFile != null) {
+                lock.setBlobId(lockFile.getBlobId());
+                return lock;
+            }
+        } catch (RuntimeException e) {
+            FlightRecording.endStorageCall(storageCall, false);
+            locks.remove(videoId, lock);
+            throw e;
+        }
+        locks.remove(videoId, lock);
+        return null;
+    }
+
+    /**
+     * Stop extending the lease of the lock. The lock file is kept, so another instance can only take over
+     * the lock once the lease expired (see {@link #abandon(VideoLock)} to give up the lease right away).
+     *
+     * @return the ID of the lock file (to delete it, including the generation written last by this instance)
+     */
+    public BlobId unlock(VideoLock lock) {
+        synchronized (lock) {
+            lock.setReleased(true);
+            locks.remove(lock.getVideoId(), lock);
+            return lock.getBlobId();
+        }
+    }
+
+    /**
+     * Release the lock and give up its lease by deleting the lock file (unless another instance took it over),
+     * so the video can be analyzed again right away, e.g. when the message of a failed analysis is redelivered
+     */
+    public void abandon(VideoLock lock) {
+        final BlobId lockFileId = unlock(lock);
+        if (lock.isLost() || (lockFileId == null)) {
+            return;
+        }
+        final PipelineEvent storageCall = FlightRecording.beginStorageCall("abandon", lockFileId);
+        try {
+            // Only the generation written last by this instance
+            gcs.delete(lockFileId, Storage.BlobSourceOption.generationMatch());
+            FlightRecording.endStorageCall(storageCall, true);
+        } catch (RuntimeException e) {
+            FlightRecording.endStorageCall(storageCall, false);
+            // The lease expires eventually
+            System.out.println("Could not give up the lock of " + lock.getVideoId() + ": " + e.getMessage());
+        }
+    }
+
+    public int getLockCount() {
+        return locks.size();
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    private Blob acquire(VideoLock lock, BlobId lockBlobId) {
+        final BlobId blobId = BlobId.of(lockBlobId.getBucket(), lockBlobId.getName());
+        try {
+            return write(lock, blobId, Storage.BlobTargetOption.doesNotExist());
+        } catch (StorageException e) {
+            if (e.getCode() != HTTP_PRECONDITION_FAILED) {
+                throw e;
+            }
+        }
+        final Blob lockFile = gcs.get(blobId);
+        if ((lockFile != null) && (getLeaseDeadline(lockFile) < System.currentTimeMillis())) {
+            System.out.println(
+                    "Taking over the expired lock of " + lock.getVideoId() + " from " + getOwner(lockFile));
+            try {
+                return write(
+                        lock,
+                        BlobId.of(blobId.getBucket(), blobId.getName(), lockFile.getGeneration()),
+                        Storage.BlobTargetOption.generationMatch());
+            } catch (StorageException e) {
+                if (e.getCode() != HTTP_PRECONDITION_FAILED) {
+                    throw e;
+                }
+                // Another instance was faster
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Extend the leases of all locks held by this instance
+     */
+    void heartbeat() {
+        for (VideoLock lock : locks.values()) {
+            synchronized (lock) {
+                if (!lock.isReleased() && !lock.isLost() && (lock.getBlobId() != null)) {
+                    try {
+                        lock.setBlobId(write(lock, lock.getBlobId(), Storage.BlobTargetOption.generationMatch())
+                                .getBlobId());
+                    } catch (StorageException e) {
+                        if (e.getCode() == HTTP_PRECONDITION_FAILED) {
+                            lock.setLost(true);
+                            locks.remove(lock.getVideoId(), lock);
+                            System.out.println("Lost the lock of " + lock.getVideoId() + " to another instance");
+                        } else {
+                            System.out.println(
+                                    "Could not extend the lease of " + lock.getVideoId() + ": " + e.getMessage());
+                        }
+                    } catch (Exception e) {
+                        System.out.println(
+                                "Could not extend the lease of " + lock.getVideoId() + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    private Blob write(VideoLock lock, BlobId blobId, Storage.BlobTargetOption option) {
+        final long leaseDeadline = System.currentTimeMillis() + leaseMillis;
+        final Map<String, String> metadata = new HashMap<>();
+        metadata.put(METADATA_OWNER, owner);
+        metadata.put(METADATA_LEASE_DEADLINE, String.valueOf(leaseDeadline));
+        final Blob lockFile = gcs.create(
+                BlobInfo.newBuilder(blobId)
+                        .setContentType("text/plain")
+                        .setMetadata(metadata)
+                        .build(),
+                lock.getVideoId().getBytes(StandardCharsets.UTF_8),
+                option);
+        lock.setLeaseDeadline(leaseDeadline);
+        return lockFile;
+    }
+
+    /**
+     * @return the deadline of the lease (lock files without one, e.g. from older versions, get the default lease)
+     */
+    private long getLeaseDeadline(Blob lockFile) {
+        final Map<String, String> metadata = lockFile.getMetadata();
+        if ((metadata != null) && (metadata.get(METADATA_LEASE_DEADLINE) != null)) {
+            try {
+                return Long.parseLong(metadata.get(METADATA_LEASE_DEADLINE));
+            } catch (NumberFormatException e) {
+                System.out.println("Ignoring the invalid lease deadline of " + lockFile.getName());
+            }
+        }
+        final Long updateTime = lockFile.getUpdateTime();
+        return ((updateTime != null) ? updateTime : 0) + leaseMillis;
+    }
+
+    private String getOwner(Blob lockFile) {
+        final Map<String, String> metadata = lockFile.getMetadata();
+        return (metadata != null) ? metadata.get(METADATA_OWNER) : null;
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.pubsub.v1.AckReplyConsumer;
+import com.google.cloud.pubsub.v1.MessageReceiver;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.pubsub.v1.PubsubMessage;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Submits the analysis of the {@link Video} in each message pulled from the subscription and acknowledges
+ * the message only once the analysis is done, i.e. after the files were moved to the output Bucket.
+ * <p>
+ * Like a push request answered with an error, a message is nacked (and redelivered) if its analysis failed
+ * or the instance is saturated.
+ * Messages of videos already being processed by another instance are acknowledged right away,
+ * messages not containing a video are dropped (acknowledged, since they would never succeed).
+ */
+class VideoMessageReceiver implements MessageReceiver {
+
+    /**
+     * Starts the analysis of a video (see {@link AnalysisService#submit(Video)})
+     */
+    interface Analysis {
+
+        /**
+         * @return the job (completed right away if the video is already being processed by another instance)
+         */
+        AnalysisJob submit(Video video) throws Exception;
+    }
+
+    private final Gson gson = new Gson();
+    private final Analysis analysis;
+    private final MeterRegistry meterRegistry;
+    private final AtomicInteger outstandingCount = new AtomicInteger();
+
+
+    VideoMessageReceiver(Analysis analysis, MeterRegistry meterRegistry) {
+        this.analysis = analysis;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void receiveMessage(PubsubMessage message, AckReplyConsumer consumer) {
+        outstandingCount.incrementAndGet();
+        final Video video;
+        try {
+            video = gson.fromJson(message.getData().toStringUtf8(), Video.class);
+        } catch (JsonParseException e) {
+            System.out.println("Dropping message " + message.getMessageId() + ": " + e.getMessage());
+            reply(consumer, "dropped");
+            return;
+        }
+        if ((video == null) || (video.getId() == null)) {
+            System.out.println("Dropping message " + message.getMessageId() + ": it does not contain a video");
+            reply(consumer, "dropped");
+            return;
+        }
+
+        final AnalysisJob job;
+        try {
+            job = analysis.submit(video);
+        } catch (RejectedExecutionException e) {
+            System.out.println("Not analyzing " + video.getId() + " now, the message will be redelivered: "
+                    + e.getMessage());
+            reply(consumer, "nacked");
+            return;
+        } catch (Exception e) {
+            e.printStackTrace();
+            reply(consumer, "nacked");
+            return;
+        }
+        job.whenDone(done -> {
+            if (done.getState() == AnalysisJob.State.COMPLETED) {
+                reply(consumer, "acked");
+            } else {
+                System.out.println("Analysis of " + video.getId() + " failed, the message will be redelivered");
+                reply(consumer, "nacked");
+            }
+        });
+    }
+
+    private void reply(AckReplyConsumer consumer, String outcome) {
+        if ("nacked".equals(outcome)) {
+            consumer.nack();
+        } else {
+            consumer.ack();
+        }
+        meterRegistry.counter("pubsub.messages", "outcome", outcome).increment();
+        outstandingCount.decrementAndGet();
+    }
+
+    /**
+     * @return the number of messages received but not acknowledged (or nacked) yet
+     */
+    public int getOutstandingCount() {
+        return outstandingCount.get();
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streams the cues of a WebVTT text track to a writer (or channel), so the track never has to be kept in memory.
+ * <p>
+ * Cues are written with {@link #beginCue(long, long)}, followed by {@link #appendItem(CharSequence)} for each of
+ * the items in the cue (which get separated by " - ") and {@link #endCue()}.
+ * Timestamps are written with millisecond precision (<code>hh:mm:ss.ttt</code>).
+ */
+public class WebVttWriter extends AbstractTrackWriter {
+
+    protected static final String HEADER = "WEBVTT";
+    protected static final String ARROW = " --> ";
+    protected static final String ITEM_SEPARATOR = " - ";
+
+    private int items;
+
+
+    public WebVttWriter(Writer writer) throws IOException {
+        super(writer);
+        this.writer.write(HEADER);
+        this.writer.write("\n\n");
+    }
+
+    /**
+     * Create a writer for the given channel (e.g. the {@link com.google.cloud.WriteChannel} of a Cloud Storage blob),
+     * optionally compressing the track with gzip (in which case the blob's content encoding should be set accordingly)
+     */
+    public static WebVttWriter create(WritableByteChannel channel, boolean gzip) throws IOException {
+        return new WebVttWriter(createWriter(channel, gzip));
+    }
+
+    @Override
+    public void beginCue(long start, long end) throws IOException {
+        writeTimestamp(start);
+        writer.write(ARROW);
+        writeTimestamp(end);
+        writer.write('\n');
+        items = 0;
+    }
+
+    @Override
+    public void appendItem(CharSequence item) throws IOException {
+        if (items++ > 0) {
+            writer.write(ITEM_SEPARATOR);
+        }
+        writer.append(item);
+    }
+
+    @Override
+    public void endCue() throws IOException {
+        writer.write("\n\n");
+    }
+
+    /**
+     * Write the offset (in nanoseconds) as a WebVTT timestamp, trimmed to milliseconds
+     */
+    protected void writeTimestamp(long offset) throws IOException {
+        writeTimestamp(offset, '.');
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.Test;
+
+public class AnalysisSchedulerTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private final List<String> admitted = new ArrayList<>();
+    private AnalysisScheduler.Ticket lastTicket;
+
+
+    @Test
+    public void testAtMostTheGivenNumberOfAnalysesRun() {
+        final AnalysisScheduler scheduler = new AnalysisScheduler(2, 10, Long.MAX_VALUE, 100 * MB);
+        final AnalysisScheduler.Ticket first = enqueue(scheduler, "first", MB);
+        enqueue(scheduler, "second", MB);
+        enqueue(scheduler, "third", MB);
+        assertEquals(List.of("first", "second"), admitted);
+        assertEquals(2, scheduler.getRunningCount());
+        assertEquals(1, scheduler.getQueuedCount(AnalysisScheduler.Lane.FAST));
+
+        first.release();
+        first.release();
+        assertEquals(List.of("first", "second", "third"), admitted);
+        assertEquals(2, scheduler.getRunningCount());
+        assertEquals(0, scheduler.getQueuedCount(AnalysisScheduler.Lane.FAST));
+    }
+
+    @Test
+    public void testShortClipsOvertakeLargeVideosWithoutStarvingThem() {
+        final AnalysisScheduler scheduler = new AnalysisScheduler(1, 10, Long.MAX_VALUE, 100 * MB);
+        AnalysisScheduler.Ticket running = enqueue(scheduler, "running", MB);
+        enqueue(scheduler, "large", 500 * MB);
+        for (int i = 1; i <= AnalysisScheduler.FAST_LANE_WEIGHT + 1; i++) {
+            enqueue(scheduler, "clip" + i, MB);
+        }
+        assertEquals(1, scheduler.getQueuedCount(AnalysisScheduler.Lane.SLOW));
+
+        while (scheduler.getRunningCount() > 0) {
+            running.release();
+            running = lastTicket;
+        }
+        assertEquals(List.of("running", "clip1", "clip2", "clip3", "large", "clip4"), admitted);
+    }
+
+    @Test
+    public void testOneSlotIsKeptForShortClips() {
+        final AnalysisScheduler scheduler = new AnalysisScheduler(2, 10, Long.MAX_VALUE, 100 * MB);
+        enqueue(scheduler, "large1", 500 * MB);
+        enqueue(scheduler, "large2", 500 * MB);
+        enqueue(scheduler, "unknown", -1);
+        enqueue(scheduler, "clip", MB);
+        assertEquals(List.of("large1", "clip"), admitted);
+        assertEquals(2, scheduler.getQueuedCount(AnalysisScheduler.Lane.SLOW));
+    }
+
+    @Test
+    public void testAnalysesHaveToFitIntoTheMemoryBudget() {
+        final long budget = 2 * AnalysisScheduler.BASE_MEMORY_BYTES + MB;
+        final AnalysisScheduler scheduler = new AnalysisScheduler(4, 10, budget, 100 * MB);
+        final AnalysisScheduler.Ticket huge = enqueue(scheduler, "huge", 4096 * MB);
+        enqueue(scheduler, "clip1", MB);
+        assertEquals(List.of("huge"), admitted);
+        assertTrue(scheduler.getReservedMemoryBytes() > budget);
+
+        huge.release();
+        enqueue(scheduler, "clip2", 0);
+        enqueue(scheduler, "clip3", 0);
+        assertEquals(List.of("huge", "clip1", "clip2"), admitted);
+        assertEquals(1, scheduler.getQueuedCount(AnalysisScheduler.Lane.FAST));
+    }
+
+    @Test
+    public void testAnalysesAreRejectedOnceTheQueueIsFull() {
+        final AnalysisScheduler scheduler = new AnalysisScheduler(1, 1, Long.MAX_VALUE, 100 * MB);
+        enqueue(scheduler, "running", MB);
+        final AnalysisScheduler.Ticket waiting = enqueue(scheduler, "waiting", MB);
+        final RejectedExecutionException error =
+                assertThrows(RejectedExecutionException.class, () -> enqueue(scheduler, "rejected", MB));
+        assertTrue(error.getMessage().startsWith("The instance is saturated"));
+        assertEquals(1, scheduler.getRejectedCount());
+
+        waiting.release();
+        assertTrue(waiting.getAdmission().isCancelled());
+        assertEquals(0, scheduler.getQueuedCount(AnalysisScheduler.Lane.FAST));
+        enqueue(scheduler, "queued", MB);
+        assertEquals(List.of("running"), admitted);
+        assertEquals(1, scheduler.getQueuedCount(AnalysisScheduler.Lane.FAST));
+    }
+
+    @Test
+    public void testSizeOfTheVideo() {
+        final Video video = new Video();
+        assertEquals(-1, AnalysisScheduler.getSize(video));
+        video.setSize("12345");
+        assertEquals(12345, AnalysisScheduler.getSize(video));
+        video.setSize("unknown");
+        assertEquals(-1, AnalysisScheduler.getSize(video));
+    }
+
+
+    private AnalysisScheduler.Ticket enqueue(AnalysisScheduler scheduler, String name, long sizeBytes) {
+        final AnalysisScheduler.Ticket ticket = scheduler.enqueue(sizeBytes);
+        ticket.getAdmission().thenRun(() -> {
+            admitted.add(name);
+            lastTicket = ticket;
+        });
+        return ticket;
+    }
+
+}
@@ -0,0 +1,338 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.google.api.gax.longrunning.OperationFuture;
+import com.google.api.gax.rpc.OperationCallable;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.videointelligence.v1p3beta1.AnnotateVideoProgress;
+import com.google.cloud.videointelligence.v1p3beta1.AnnotateVideoRequest;
+import com.google.cloud.videointelligence.v1p3beta1.AnnotateVideoResponse;
+import com.google.cloud.videointelligence.v1p3beta1.Entity;
+import com.google.cloud.videointelligence.v1p3beta1.LabelAnnotation;
+import com.google.cloud.videointelligence.v1p3beta1.LabelSegment;
+import com.google.cloud.videointelligence.v1p3beta1.VideoAnnotationProgress;
+import com.google.cloud.videointelligence.v1p3beta1.VideoAnnotationResults;
+import com.google.cloud.videointelligence.v1p3beta1.VideoIntelligenceServiceClient;
+import com.google.cloud.videointelligence.v1p3beta1.VideoSegment;
+import com.google.cloud.videointelligence.v1p3beta1.stub.VideoIntelligenceServiceStub;
+import com.google.protobuf.Duration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class AnalysisServiceTest {
+
+    private static final String PROCESSING_BUCKET = "crocodile-processing";
+    private static final String OUTPUT_BUCKET = "crocodile-output";
+    private static final long MB = 1024 * 1024;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final FakeStorage storage = new FakeStorage();
+    private final VideoLockManager videoLockManager = new VideoLockManager(
+            storage.getStorage(), TimeUnit.MINUTES.toMillis(10), TimeUnit.MINUTES.toMillis(5));
+    private final Map<String, CompletableFuture<SettableApiFuture<AnnotateVideoResponse>>> annotations =
+            new ConcurrentHashMap<>();
+    private final List<AnalysisJob> jobs = new CopyOnWriteArrayList<>();
+    // the videos whose job was exporting while their emojis were resolved
+    private final List<String> exportedVideoIds = new CopyOnWriteArrayList<>();
+    // thrown while converting the scenes to emojis, if set
+    private volatile RuntimeException conversionError;
+
+
+    @Test
+    public void testJobsRunOnceAdmittedAndComplete() throws Exception {
+        final AnalysisService service = service(new AnalysisScheduler(1, 10, Long.MAX_VALUE, 100 * MB));
+        final AnalysisJob first = submit(service, video("first"));
+        final AnalysisJob second = submit(service, video("second"));
+
+        final SettableApiFuture<AnnotateVideoResponse> firstAnnotation = awaitAnnotation("first");
+        assertEquals(AnalysisJob.State.ANNOTATING, first.getState());
+        assertEquals(AnalysisJob.State.QUEUED, second.getState());
+        firstAnnotation.set(response("dog"));
+        assertEquals(AnalysisJob.State.COMPLETED, awaitDone(first).getState());
+        assertEquals(100, first.getProgressPercent());
+        assertEquals("first", first.getResult().getVideoId());
+
+        awaitAnnotation("second").set(response("cat"));
+        assertEquals(AnalysisJob.State.COMPLETED, awaitDone(second).getState());
+        assertEquals(List.of("first", "second"), exportedVideoIds);
+        assertEquals(0, videoLockManager.getLockCount());
+
+        assertNotNull(storage.get(BlobId.of(OUTPUT_BUCKET, "first/video.mp4")));
+        assertNotNull(storage.get(BlobId.of(OUTPUT_BUCKET, "first/metadata.json")));
+        assertEquals(
+                "WEBVTT\n\n00:00:00.000 --> 00:00:05.000\ndog\n\n",
+                new String(storage.getContent(BlobId.of(OUTPUT_BUCKET, "first/objects.vtt")), StandardCharsets.UTF_8));
+        assertNull(storage.get(BlobId.of(PROCESSING_BUCKET, "first/video.mp4")));
+        assertNull(storage.get(BlobId.of(PROCESSING_BUCKET, "first/" + AnalysisService.FILE_NAME_LOCK)));
+    }
+
+    @Test
+    public void testJobsFailIfTheAnnotationFails() throws Exception {
+        final AnalysisService service = service(new AnalysisScheduler(1, 10, Long.MAX_VALUE, 100 * MB));
+        final AnalysisJob failed = submit(service, video("failed"));
+
+        awaitAnnotation("failed").setException(new IllegalStateException("Quota exceeded"));
+        assertEquals(AnalysisJob.State.FAILED, awaitDone(failed).getState());
+        assertTrue(failed.getMessage().contains("Quota exceeded"), failed.getMessage());
+        assertTrue(exportedVideoIds.isEmpty());
+        assertEquals(0, videoLockManager.getLockCount());
+        // the lease of the lock is given up, the video stays in the processing Bucket for a retry
+        assertNull(storage.get(BlobId.of(PROCESSING_BUCKET, "failed/" + AnalysisService.FILE_NAME_LOCK)));
+        assertNotNull(storage.get(BlobId.of(PROCESSING_BUCKET, "failed/video.mp4")));
+
+        // the slot of the failed job is free again
+        final AnalysisJob next = submit(service, video("next"));
+        awaitAnnotation("next");
+        assertEquals(AnalysisJob.State.ANNOTATING, next.getState());
+    }
+
+    @Test
+    public void testTracksAreNotUploadedIfWritingThemFails() throws Exception {
+        final AnalysisService service = service(new AnalysisScheduler(1, 10, Long.MAX_VALUE, 100 * MB));
+        conversionError = new IllegalStateException("Conversion failed");
+        final AnalysisJob failed = submit(service, video("truncated"));
+
+        awaitAnnotation("truncated").set(response("dog"));
+        assertEquals(AnalysisJob.State.FAILED, awaitDone(failed).getState());
+        assertTrue(failed.getMessage().contains("Conversion failed"), failed.getMessage());
+        // the truncated tracks are not completed (to be moved to the output Bucket by a later analysis)
+        for (String fileName : List.of("objects.vtt", "emoji.vtt")) {
+            assertNull(storage.get(BlobId.of(PROCESSING_BUCKET, "truncated/" + fileName)), fileName);
+        }
+        assertNull(storage.get(BlobId.of(OUTPUT_BUCKET, "truncated/video.mp4")));
+    }
+
+    @Test
+    public void testFailedVideosAreAnalyzedAgainOnceRedelivered() throws Exception {
+        final AnalysisService service = service(new AnalysisScheduler(1, 10, Long.MAX_VALUE, 100 * MB));
+        final AnalysisJob failed = submit(service, video("retried"));
+        awaitAnnotation("retried").setException(new IllegalStateException("Quota exceeded"));
+        assertEquals(AnalysisJob.State.FAILED, awaitDone(failed).getState());
+
+        // the redelivered message (within the lease of the failed analysis) is not taken for a duplicate
+        annotations.remove(video("retried").getUrl());
+        final AnalysisJob retried = submit(service, video("retried"));
+        awaitAnnotation("retried").set(response("dog"));
+        assertEquals(AnalysisJob.State.COMPLETED, awaitDone(retried).getState());
+        assertEquals("retried", retried.getResult().getVideoId());
+        assertNotNull(storage.get(BlobId.of(OUTPUT_BUCKET, "retried/emoji.vtt")));
+        assertNull(storage.get(BlobId.of(PROCESSING_BUCKET, "retried/" + AnalysisService.FILE_NAME_LOCK)));
+    }
+
+    @Test
+    public void testVideosAreOnlyLockedOnceAdmitted() throws Exception {
+        final AnalysisService service = service(new AnalysisScheduler(1, 10, Long.MAX_VALUE, 100 * MB));
+        final AnalysisJob first = submit(service, video("first"));
+        final SettableApiFuture<AnnotateVideoResponse> firstAnnotation = awaitAnnotation("first");
+        // another instance is processing the video
+        storage.put(BlobInfo.newBuilder(BlobId.of(PROCESSING_BUCKET, "locked/" + AnalysisService.FILE_NAME_LOCK))
+                .setMetadata(Map.of(
+                        VideoLockManager.METADATA_OWNER, "other",
+                        VideoLockManager.METADATA_LEASE_DEADLINE,
+                        String.valueOf(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10))))
+                .build(), new byte[0]);
+        final AnalysisJob locked = submit(service, video("locked"));
+        final AnalysisJob queued = submit(service, video("queued"));
+
+        assertEquals(AnalysisJob.State.QUEUED, locked.getState());
+        assertEquals(AnalysisJob.State.QUEUED, queued.getState());
+        assertEquals(1, videoLockManager.getLockCount());
+        assertNull(storage.get(BlobId.of(PROCESSING_BUCKET, "queued/" + AnalysisService.FILE_NAME_LOCK)));
+
+        firstAnnotation.set(response("dog"));
+        assertEquals(AnalysisJob.State.COMPLETED, awaitDone(first).getState());
+        // the job of the locked video is done once admitted, freeing its slot for the next one
+        assertEquals(AnalysisJob.State.COMPLETED, awaitDone(locked).getState());
+        assertTrue(locked.getMessage().contains("another instance"), locked.getMessage());
+        awaitAnnotation("queued");
+        assertEquals(AnalysisJob.State.ANNOTATING, queued.getState());
+        assertNotNull(storage.get(BlobId.of(PROCESSING_BUCKET, "queued/" + AnalysisService.FILE_NAME_LOCK)));
+        assertEquals("other", storage.get(BlobId.of(PROCESSING_BUCKET, "locked/" + AnalysisService.FILE_NAME_LOCK))
+                .getMetadata().get(VideoLockManager.METADATA_OWNER));
+        assertFalse(annotations.containsKey(video("locked").getUrl()));
+    }
+
+    @Test
+    public void testFilesAreCopiedInChunksAndDeletedInOneBatch() throws Exception {
+        final AnalysisService service = service(new AnalysisScheduler(1, 10, Long.MAX_VALUE, 100 * MB));
+        storage.setCopyChunks(3);
+        final AnalysisJob job = submit(service, video("large"));
+        final SettableApiFuture<AnnotateVideoResponse> annotation = awaitAnnotation("large");
+        final BlobId lockFileId =
+                storage.get(BlobId.of(PROCESSING_BUCKET, "large/" + AnalysisService.FILE_NAME_LOCK)).getBlobId();
+        annotation.set(response("dog"));
+        assertEquals(AnalysisJob.State.COMPLETED, awaitDone(job).getState());
+
+        // the video, the metadata and both tracks, each continued twice by a finalize thread
+        final List<String> copyChunkThreadNames = storage.getCopyChunkThreadNames();
+        assertEquals(4 * 2, copyChunkThreadNames.size());
+        for (String threadName : copyChunkThreadNames) {
+            assertTrue(threadName.startsWith("analysis-finalize-"), threadName);
+        }
+        for (String fileName : List.of("video.mp4", "metadata.json", "objects.vtt", "emoji.vtt")) {
+            assertNotNull(storage.get(BlobId.of(OUTPUT_BUCKET, "large/" + fileName)), fileName);
+        }
+
+        // the copied files, the generation of the lock file written by this instance and the folder
+        assertEquals(1, storage.getDeleteRequests().size());
+        final List<BlobId> deleted = storage.getDeleteRequests().get(0);
+        assertEquals(List.of(
+                BlobId.of(PROCESSING_BUCKET, "large/video.mp4"),
+                BlobId.of(PROCESSING_BUCKET, "large/metadata.json"),
+                BlobId.of(PROCESSING_BUCKET, "large/objects.vtt"),
+                BlobId.of(PROCESSING_BUCKET, "large/emoji.vtt"),
+                lockFileId,
+                BlobId.of(PROCESSING_BUCKET, "large/")), deleted);
+        assertNotNull(lockFileId.getGeneration());
+        assertNull(storage.get(lockFileId));
+    }
+
+    @Test
+    public void testJobsAreRemovedOnceExpired() throws Exception {
+        final AnalysisService service = service(new AnalysisScheduler(2, 10, Long.MAX_VALUE, 100 * MB));
+        final AnalysisJob done = submit(service, video("done"));
+        awaitAnnotation("done").set(response("dog"));
+        awaitDone(done);
+        final AnalysisJob running = submit(service, video("running"));
+        awaitAnnotation("running");
+
+        service.removeJobsDoneBefore(done.getEndTime());
+        assertSame(done, service.getJob(done.getId()));
+        service.removeJobsDoneBefore(done.getEndTime() + 1);
+        assertNull(service.getJob(done.getId()));
+
+        service.removeJobsDoneBefore(Long.MAX_VALUE);
+        assertSame(running, service.getJob(running.getId()));
+    }
+
+
+    private AnalysisService service(AnalysisScheduler scheduler) {
+        final VideoIntelligenceServiceStub stub = mock(VideoIntelligenceServiceStub.class);
+        @SuppressWarnings("unchecked")
+        final OperationCallable<AnnotateVideoRequest, AnnotateVideoResponse, AnnotateVideoProgress> callable =
+                mock(OperationCallable.class);
+        when(stub.annotateVideoOperationCallable()).thenReturn(callable);
+        when(callable.futureCall(any(AnnotateVideoRequest.class)))
+                .thenAnswer(invocation -> annotate(invocation.getArgument(0)));
+
+        final EmojiConverter emojiConverter = mock(EmojiConverter.class);
+        when(emojiConverter.resolveAll(anyCollection())).thenAnswer(invocation -> {
+            for (AnalysisJob job : jobs) {
+                if (job.getState() == AnalysisJob.State.EXPORTING) {
+                    exportedVideoIds.add(job.getVideoId());
+                }
+            }
+            return Collections.emptyMap();
+        });
+        when(emojiConverter.convertToEmoji(any(SceneEntity.class), anyMap())).thenAnswer(invocation -> {
+            if (conversionError != null) {
+                throw conversionError;
+            }
+            return "🐶";
+        });
+
+        return new AnalysisService(
+                storage.getStorage(),
+                VideoIntelligenceServiceClient.create(stub),
+                () -> null,
+                emojiConverter,
+                videoLockManager,
+                new AnnotationCache(null),
+                new SimpleMeterRegistry(),
+                scheduler);
+    }
+
+    /**
+     * Submit the analysis of the video (after uploading it and its metadata to the processing Bucket)
+     */
+    private AnalysisJob submit(AnalysisService service, Video video) throws Exception {
+        for (String fileName : List.of("video.mp4", AnalysisService.FILE_NAME_METADATA)) {
+            storage.put(
+                    BlobInfo.newBuilder(BlobId.of(PROCESSING_BUCKET, video.getId() + "/" + fileName)).build(),
+                    fileName.getBytes(StandardCharsets.UTF_8));
+        }
+        final AnalysisJob job = service.submit(video);
+        jobs.add(job);
+        return job;
+    }
+
+    private OperationFuture<AnnotateVideoResponse, AnnotateVideoProgress> annotate(AnnotateVideoRequest request) {
+        final SettableApiFuture<AnnotateVideoResponse> response = SettableApiFuture.create();
+        @SuppressWarnings("unchecked")
+        final OperationFuture<AnnotateVideoResponse, AnnotateVideoProgress> operation =
+                mock(OperationFuture.class, delegatesTo(response));
+        // polled by getJob() while the annotation is running
+        doReturn(ApiFutures.immediateFuture(AnnotateVideoProgress.newBuilder()
+                .addAnnotationProgress(VideoAnnotationProgress.newBuilder().setProgressPercent(40))
+                .build()))
+                .when(operation).peekMetadata();
+        annotation(request.getInputUri()).complete(response);
+        return operation;
+    }
+
+    /**
+     * @return the response of the annotation of the video, once it was started
+     */
+    private SettableApiFuture<AnnotateVideoResponse> awaitAnnotation(String videoId) throws Exception {
+        return annotation(video(videoId).getUrl()).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private CompletableFuture<SettableApiFuture<AnnotateVideoResponse>> annotation(String inputUri) {
+        return annotations.computeIfAbsent(inputUri, ignored -> new CompletableFuture<>());
+    }
+
+    private static AnalysisJob awaitDone(AnalysisJob job) throws Exception {
+        final CompletableFuture<AnalysisJob> done = new CompletableFuture<>();
+        job.whenDone(done::complete);
+        return done.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static Video video(String id) {
+        final Video video = new Video();
+        video.setId(id);
+        video.setContentType("video/mp4");
+        video.setSize(String.valueOf(MB));
+        video.setUrl("gs://" + PROCESSING_BUCKET + "/" + id + "/video.mp4");
+        return video;
+    }
+
+    private static AnnotateVideoResponse response(String label) {
+        return AnnotateVideoResponse.newBuilder()
+                .addAnnotationResults(VideoAnnotationResults.newBuilder()
+                        .addShotLabelAnnotations(LabelAnnotation.newBuilder()
+                                .setEntity(Entity.newBuilder().setDescription(label))
+                                .addSegments(LabelSegment.newBuilder()
+                                        .setSegment(VideoSegment.newBuilder()
+                                                .setStartTimeOffset(Duration.newBuilder().setSeconds(0))
+                                                .setEndTimeOffset(Duration.newBuilder().setSeconds(5)))
+                                        .setConfidence(0.9f))))
+                .build();
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.cloud.videointelligence.v1p3beta1.AnnotateVideoRequest;
+import com.google.cloud.videointelligence.v1p3beta1.AnnotateVideoResponse;
+import com.google.cloud.videointelligence.v1p3beta1.Feature;
+import com.google.cloud.videointelligence.v1p3beta1.VideoAnnotationResults;
+import com.google.cloud.videointelligence.v1p3beta1.VideoContext;
+import com.google.cloud.videointelligence.v1p3beta1.VideoSegment;
+import com.google.protobuf.Duration;
+
+public class AnnotationCacheTest {
+
+    private static final String VIDEO_ID = "d41d8cd98f00b204e9800998ecf8427e";
+    private static final String VIDEO_URL = "gs://crocodile-processing/" + VIDEO_ID + "/video.mp4";
+    private static final List<Feature> FEATURES = Arrays.asList(
+            Feature.SHOT_CHANGE_DETECTION,
+            Feature.LABEL_DETECTION);
+
+
+    @Test
+    public void testResponsesAreCachedPerFeatureSet() throws Exception {
+        final AnnotationCache cache = new AnnotationCache(
+                Files.createTempDirectory("annotations").toString());
+        final List<AnnotateVideoRequest> requests = Collections.singletonList(request(VIDEO_URL, FEATURES, null));
+
+        assertNull(cache.get(VIDEO_ID, requests));
+        cache.put(VIDEO_ID, requests, response());
+
+        final AnnotateVideoResponse cached = cache.get(VIDEO_ID, Collections.singletonList(request(
+                VIDEO_URL, Arrays.asList(Feature.LABEL_DETECTION, Feature.SHOT_CHANGE_DETECTION), null)));
+        assertEquals(
+                "/processing/video.mp4",
+                cached.getAnnotationResultsList().get(0).getInputUri());
+        final List<AnnotateVideoRequest> labelRequests = Collections.singletonList(
+                request(VIDEO_URL, Collections.singletonList(Feature.LABEL_DETECTION), null));
+        assertNull(cache.get(VIDEO_ID, labelRequests));
+        assertNotEquals(
+                AnnotationCache.getName(VIDEO_ID, requests),
+                AnnotationCache.getName(VIDEO_ID, labelRequests));
+
+        // the video is identified by its ID, wherever it was annotated from
+        assertEquals(
+                AnnotationCache.getName(VIDEO_ID, requests),
+                AnnotationCache.getName(VIDEO_ID, Collections.singletonList(
+                        request("gs://crocodile-upload/video.mp4", FEATURES, null))));
+    }
+
+    @Test
+    public void testResponsesAreCachedPerSegmentation() throws Exception {
+        final AnnotationCache cache = new AnnotationCache(
+                Files.createTempDirectory("annotations").toString());
+        final List<AnnotateVideoRequest> requests = Arrays.asList(
+                request(VIDEO_URL, FEATURES, segment(0, 60)),
+                request(VIDEO_URL, FEATURES, segment(60, 90)));
+
+        cache.put(VIDEO_ID, requests, response());
+
+        assertEquals(response(), cache.get(VIDEO_ID, Arrays.asList(
+                request(VIDEO_URL, FEATURES, segment(0, 60)),
+                request(VIDEO_URL, FEATURES, segment(60, 90)))));
+        // not annotated as a whole or in other segments yet
+        assertNull(cache.get(VIDEO_ID, Collections.singletonList(request(VIDEO_URL, FEATURES, null))));
+        assertNull(cache.get(VIDEO_ID, Arrays.asList(
+                request(VIDEO_URL, FEATURES, segment(0, 30)),
+                request(VIDEO_URL, FEATURES, segment(30, 60)),
+                request(VIDEO_URL, FEATURES, segment(60, 90)))));
+        assertNull(cache.get(VIDEO_ID, Collections.singletonList(request(VIDEO_URL, FEATURES, segment(0, 90)))));
+    }
+
+
+    private static AnnotateVideoRequest request(String url, List<Feature> features, VideoSegment segment) {
+        final AnnotateVideoRequest.Builder request = AnnotateVideoRequest.newBuilder()
+                .setInputUri(url)
+                .addAllFeatures(features);
+        if (segment != null) {
+            request.setVideoContext(VideoContext.newBuilder().addSegments(segment).build());
+        }
+        return request.build();
+    }
+
+    private static VideoSegment segment(long startSeconds, long endSeconds) {
+        return VideoSegment.newBuilder()
+                .setStartTimeOffset(Duration.newBuilder().setSeconds(startSeconds).build())
+                .setEndTimeOffset(Duration.newBuilder().setSeconds(endSeconds).build())
+                .build();
+    }
+
+    private static AnnotateVideoResponse response() {
+        return AnnotateVideoResponse.newBuilder()
+                .addAnnotationResults(VideoAnnotationResults.newBuilder()
+                        .setInputUri("/processing/video.mp4")
+                        .build())
+                .build();
+    }
+
+}
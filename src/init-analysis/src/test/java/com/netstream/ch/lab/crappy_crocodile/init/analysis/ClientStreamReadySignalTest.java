@@ -0,0 +1,92 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.api.gax.rpc.ClientStream;
+
+public class ClientStreamReadySignalTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private final ClientStreamReadySignal<String> signal = new ClientStreamReadySignal<>(completion);
+    @SuppressWarnings("unchecked")
+    private final ClientStream<String> stream = mock(ClientStream.class);
+
+
+    @Test
+    public void testRequestsAreOnlySentOnceTheStreamIsReady() throws Exception {
+        final CompletableFuture<Boolean> sent = send("first");
+        assertWaiting(sent);
+
+        // e.g. the stream was started, but the transport buffer is full
+        signal.onReady(stream);
+        assertWaiting(sent);
+        verify(stream, never()).send(any());
+
+        when(stream.isSendReady()).thenReturn(true);
+        signal.onReady(stream);
+        assertTrue(sent.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        verify(stream).send("first");
+
+        // sent right away while the stream stays ready
+        assertTrue(send("second").get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        verify(stream).send("second");
+
+        signal.closeSend();
+        verify(stream).closeSend();
+    }
+
+    @Test
+    public void testSenderIsReleasedOnceTheCallIsDone() throws Exception {
+        signal.onReady(stream);
+        final CompletableFuture<Boolean> sent = send("first");
+        assertWaiting(sent);
+
+        completion.cancel(false);
+        assertFalse(sent.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(send("second").get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        verify(stream, never()).send(any());
+    }
+
+    @Test
+    public void testStreamIsOnlyClosedOnceStarted() {
+        signal.closeSend();
+        verify(stream, never()).closeSend();
+    }
+
+
+    /**
+     * Send the request from another thread (as the sender blocks until the stream is ready)
+     */
+    private CompletableFuture<Boolean> send(String request) {
+        final CompletableFuture<Boolean> sent = new CompletableFuture<>();
+        final Thread sender = new Thread(() -> {
+            try {
+                sent.complete(signal.send(request));
+            } catch (Exception e) {
+                sent.completeExceptionally(e);
+            }
+        }, "sender-" + request);
+        sender.setDaemon(true);
+        sender.start();
+        return sent;
+    }
+
+    private static void assertWaiting(CompletableFuture<Boolean> sent) throws InterruptedException {
+        Thread.sleep(100);
+        assertFalse(sent.isDone(), "the sender should still be waiting");
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class EmojiCacheSnapshotTest {
+
+    @Test
+    public void testSnapshotsAreRestored() throws Exception {
+        final EmojiCache cache = new EmojiCache(10, 1, 1, TimeUnit.HOURS);
+        cache.put("dog", "🐶");
+        cache.put("qwertz", null);
+        cache.put("cat", "🐱", 0, TimeUnit.SECONDS);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EmojiCacheSnapshot.of(cache).write(out);
+        final EmojiCacheSnapshot snapshot = EmojiCacheSnapshot.read(new ByteArrayInputStream(out.toByteArray()));
+
+        final EmojiCache restored = new EmojiCache(10, 1, 1, TimeUnit.HOURS);
+        assertEquals(3, snapshot.restoreInto(restored));
+        assertEquals("🐶", restored.getIfPresent("dog").getEmoji());
+        assertNull(restored.getIfPresent("qwertz").getEmoji());
+        assertEquals(Long.MAX_VALUE, restored.getIfPresent("cat").getRemainingTime(TimeUnit.SECONDS));
+        assertTrue(restored.getIfPresent("dog").getRemainingTime(TimeUnit.MINUTES) >= 59);
+    }
+
+    @Test
+    public void testConcurrentWritersAreMerged() throws Exception {
+        final Path directory = Files.createTempDirectory("emoji-cache");
+        final Path location = directory.resolve("emoji-cache.snapshot");
+
+        final EmojiCache first = new EmojiCache(10, 1, 1, TimeUnit.HOURS);
+        first.get("dog", label -> "🐶");
+        first.get("cat", label -> null);
+        final EmojiCache second = new EmojiCache(10, 1, 1, TimeUnit.HOURS);
+        second.get("cat", label -> "🐱");
+        second.get("cow", label -> "🐮");
+
+        assertTrue(new EmojiCacheSnapshotter(location.toString()).save(first));
+        final EmojiCacheSnapshotter snapshotter = new EmojiCacheSnapshotter(location.toString());
+        assertTrue(snapshotter.save(second));
+        assertFalse(snapshotter.save(second));
+
+        final EmojiCacheSnapshot snapshot;
+        try (InputStream in = Files.newInputStream(location)) {
+            snapshot = EmojiCacheSnapshot.read(in);
+        }
+        assertEquals(3, snapshot.size());
+        assertEquals("🐶", snapshot.getEmoji("dog"));
+        assertEquals("🐱", snapshot.getEmoji("cat"));
+        assertEquals("🐮", snapshot.getEmoji("cow"));
+
+        final EmojiCache fresh = new EmojiCache(10, 1, 1, TimeUnit.HOURS);
+        assertEquals(3, new EmojiCacheSnapshotter(location.toString()).restore(fresh));
+        assertEquals("🐱", fresh.get("cat", label -> null));
+        assertEquals(1, fresh.getHitCount());
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class EmojiCacheTest {
+
+    @Test
+    public void testConcurrentLookUpsAreCollapsed() throws Exception {
+        final EmojiCache cache = new EmojiCache(10, 1, 1, TimeUnit.HOURS);
+        final CompletableFuture<String> remote = new CompletableFuture<>();
+        final AtomicInteger calls = new AtomicInteger();
+
+        final List<CompletableFuture<String>> lookUps = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            lookUps.add(cache.getAsync("dog", label -> {
+                calls.incrementAndGet();
+                return remote;
+            }));
+        }
+        remote.complete("🐶");
+
+        for (CompletableFuture<String> lookUp : lookUps) {
+            assertEquals("🐶", lookUp.get(1, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+        assertEquals("🐶", cache.get("dog", label -> "🐕"));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testMissingEmojisAreCached() throws Exception {
+        final EmojiCache cache = new EmojiCache(10, 1, 1, TimeUnit.HOURS);
+        final AtomicInteger calls = new AtomicInteger();
+
+        assertNull(cache.get("qwertz", label -> {
+            calls.incrementAndGet();
+            return null;
+        }));
+        assertNull(cache.get("qwertz", label -> {
+            calls.incrementAndGet();
+            return null;
+        }));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testExpiredAndEvictedEntriesAreReloaded() throws Exception {
+        final EmojiCache cache = new EmojiCache(2, TimeUnit.HOURS.toNanos(1), 1, TimeUnit.NANOSECONDS);
+        final AtomicInteger calls = new AtomicInteger();
+
+        cache.put("dog", "🐶");
+        cache.put("cat", "🐱");
+        cache.get("dog", label -> "🐶");
+        cache.put("cow", "🐮");
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals("🐱", cache.get("cat", label -> {
+            calls.incrementAndGet();
+            return "🐱";
+        }));
+        assertEquals(1, calls.get());
+
+        cache.put("qwertz", null);
+        cache.get("qwertz", label -> {
+            calls.incrementAndGet();
+            return null;
+        });
+        assertEquals(2, calls.get());
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static com.netstream.ch.lab.crappy_crocodile.init.analysis.LabelAnnotations.annotation;
+import static com.netstream.ch.lab.crappy_crocodile.init.analysis.LabelAnnotations.entity;
+import static com.netstream.ch.lab.crappy_crocodile.init.analysis.LabelAnnotations.segment;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class EmojiConverterTest {
+
+    @Test
+    public void testDistinctLabelsAreResolvedOnce() throws Exception {
+        final FakeEmojiConverter converter = new FakeEmojiConverter();
+        converter.emojis.put("dog", CompletableFuture.completedFuture("🐶"));
+        converter.emojis.put("animal", CompletableFuture.completedFuture("🐾"));
+        final SceneTimeline timeline = SceneMerger.merge(Arrays.asList(
+                annotation("dog", segment(0, 5), segment(10, 15), segment(20, 25)),
+                annotation("cat", "animal", segment(0, 5), segment(20, 25))));
+
+        final StringWriter track = new StringWriter();
+        try (WebVttWriter writer = new WebVttWriter(track)) {
+            timeline.writeEmojiTrack(writer, converter);
+        }
+
+        assertEquals(3, converter.lookUps.get());
+        assertEquals(
+                "WEBVTT\n\n" +
+                        "00:00:00.000 --> 00:00:05.000\n🐶 - 🐾\n\n" +
+                        "00:00:10.000 --> 00:00:15.000\n🐶\n\n" +
+                        "00:00:20.000 --> 00:00:25.000\n🐶 - 🐾\n\n",
+                track.toString());
+    }
+
+    @Test
+    public void testLabelsMissingTheDeadlineAreUnknown() throws Exception {
+        final FakeEmojiConverter converter = new FakeEmojiConverter();
+        converter.emojis.put("dog", CompletableFuture.completedFuture("🐶"));
+        converter.emojis.put("cat", new CompletableFuture<>());
+
+        final Map<String, String> emojis = converter.resolveAll(Arrays.asList("dog", "cat"), 50, TimeUnit.MILLISECONDS);
+
+        assertEquals(Collections.singletonMap("dog", "🐶"), emojis);
+        assertEquals(
+                EmojiConverter.EMOJI_UNKNOWN,
+                converter.convertToEmoji(SceneEntity.create(1, entity("cat")), emojis));
+    }
+
+
+    /**
+     * Converter answering look-ups from a map instead of Emojidex
+     */
+    private static class FakeEmojiConverter extends EmojiConverter {
+
+        private final Map<String, CompletableFuture<String>> emojis = new HashMap<>();
+        private final AtomicInteger lookUps = new AtomicInteger();
+
+        @Override
+        protected CompletableFuture<String> findEmojiAsync(String label) {
+            lookUps.incrementAndGet();
+            return emojis.getOrDefault(label, CompletableFuture.completedFuture(null));
+        }
+    }
+
+}
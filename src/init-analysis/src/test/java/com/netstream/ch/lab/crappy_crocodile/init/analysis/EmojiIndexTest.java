@@ -0,0 +1,55 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class EmojiIndexTest {
+
+    private static final String INDEX =
+            "# test index\n" +
+            "🐶\tdog, puppy, golden retriever\n" +
+            "🚗\tcar, vehicle\n" +
+            "🍽\tfood\n" +
+            "👕\tt shirt\n";
+
+    @Test
+    public void testLabelsAreMatchedByTheirLastWords() throws Exception {
+        final EmojiIndex index = new EmojiIndex(INDEX);
+
+        assertEquals(7, index.size());
+        assertEquals("🐶", index.find("Golden Retriever"));
+        assertEquals("🐶", index.find("hunting dog"));
+        assertEquals("🚗", index.find("motor vehicle"));
+        assertEquals("🍽", index.find("dog food"));
+        assertEquals("🐶", index.find("dog breed"));
+        assertEquals("👕", index.find("T-Shirt"));
+        assertNull(index.find("doghouse"));
+        assertNull(index.find(""));
+    }
+
+    @Test
+    public void testPluralsAreMatched() throws Exception {
+        final EmojiIndex index = new EmojiIndex(INDEX);
+
+        assertEquals("🚗", index.find("cars"));
+        assertEquals("🐶", index.find("puppies"));
+        assertEquals("🐶", index.find("golden retrievers"));
+    }
+
+    @Test
+    public void testBundledIndex() throws Exception {
+        final EmojiIndex index = new EmojiIndex();
+
+        assertTrue(index.size() > 1000);
+        assertEquals("🐶", index.find("golden retriever"));
+        assertEquals("🚗", index.find("motor vehicle"));
+        assertEquals("🛣", index.find("road"));
+        assertEquals("🚦", index.find("traffic"));
+        assertEquals("🔫", index.find("rifle"));
+        assertNull(index.find("soldier"));
+    }
+
+}
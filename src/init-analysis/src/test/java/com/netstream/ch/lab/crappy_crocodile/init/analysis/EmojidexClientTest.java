@@ -0,0 +1,121 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class EmojidexClientTest {
+
+    @Test
+    public void testSearchSendsTermInBodyOfGetRequest() throws Exception {
+        final HttpServer server = start(exchange -> {
+            final String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            assertEquals("GET", exchange.getRequestMethod());
+            respond(exchange, body.equals("code_cont=golden+retriever")
+                    ? "{\"emoji\":[{\"code\":\"dog\",\"moji\":null},{\"code\":\"dog\",\"moji\":\"🐶\"}]}"
+                    : "{\"emoji\":[]}");
+        });
+        try {
+            final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            final EmojidexClient client = client(server, 2, meterRegistry);
+            assertEquals("🐶", client.search("golden retriever").get(5, TimeUnit.SECONDS));
+            assertNull(client.search("qwertz").get(5, TimeUnit.SECONDS));
+            assertEquals(2, meterRegistry.get("emojidex.requests").tag("status", "200").timer().count());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testConcurrentRequestsAreLimited() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final HttpServer server = start(exchange -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            release.await(5, TimeUnit.SECONDS);
+            running.decrementAndGet();
+            respond(exchange, "{\"emoji\":[{\"moji\":\"🐶\"}]}");
+        });
+        try {
+            final EmojidexClient client = client(server, 2);
+            final List<CompletableFuture<String>> searches = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                searches.add(client.search("dog" + i));
+            }
+            assertEquals(8, client.getPendingCount());
+            release.countDown();
+            for (CompletableFuture<String> search : searches) {
+                assertEquals("🐶", search.get(5, TimeUnit.SECONDS));
+            }
+            assertTrue(maxRunning.get() <= 2);
+            assertEquals(2, client.getAvailablePermits());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+
+    private static EmojidexClient client(HttpServer server, int maxConcurrentRequests) {
+        return client(server, maxConcurrentRequests, new SimpleMeterRegistry());
+    }
+
+    private static EmojidexClient client(
+            HttpServer server, int maxConcurrentRequests, SimpleMeterRegistry meterRegistry) {
+        return new EmojidexClient(
+                URI.create("http://localhost:" + server.getAddress().getPort() + EmojidexClient.RESOURCE_SEARCH),
+                Duration.ofSeconds(1), Duration.ofSeconds(5), maxConcurrentRequests, meterRegistry);
+    }
+
+    private static HttpServer start(Handler handler) throws Exception {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext(EmojidexClient.RESOURCE_SEARCH, exchange -> {
+            try {
+                handler.handle(exchange);
+            } catch (Exception ex) {
+                exchange.sendResponseHeaders(500, -1);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+        return server;
+    }
+
+    private static void respond(HttpExchange exchange, String json) throws Exception {
+        final byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws Exception;
+    }
+
+}
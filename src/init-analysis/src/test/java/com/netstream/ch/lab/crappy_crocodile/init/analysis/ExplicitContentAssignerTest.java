@@ -0,0 +1,154 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.cloud.videointelligence.v1p3beta1.ExplicitContentFrame;
+import com.google.cloud.videointelligence.v1p3beta1.Likelihood;
+import com.google.protobuf.Duration;
+
+public class ExplicitContentAssignerTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+
+    @Test
+    public void testFramesOnTheBoundariesOfAScene() {
+        final SceneTimeline timeline = timeline(2 * SECOND, 5 * SECOND, 8 * SECOND, 10 * SECOND);
+        assign(timeline,
+                frame(2 * SECOND, Likelihood.POSSIBLE),
+                frame(5 * SECOND + 1, Likelihood.VERY_LIKELY),
+                frame(10 * SECOND, Likelihood.LIKELY));
+
+        assertLikelihoods(timeline, Likelihood.POSSIBLE, Likelihood.LIKELY);
+    }
+
+    @Test
+    public void testFramesOutsideOfAllScenes() {
+        final SceneTimeline timeline = timeline(2 * SECOND, 5 * SECOND, 6 * SECOND, 8 * SECOND);
+        assign(timeline,
+                frame(SECOND, Likelihood.VERY_LIKELY),
+                frame(5 * SECOND + SECOND / 2, Likelihood.VERY_LIKELY),
+                frame(9 * SECOND, Likelihood.VERY_LIKELY));
+
+        assertLikelihoods(timeline, Likelihood.LIKELIHOOD_UNSPECIFIED, Likelihood.LIKELIHOOD_UNSPECIFIED);
+    }
+
+    @Test
+    public void testUnsortedFrames() {
+        final SceneTimeline timeline = timeline(0, 4 * SECOND, 4 * SECOND + 1, 8 * SECOND);
+        assign(timeline,
+                frame(7 * SECOND, Likelihood.LIKELY),
+                frame(3 * SECOND, Likelihood.POSSIBLE),
+                frame(6 * SECOND, Likelihood.VERY_UNLIKELY),
+                frame(SECOND, Likelihood.UNLIKELY));
+
+        assertLikelihoods(timeline, Likelihood.POSSIBLE, Likelihood.LIKELY);
+    }
+
+    @Test
+    public void testScenesWithoutDuration() {
+        final SceneTimeline timeline = timeline(
+                3 * SECOND, 3 * SECOND, 5 * SECOND, 5 * SECOND, 7 * SECOND, 7 * SECOND);
+        assign(timeline,
+                frame(3 * SECOND, Likelihood.LIKELY),
+                frame(5 * SECOND + 1, Likelihood.VERY_LIKELY),
+                frame(7 * SECOND - 1, Likelihood.VERY_LIKELY),
+                frame(7 * SECOND, Likelihood.UNLIKELY));
+
+        assertLikelihoods(timeline, Likelihood.LIKELY, Likelihood.LIKELIHOOD_UNSPECIFIED, Likelihood.UNLIKELY);
+
+        // the merge appends a scene without duration after the scene around it
+        final SceneTimeline nested = timeline(0, 10 * SECOND, 3 * SECOND, 3 * SECOND, 10 * SECOND, 12 * SECOND);
+        assign(nested,
+                frame(2 * SECOND, Likelihood.UNLIKELY),
+                frame(3 * SECOND, Likelihood.POSSIBLE),
+                frame(11 * SECOND, Likelihood.LIKELY));
+
+        assertLikelihoods(nested, Likelihood.POSSIBLE, Likelihood.POSSIBLE, Likelihood.LIKELY);
+    }
+
+    @Test
+    public void testAdjacentScenesShareTheirBoundary() {
+        final SceneTimeline timeline = timeline(0, 5 * SECOND, 5 * SECOND, 10 * SECOND, 10 * SECOND, 12 * SECOND);
+        assign(timeline,
+                frame(SECOND, Likelihood.UNLIKELY),
+                frame(5 * SECOND, Likelihood.POSSIBLE),
+                frame(10 * SECOND, Likelihood.VERY_UNLIKELY));
+
+        assertLikelihoods(timeline, Likelihood.POSSIBLE, Likelihood.POSSIBLE, Likelihood.VERY_UNLIKELY);
+    }
+
+    @Test
+    public void testSeveralFramesOfOneScene() {
+        final SceneTimeline timeline = timeline(0, 10 * SECOND, 20 * SECOND, 30 * SECOND);
+        assign(timeline,
+                frame(SECOND, Likelihood.UNLIKELY),
+                frame(2 * SECOND, Likelihood.VERY_LIKELY),
+                frame(2 * SECOND, Likelihood.POSSIBLE),
+                frame(9 * SECOND, Likelihood.LIKELY),
+                frame(25 * SECOND, Likelihood.VERY_UNLIKELY),
+                frame(26 * SECOND, Likelihood.UNLIKELY));
+
+        assertLikelihoods(timeline, Likelihood.VERY_LIKELY, Likelihood.UNLIKELY);
+    }
+
+
+    /**
+     * @param boundaries the start and end of every scene (in nanoseconds)
+     */
+    private static SceneTimeline timeline(long... boundaries) {
+        final SceneTimeline timeline = new SceneTimeline();
+        for (int i = 0; i < boundaries.length; i += 2) {
+            timeline.add(boundaries[i], boundaries[i + 1], new int[0], new float[0], 0);
+        }
+        return timeline;
+    }
+
+    /**
+     * Assign the frames to the scenes, asserting the same likelihoods as checking every frame against every scene
+     * (with {@link Scene#updateExplicitContentLikelihoodIfContains(ExplicitContentFrame)})
+     */
+    private static void assign(SceneTimeline timeline, ExplicitContentFrame... frames) {
+        final List<Scene> scenes = new ArrayList<>();
+        for (int scene = 0; scene < timeline.size(); scene++) {
+            scenes.add(timeline.toScene(scene));
+        }
+        for (ExplicitContentFrame frame : frames) {
+            scenes.forEach(scene -> scene.updateExplicitContentLikelihoodIfContains(frame));
+        }
+
+        ExplicitContentAssigner.assign(timeline, Arrays.asList(frames));
+
+        for (int scene = 0; scene < timeline.size(); scene++) {
+            assertEquals(
+                    scenes.get(scene).getLikelihoodForExplicitContent(),
+                    timeline.getLikelihoodForExplicitContent(scene),
+                    "scene " + scene);
+        }
+    }
+
+    private static void assertLikelihoods(SceneTimeline timeline, Likelihood... likelihoods) {
+        final List<Likelihood> assigned = new ArrayList<>();
+        for (int scene = 0; scene < timeline.size(); scene++) {
+            assigned.add(timeline.getLikelihoodForExplicitContent(scene));
+        }
+        assertEquals(Arrays.asList(likelihoods), assigned);
+    }
+
+    private static ExplicitContentFrame frame(long offset, Likelihood likelihood) {
+        return ExplicitContentFrame.newBuilder()
+                .setTimeOffset(Duration.newBuilder()
+                        .setSeconds(offset / SECOND)
+                        .setNanos((int) (offset % SECOND))
+                        .build())
+                .setPornographyLikelihood(likelihood)
+                .build();
+    }
+
+}
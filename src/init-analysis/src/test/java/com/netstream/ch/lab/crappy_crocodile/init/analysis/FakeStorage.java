@@ -0,0 +1,236 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.cloud.RestorableState;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.CopyWriter;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+
+/**
+ * Cloud Storage in memory (behind a mocked {@link Storage}), including the generations of the blobs and the
+ * preconditions on them, which the local stand-in of google-cloud-nio does not support
+ */
+class FakeStorage {
+
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int HTTP_PRECONDITION_FAILED = 412;
+
+    private final Storage storage = mock(Storage.class);
+    // keyed by the IDs without generation
+    private final Map<BlobId, BlobInfo> blobs = new HashMap<>();
+    private final Map<BlobId, byte[]> contents = new HashMap<>();
+    private final List<List<BlobId>> deleteRequests = new ArrayList<>();
+    private final List<String> copyChunkThreadNames = Collections.synchronizedList(new ArrayList<>());
+    private long generation;
+    private int copyChunks = 1;
+
+
+    FakeStorage() {
+        when(storage.create(any(BlobInfo.class), any(byte[].class), any(Storage.BlobTargetOption.class)))
+                .thenAnswer(invocation -> create(
+                        invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2)));
+        when(storage.get(any(BlobId.class))).thenAnswer(invocation -> get(invocation.getArgument(0)));
+        when(storage.writer(any(BlobInfo.class))).thenAnswer(invocation -> writer(invocation.getArgument(0)));
+        when(storage.copy(any(Storage.CopyRequest.class)))
+                .thenAnswer(invocation -> copy(invocation.getArgument(0)));
+        when(storage.delete(anyIterable())).thenAnswer(invocation -> delete(invocation.getArgument(0)));
+        when(storage.delete(any(BlobId.class), any(Storage.BlobSourceOption.class)))
+                .thenAnswer(invocation -> delete(invocation.getArgument(0), invocation.getArgument(1)));
+    }
+
+    Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Write the blob (as an instance of another owner would)
+     */
+    synchronized Blob put(BlobInfo blobInfo, byte[] content) {
+        final BlobId blobId = BlobId.of(blobInfo.getBucket(), blobInfo.getName(), ++generation);
+        final BlobInfo stored = blobInfo.toBuilder().setBlobId(blobId).build();
+        blobs.put(key(blobId), stored);
+        contents.put(key(blobId), content);
+        return toBlob(stored);
+    }
+
+    synchronized Blob get(BlobId blobId) {
+        final BlobInfo blobInfo = blobs.get(key(blobId));
+        return (blobInfo != null) ? toBlob(blobInfo) : null;
+    }
+
+    synchronized byte[] getContent(BlobId blobId) {
+        return contents.get(key(blobId));
+    }
+
+    /**
+     * Let every copy take the number of rewrite requests (as large blobs do)
+     */
+    synchronized void setCopyChunks(int copyChunks) {
+        this.copyChunks = copyChunks;
+    }
+
+    /**
+     * @return the names of the threads which continued the copies (one per rewrite request after the first)
+     */
+    List<String> getCopyChunkThreadNames() {
+        return new ArrayList<>(copyChunkThreadNames);
+    }
+
+    /**
+     * @return the IDs of the blobs deleted by every request
+     */
+    synchronized List<List<BlobId>> getDeleteRequests() {
+        return new ArrayList<>(deleteRequests);
+    }
+
+    private synchronized Blob create(BlobInfo blobInfo, byte[] content, Storage.BlobTargetOption option) {
+        final BlobInfo current = blobs.get(key(blobInfo.getBlobId()));
+        if (Storage.BlobTargetOption.doesNotExist().equals(option) && (current != null)) {
+            throw new StorageException(HTTP_PRECONDITION_FAILED, blobInfo.getName() + " already exists");
+        }
+        if (Storage.BlobTargetOption.generationMatch().equals(option)
+                && ((current == null) || !current.getGeneration().equals(blobInfo.getGeneration()))) {
+            throw new StorageException(HTTP_PRECONDITION_FAILED, blobInfo.getName() + " was changed");
+        }
+        return put(blobInfo, content);
+    }
+
+    private WriteChannel writer(BlobInfo blobInfo) {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        return new WriteChannel() {
+
+            private boolean open = true;
+
+            @Override
+            public int write(ByteBuffer src) throws ClosedChannelException {
+                if (!open) {
+                    throw new ClosedChannelException();
+                }
+                final int length = src.remaining();
+                final byte[] bytes = new byte[length];
+                src.get(bytes);
+                content.write(bytes, 0, length);
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return open;
+            }
+
+            @Override
+            public void close() {
+                if (open) {
+                    open = false;
+                    put(blobInfo, content.toByteArray());
+                }
+            }
+
+            @Override
+            public void setChunkSize(int chunkSize) {
+            }
+
+            @Override
+            public RestorableState<WriteChannel> capture() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private synchronized CopyWriter copy(Storage.CopyRequest request) {
+        final BlobInfo source = blobs.get(key(request.getSource()));
+        if (source == null) {
+            throw new StorageException(HTTP_NOT_FOUND, request.getSource().getName() + " does not exist");
+        }
+        final BlobInfo target = source.toBuilder().setBlobId(request.getTarget().getBlobId()).build();
+        final byte[] content = contents.get(key(request.getSource()));
+        // the blob is only written with the last rewrite request
+        final AtomicInteger remainingChunks = new AtomicInteger(copyChunks - 1);
+        final AtomicReference<Blob> copied =
+                new AtomicReference<>((remainingChunks.get() > 0) ? null : put(target, content));
+        final CopyWriter copyWriter = mock(CopyWriter.class);
+        when(copyWriter.isDone()).thenAnswer(invocation -> remainingChunks.get() <= 0);
+        when(copyWriter.getResult()).thenAnswer(invocation -> copied.get());
+        doAnswer(invocation -> {
+            copyChunkThreadNames.add(Thread.currentThread().getName());
+            if (remainingChunks.decrementAndGet() == 0) {
+                copied.set(put(target, content));
+            }
+            return null;
+        }).when(copyWriter).copyChunk();
+        return copyWriter;
+    }
+
+    /**
+     * Delete the blobs (only the given generation, if the ID includes one)
+     */
+    private synchronized List<Boolean> delete(Iterable<BlobId> blobIds) {
+        final List<BlobId> request = new ArrayList<>();
+        final List<Boolean> deleted = new ArrayList<>();
+        for (BlobId blobId : blobIds) {
+            request.add(blobId);
+            final BlobInfo current = blobs.get(key(blobId));
+            if ((current != null)
+                    && ((blobId.getGeneration() == null) || blobId.getGeneration().equals(current.getGeneration()))) {
+                blobs.remove(key(blobId));
+                contents.remove(key(blobId));
+                deleted.add(true);
+            } else {
+                deleted.add(false);
+            }
+        }
+        deleteRequests.add(request);
+        return deleted;
+    }
+
+    /**
+     * Delete the blob (with the generation of its ID as precondition, if the option is given)
+     */
+    private synchronized boolean delete(BlobId blobId, Storage.BlobSourceOption option) {
+        deleteRequests.add(Collections.singletonList(blobId));
+        final BlobInfo current = blobs.get(key(blobId));
+        if (current == null) {
+            return false;
+        }
+        if (Storage.BlobSourceOption.generationMatch().equals(option)
+                && !current.getGeneration().equals(blobId.getGeneration())) {
+            throw new StorageException(HTTP_PRECONDITION_FAILED, blobId.getName() + " was changed");
+        }
+        blobs.remove(key(blobId));
+        contents.remove(key(blobId));
+        return true;
+    }
+
+    private static BlobId key(BlobId blobId) {
+        return BlobId.of(blobId.getBucket(), blobId.getName());
+    }
+
+    /**
+     * @return a blob answering the getters of the blob info (it cannot be created outside of the client)
+     */
+    private static Blob toBlob(BlobInfo blobInfo) {
+        return mock(Blob.class, delegatesTo(blobInfo));
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.cloud.storage.BlobId;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class FlightRecordingTest {
+
+    @Test
+    public void testEventsAreOnlyCreatedWhileRecording() throws Exception {
+        assumeTrue(FlightRecording.isAvailable());
+        assertNull(FlightRecording.beginSceneMerge("video", 10));
+
+        FlightRecording.start("default", null);
+        final PipelineEvent sceneMerge = FlightRecording.beginSceneMerge("video", 10);
+        FlightRecording.endSceneMerge(sceneMerge, 4);
+        final PipelineEvent storageCall = FlightRecording.beginStorageCall("copy", BlobId.of("bucket", "video/emoji.vtt"));
+        FlightRecording.endStorageCall(storageCall, true);
+        final Path dump = FlightRecording.stop();
+
+        try {
+            final List<RecordedEvent> events = RecordingFile.readAllEvents(dump).stream()
+                    .filter(event -> event.getEventType().getName().startsWith(FlightRecording.EVENT_NAME_PREFIX))
+                    .collect(Collectors.toList());
+            assertEquals(2, events.size());
+            assertEquals(FlightRecording.EVENT_NAME_PREFIX + "SceneMerge", events.get(0).getEventType().getName());
+            assertEquals(4, events.get(0).getInt("sceneCount"));
+            assertEquals("video/emoji.vtt", events.get(1).getString("objectName"));
+        } finally {
+            Files.deleteIfExists(dump);
+        }
+        assertNull(FlightRecording.beginSceneMerge("video", 10));
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.cloud.storage.BlobId;
+
+public class GcsLocationTest {
+
+    @Test
+    public void testObjects() {
+        assertTrue(GcsLocation.isGcs("gs://crocodile/emoji-cache.bin"));
+        assertFalse(GcsLocation.isGcs("/tmp/emoji-cache.bin"));
+        assertEquals(
+                BlobId.of("crocodile", "cache/emoji-cache.bin"),
+                GcsLocation.getBlobId("gs://crocodile/cache/emoji-cache.bin"));
+        assertEquals(
+                "gs://crocodile/cache/emoji-cache.bin",
+                GcsLocation.toString(BlobId.of("crocodile", "cache/emoji-cache.bin")));
+    }
+
+    @Test
+    public void testFolders() {
+        assertEquals(BlobId.of("crocodile", "a.gz"), GcsLocation.getBlobId("gs://crocodile", "a.gz"));
+        assertEquals(BlobId.of("crocodile", "a.gz"), GcsLocation.getBlobId("gs://crocodile/", "a.gz"));
+        assertEquals(BlobId.of("crocodile", "cache/a.gz"), GcsLocation.getBlobId("gs://crocodile/cache", "a.gz"));
+        assertEquals(BlobId.of("crocodile", "cache/a.gz"), GcsLocation.getBlobId("gs://crocodile/cache/", "a.gz"));
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static com.netstream.ch.lab.crappy_crocodile.init.analysis.LabelAnnotations.annotation;
+import static com.netstream.ch.lab.crappy_crocodile.init.analysis.LabelAnnotations.segment;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.cloud.videointelligence.v1p3beta1.LabelAnnotation;
+import com.google.cloud.videointelligence.v1p3beta1.LabelSegment;
+
+public class IncrementalSceneMergerTest {
+
+    @Test
+    public void testOnlyScenesBeforeTheWatermarkAreFlushed() throws Exception {
+        final SceneTimeline timeline = new SceneTimeline();
+        final IncrementalSceneMerger merger = new IncrementalSceneMerger(timeline);
+        merger.add(annotation("dog", segment(0, 10)));
+        merger.add(annotation("cat", segment(5, 15)));
+
+        assertEquals(1, merger.flush(seconds(7)));
+        assertEquals(Arrays.asList("0-5: dog"), describe(timeline));
+
+        timeline.clear();
+        assertEquals(1, merger.flush(seconds(12)));
+        assertEquals(Arrays.asList("5-10: cat, dog"), describe(timeline));
+
+        timeline.clear();
+        assertEquals(1, merger.finish());
+        assertEquals(Arrays.asList("10-15: cat"), describe(timeline));
+    }
+
+    @Test
+    public void testScenesAreTheSameAsMergedAtOnce() throws Exception {
+        final Random random = new Random(42);
+        final List<LabelAnnotation> annotations = new ArrayList<>();
+        final List<LabelAnnotation> arriving = new ArrayList<>();
+        for (String label : Arrays.asList("dog", "cat", "ball", "tree", "car", "person")) {
+            final List<LabelSegment> segments = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                final int start = random.nextInt(100);
+                final LabelSegment segment = segment(start, start + random.nextInt(10));
+                segments.add(segment);
+                arriving.add(annotation(label, segment));
+            }
+            annotations.add(annotation(label, segments.toArray(new LabelSegment[0])));
+        }
+        arriving.sort(Comparator.comparingLong(a -> a.getSegments(0).getSegment().getStartTimeOffset().getSeconds()));
+
+        final SceneTimeline timeline = new SceneTimeline();
+        final IncrementalSceneMerger merger = new IncrementalSceneMerger(timeline);
+        for (LabelAnnotation annotation : arriving) {
+            merger.flush(SceneMerger.toNanos(annotation.getSegments(0).getSegment().getStartTimeOffset()));
+            merger.add(annotation);
+        }
+        merger.finish();
+
+        assertEquals(describe(SceneMerger.merge(annotations)), describe(timeline));
+    }
+
+    @Test
+    public void testSegmentsBeforeTheWatermarkAreRejected() throws Exception {
+        final IncrementalSceneMerger merger = new IncrementalSceneMerger(new SceneTimeline());
+        merger.flush(seconds(10));
+
+        assertThrows(IllegalArgumentException.class, () -> merger.add(annotation("dog", segment(5, 15))));
+    }
+
+
+    private static List<String> describe(SceneTimeline timeline) {
+        final List<String> scenes = new ArrayList<>();
+        for (int scene = 0; scene < timeline.size(); scene++) {
+            final List<String> labels = new ArrayList<>();
+            for (int i = 0; i < timeline.getEntityCount(scene); i++) {
+                labels.add(timeline.getLabel(timeline.getEntityId(scene, i)).getEntity().getDescription());
+            }
+            labels.sort(Comparator.naturalOrder());
+            scenes.add((timeline.getStart(scene) / seconds(1)) + "-" + (timeline.getEnd(scene) / seconds(1))
+                    + ": " + String.join(", ", labels));
+        }
+        return scenes;
+    }
+
+    private static long seconds(int seconds) {
+        return seconds * 1_000_000_000L;
+    }
+
+}
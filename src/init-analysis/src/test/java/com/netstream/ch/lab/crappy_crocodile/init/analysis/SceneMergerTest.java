@@ -0,0 +1,196 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static com.netstream.ch.lab.crappy_crocodile.init.analysis.LabelAnnotations.annotation;
+import static com.netstream.ch.lab.crappy_crocodile.init.analysis.LabelAnnotations.segment;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.StringWriter;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.cloud.videointelligence.v1p3beta1.LabelAnnotation;
+
+public class SceneMergerTest {
+
+    @Test
+    public void testAlignedSegmentsAreAmended() throws Exception {
+        final List<Scene> scenes = new ArrayList<>(Scene.from(Arrays.asList(
+                annotation("dog", segment(0, 5, 0.9f), segment(5, 10, 0.8f)),
+                annotation("cat", segment(0, 5, 0.7f)))));
+
+        assertEquals(2, scenes.size());
+        assertScene(scenes.get(0), 0, 5, 2);
+        assertScene(scenes.get(1), 5, 10, 1);
+    }
+
+    @Test
+    public void testOverlappingSegmentsAreSplit() throws Exception {
+        final List<Scene> scenes = new ArrayList<>(Scene.from(Arrays.asList(
+                annotation("dog", segment(0, 10, 0.9f)),
+                annotation("cat", segment(5, 15, 0.9f)),
+                annotation("ball", segment(6, 8, 0.9f)))));
+
+        assertEquals(5, scenes.size());
+        assertScene(scenes.get(0), 0, 5, 1);
+        assertScene(scenes.get(1), 5, 6, 2);
+        assertScene(scenes.get(2), 6, 8, 3);
+        assertScene(scenes.get(3), 8, 10, 2);
+        assertScene(scenes.get(4), 10, 15, 1);
+    }
+
+    @Test
+    public void testDisjointSegmentsAreKept() throws Exception {
+        final SortedSet<Scene> scenes = Scene.from(Arrays.asList(
+                annotation("dog", segment(0, 5, 0.9f)),
+                annotation("cat", segment(20, 25, 0.9f), segment(30, 35, 0.9f))));
+
+        assertEquals(3, scenes.size());
+        assertScene(scenes.first(), 0, 5, 1);
+        assertScene(scenes.last(), 30, 35, 1);
+    }
+
+    @Test
+    public void testLowConfidenceSegmentsAreIgnored() throws Exception {
+        final SortedSet<Scene> scenes = Scene.from(Arrays.asList(
+                annotation("dog", segment(0, 5, 0.9f), segment(5, 10, 0.1f))));
+
+        assertEquals(1, scenes.size());
+        assertScene(scenes.first(), 0, 5, 1);
+    }
+
+    @Test
+    public void testTimelineBeyondOneDay() throws Exception {
+        final SceneTimeline timeline = SceneMerger.merge(Arrays.asList(
+                annotation("dog", segment(90000, 90005, 0.9f)),
+                annotation("cat", segment(90000, 90005, 0.9f))));
+
+        final StringWriter track = new StringWriter();
+        try (WebVttWriter writer = new WebVttWriter(track)) {
+            timeline.writeTextTrack(writer, false);
+        }
+
+        assertEquals(1, timeline.size());
+        assertEquals("WEBVTT\n\n25:00:00.000 --> 25:00:05.000\ndog - cat\n\n", track.toString());
+    }
+
+    @Test
+    public void testSameScenesAsTheLegacyMergeForShotAlignedLabels() throws Exception {
+        // the shot labels of the Video Intelligence API all share the boundaries of the shots
+        final List<LabelAnnotation> annotations = Arrays.asList(
+                annotation("dog", segment(0, 4, 0.9f), segment(4, 9, 0.8f)),
+                annotation("cat", segment(0, 4, 0.7f)),
+                annotation("ball", segment(4, 9, 0.6f), segment(4, 9, 0.9f)),
+                annotation("tree", segment(9, 12, 0.9f)),
+                annotation("bird", segment(4, 9, 0.9f), segment(9, 12, 0.9f), segment(12, 20, 0.2f)));
+
+        assertEquals(describe(legacyMerge(annotations)), describe(Scene.from(annotations)));
+        assertEquals(
+                Arrays.asList("0-4 cat 0.7, dog 0.9", "4-9 ball 0.6, bird 0.9, dog 0.8", "9-12 bird 0.9, tree 0.9"),
+                describe(Scene.from(annotations)));
+    }
+
+    @Test
+    public void testDifferencesToTheLegacyMerge() throws Exception {
+        // the legacy merge dropped the segments of an annotation not overlapping any scene if another one did
+        final List<LabelAnnotation> partlyNew = Arrays.asList(
+                annotation("dog", segment(0, 4, 0.9f)),
+                annotation("cat", segment(0, 4, 0.9f), segment(9, 12, 0.9f)));
+        assertEquals(Arrays.asList("0-4 cat 0.9, dog 0.9"), describe(legacyMerge(partlyNew)));
+        assertEquals(Arrays.asList("0-4 cat 0.9, dog 0.9", "9-12 cat 0.9"), describe(Scene.from(partlyNew)));
+
+        // and it lost partially overlapping segments instead of splitting them at every boundary
+        final List<LabelAnnotation> overlapping = Arrays.asList(
+                annotation("dog", segment(0, 10, 0.9f)),
+                annotation("cat", segment(5, 15, 0.9f)));
+        assertEquals(Arrays.asList("10-15 cat 0.9"), describe(legacyMerge(overlapping)));
+        assertEquals(
+                Arrays.asList("0-5 dog 0.9", "5-10 cat 0.9, dog 0.9", "10-15 cat 0.9"),
+                describe(Scene.from(overlapping)));
+
+        // it kept an entity per distinct confidence of a label annotated more than once, the sweep keeps the highest
+        final List<LabelAnnotation> repeated = Arrays.asList(
+                annotation("dog", segment(0, 4, 0.9f)),
+                annotation("dog", segment(0, 4, 0.7f)),
+                annotation("cat", segment(0, 4, 0.9f)));
+        assertEquals(Arrays.asList("0-4 cat 0.9, dog 0.7, dog 0.9"), describe(legacyMerge(repeated)));
+        assertEquals(Arrays.asList("0-4 cat 0.9, dog 0.9"), describe(Scene.from(repeated)));
+    }
+
+
+    private static void assertScene(Scene scene, int start, int end, int entities) {
+        assertEquals(LocalTime.ofSecondOfDay(start), scene.getStart());
+        assertEquals(LocalTime.ofSecondOfDay(end), scene.getEnd());
+        assertEquals(entities, scene.getEntities().size());
+    }
+
+    private static List<String> describe(SortedSet<Scene> scenes) {
+        final List<String> descriptions = new ArrayList<>();
+        for (Scene scene : scenes) {
+            descriptions.add(scene.getStart().toSecondOfDay() + "-" + scene.getEnd().toSecondOfDay() + " "
+                    + scene.getEntities().stream()
+                    .map(entity -> entity.getEntity().getDescription() + " " + entity.getConfidence())
+                    .sorted()
+                    .collect(Collectors.joining(", ")));
+        }
+        return descriptions;
+    }
+
+    /**
+     * The merge of the scenes before the {@link SceneMerger} (to compare the scenes with)
+     */
+    private static SortedSet<Scene> legacyMerge(Collection<LabelAnnotation> annotations) {
+        final SortedSet<Scene> scenes = new TreeSet<>();
+        for (LabelAnnotation annotation : annotations) {
+            final SortedSet<Scene> newScenes = Scene.from(annotation);
+            final Set<Scene> overlapping = scenes.stream()
+                    .filter(s -> newScenes.stream().anyMatch(s::overlaps))
+                    .collect(Collectors.toSet());
+            if (overlapping.isEmpty()) {
+                scenes.addAll(newScenes);
+            } else {
+                for (Scene scene : overlapping) {
+                    for (Scene newScene : newScenes) {
+                        if (scene.matchesTime(newScene)) {
+                            scene.amendWith(newScene);
+                        } else {
+                            scenes.remove(scene);
+                            if (newScene.getStart().isAfter(scene.getStart())
+                                    && newScene.getEnd().isBefore(scene.getEnd())) {
+                                final SortedSet<Scene> split = scene.split(newScene.getStart(), newScene.getEnd());
+                                scenes.addAll(split.stream()
+                                        .filter(s -> s.matchesTime(newScene))
+                                        .map(s -> s.amendWith(newScene))
+                                        .collect(Collectors.toSet()));
+                            } else if (newScene.getStart().isBefore(scene.getStart())
+                                    && newScene.getEnd().isAfter(scene.getStart())
+                                    && newScene.getEnd().isBefore(scene.getEnd())) {
+                                scenes.addAll(Scene.mergeOverlapping(
+                                        scene, scene.split(newScene.getEnd()),
+                                        newScene, newScene.split(scene.getStart())));
+                            } else if (newScene.getStart().isBefore(scene.getEnd())
+                                    && newScene.getStart().isAfter(scene.getStart())
+                                    && newScene.getEnd().isAfter(scene.getEnd())) {
+                                scenes.addAll(Scene.mergeOverlapping(
+                                        scene, scene.split(newScene.getStart()),
+                                        newScene, newScene.split(scene.getEnd())));
+                            } else {
+                                scenes.add(scene);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return scenes;
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static com.netstream.ch.lab.crappy_crocodile.init.analysis.LabelAnnotations.annotation;
+import static com.netstream.ch.lab.crappy_crocodile.init.analysis.LabelAnnotations.segment;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.cloud.videointelligence.v1p3beta1.AnnotateVideoResponse;
+import com.google.cloud.videointelligence.v1p3beta1.LabelAnnotation;
+import com.google.cloud.videointelligence.v1p3beta1.VideoAnnotationResults;
+import com.google.cloud.videointelligence.v1p3beta1.VideoSegment;
+
+public class SegmentedAnnotationTest {
+
+    @Test
+    public void testShortVideosAreNotSplit() throws Exception {
+        assertTrue(SegmentedAnnotation.split(seconds(600), seconds(600)).isEmpty());
+        assertTrue(SegmentedAnnotation.split(-1, seconds(600)).isEmpty());
+        assertTrue(SegmentedAnnotation.split(seconds(3600), 0).isEmpty());
+    }
+
+    @Test
+    public void testLongVideosAreSplit() throws Exception {
+        final List<VideoSegment> segments = SegmentedAnnotation.split(seconds(1500), seconds(600));
+
+        assertEquals(3, segments.size());
+        assertEquals(seconds(1200), SceneMerger.toNanos(segments.get(2).getStartTimeOffset()));
+        assertEquals(seconds(1500), SceneMerger.toNanos(segments.get(2).getEndTimeOffset()));
+    }
+
+    @Test
+    public void testScenesAcrossBoundariesAreStitched() throws Exception {
+        final List<VideoSegment> segments = SegmentedAnnotation.split(seconds(20), seconds(10));
+        final AnnotateVideoResponse stitched = SegmentedAnnotation.stitch(segments, new AnnotateVideoResponse[]{
+                response(
+                        annotation("dog", segment(0, 5, 0.9f), segment(5, 9.96, 0.8f)),
+                        annotation("cat", segment(2, 9.96, 0.7f))),
+                response(
+                        annotation("dog", segment(10, 12, 0.6f)),
+                        annotation("cat", segment(15, 20, 0.9f)))});
+
+        final SceneTimeline timeline = SceneMerger.merge(
+                stitched.getAnnotationResultsList().get(0).getShotLabelAnnotationsList());
+        final StringWriter track = new StringWriter();
+        try (WebVttWriter writer = new WebVttWriter(track)) {
+            timeline.writeTextTrack(writer, false);
+        }
+
+        assertEquals("WEBVTT\n\n"
+                + "00:00:00.000 --> 00:00:02.000\ndog\n\n"
+                + "00:00:02.000 --> 00:00:05.000\ndog - cat\n\n"
+                + "00:00:05.000 --> 00:00:09.960\ndog - cat\n\n"
+                + "00:00:09.960 --> 00:00:12.000\ndog\n\n"
+                + "00:00:15.000 --> 00:00:20.000\ncat\n\n", track.toString());
+    }
+
+    @Test
+    public void testDurationIsReadFromMovieHeader() throws Exception {
+        // ftyp, a large mdat (with a 64 bit size) and the moov at the end, as written by most cameras
+        final byte[] video = new byte[8 + 16 + 100 + 8 + 28];
+        final ByteBuffer buffer = ByteBuffer.wrap(video);
+        buffer.putInt(8).put("ftyp".getBytes());
+        buffer.putInt(1).put("mdat".getBytes()).putLong(16 + 100);
+        buffer.position(buffer.position() + 100);
+        buffer.putInt(8 + 28).put("moov".getBytes());
+        buffer.putInt(28).put("mvhd".getBytes()).putInt(0).putInt(0).putInt(0).putInt(600).putInt(600 * 90 + 300);
+
+        final long duration = Mp4Duration.read((position, length) -> ByteBuffer.wrap(
+                Arrays.copyOfRange(video, (int) position, (int) Math.min(video.length, position + length))));
+
+        assertEquals(seconds(90) + 500_000_000L, duration);
+        assertEquals(-1, Mp4Duration.read((position, length) -> ByteBuffer.wrap(new byte[length])));
+    }
+
+
+    private static long seconds(int seconds) {
+        return seconds * 1_000_000_000L;
+    }
+
+    private static AnnotateVideoResponse response(LabelAnnotation... annotations) {
+        return AnnotateVideoResponse.newBuilder()
+                .addAnnotationResults(VideoAnnotationResults.newBuilder()
+                        .addAllShotLabelAnnotations(Arrays.asList(annotations))
+                        .build())
+                .build();
+    }
+
+}
@@ -0,0 +1,173 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+public class TrackFormatTest {
+
+    @Test
+    public void testSrt() throws Exception {
+        assertEquals(
+                "1\n00:00:01,234 --> 01:02:03,004\ndog - cat\n\n2\n01:02:03,004 --> 01:02:04,000\n\n\n",
+                write(TrackFormat.SRT));
+    }
+
+    @Test
+    public void testTtml() throws Exception {
+        assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                        + "<tt xmlns=\"http://www.w3.org/ns/ttml\" xml:lang=\"en\">\n<body>\n<div>\n"
+                        + "<p begin=\"00:00:01.234\" end=\"01:02:03.004\">dog - cat</p>\n"
+                        + "<p begin=\"01:02:03.004\" end=\"01:02:04.000\"></p>\n"
+                        + "</div>\n</body>\n</tt>\n",
+                write(TrackFormat.TTML));
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        assertEquals("[\n"
+                        + "{\"start\":1234,\"end\":3723004,\"items\":[\"dog\",\"cat\"]},\n"
+                        + "{\"start\":3723004,\"end\":3724000,\"items\":[]}\n"
+                        + "]\n",
+                write(TrackFormat.JSON));
+    }
+
+    @Test
+    public void testItemsAreEscaped() throws Exception {
+        final StringWriter ttml = new StringWriter();
+        final StringWriter json = new StringWriter();
+        try (TrackWriter writer = new MultiTrackWriter(Arrays.asList(
+                TrackFormat.TTML.create(ttml), TrackFormat.JSON.create(json)))) {
+            writer.beginCue(0, 1_000_000_000L);
+            writer.appendItem("<\"Tom\" & \\Jerry>\n");
+            writer.endCue();
+        }
+
+        assertEquals(
+                "<p begin=\"00:00:00.000\" end=\"00:00:01.000\">&lt;\"Tom\" &amp; \\Jerry&gt;\n</p>",
+                ttml.toString().split("<div>\n")[1].split("\n</div>")[0]);
+        assertEquals(
+                "{\"start\":0,\"end\":1000,\"items\":[\"<\\\"Tom\\\" & \\\\Jerry>\\u000a\"]}",
+                json.toString().split("\n")[1]);
+    }
+
+    @Test
+    public void testFileNames() throws Exception {
+        assertEquals(Arrays.asList(TrackFormat.VTT, TrackFormat.SRT), TrackFormat.parse("vtt, SRT,vtt"));
+        // the WebVTT tracks are always written (and linked by the results)
+        assertEquals(Arrays.asList(TrackFormat.VTT, TrackFormat.SRT), TrackFormat.parse("srt"));
+        assertEquals(
+                Arrays.asList(TrackFormat.VTT, TrackFormat.JSON, TrackFormat.SRT), TrackFormat.parse("json,vtt,srt"));
+        assertEquals("objects.vtt", TrackFormat.VTT.getFileName(AnalysisService.FILE_NAME_TEST_TRACK));
+        assertEquals("emoji.json", TrackFormat.JSON.getFileName(AnalysisService.FILE_NAME_EMOJI_TRACK));
+    }
+
+    @Test
+    public void testUploadsAreHandedOver() throws Exception {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] content = new byte[1024 * 1024];
+            Arrays.fill(content, (byte) 'x');
+            try (AsyncUploadChannel channel = new AsyncUploadChannel(Channels.newChannel(out), executor)) {
+                for (int i = 0; i < content.length; i += 1000) {
+                    channel.write(ByteBuffer.wrap(content, i, Math.min(1000, content.length - i)));
+                }
+            }
+            assertArrayEquals(content, out.toByteArray());
+
+            final WritableByteChannel failing = new WritableByteChannel() {
+                @Override
+                public int write(ByteBuffer src) throws IOException {
+                    throw new IOException("Upload failed");
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return true;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            final IOException error = assertThrows(IOException.class, () -> {
+                try (AsyncUploadChannel channel = new AsyncUploadChannel(failing, executor)) {
+                    for (int i = 0; i < 1000; i++) {
+                        channel.write(ByteBuffer.wrap(content, 0, 1000));
+                    }
+                }
+            });
+            assertEquals("Upload failed", error.getCause().getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testAbortedUploadsAreNotCompleted() throws Exception {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            final AtomicBoolean closed = new AtomicBoolean();
+            final WritableByteChannel target = new WritableByteChannel() {
+                @Override
+                public int write(ByteBuffer src) {
+                    final int length = src.remaining();
+                    src.position(src.limit());
+                    return length;
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return !closed.get();
+                }
+
+                @Override
+                public void close() {
+                    closed.set(true);
+                }
+            };
+            final AsyncUploadChannel channel = new AsyncUploadChannel(target, executor);
+            channel.write(ByteBuffer.wrap(new byte[1000]));
+            channel.abort();
+            // e.g. the rest of the track flushed by closing its writer
+            channel.write(ByteBuffer.wrap(new byte[1000]));
+            channel.close();
+
+            assertThrows(CompletionException.class, () -> channel.getCompletion().join());
+            assertFalse(closed.get(), "the truncated upload should not be completed");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+
+    private static String write(TrackFormat format) throws IOException {
+        final StringWriter track = new StringWriter();
+        try (TrackWriter writer = format.create(track)) {
+            writer.beginCue(1_234_567_891L, 3_723_004_000_001L);
+            writer.appendItem("dog");
+            writer.appendItem("cat");
+            writer.endCue();
+            writer.beginCue(3_723_004_000_001L, 3_724_000_000_000L);
+            writer.endCue();
+        }
+        return track.toString();
+    }
+
+}
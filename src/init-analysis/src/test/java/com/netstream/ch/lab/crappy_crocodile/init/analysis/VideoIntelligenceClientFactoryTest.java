@@ -0,0 +1,68 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.cloud.videointelligence.v1p3beta1.StreamingVideoIntelligenceServiceClient;
+import com.google.cloud.videointelligence.v1p3beta1.VideoIntelligenceServiceClient;
+import com.google.cloud.videointelligence.v1p3beta1.VideoIntelligenceServiceSettings;
+
+public class VideoIntelligenceClientFactoryTest {
+
+    private static final String ENDPOINT = "localhost:8085";
+
+
+    @Test
+    public void testClientUsesTheVideoIntelligenceApiByDefault() throws Exception {
+        final VideoIntelligenceServiceSettings settings =
+                VideoIntelligenceClientFactory.newSettingsBuilder(null).build();
+        final InstantiatingGrpcChannelProvider channelProvider =
+                (InstantiatingGrpcChannelProvider) settings.getTransportChannelProvider();
+
+        assertEquals(VideoIntelligenceServiceSettings.getDefaultEndpoint(), settings.getEndpoint());
+        assertTrue(channelProvider.needsEndpoint());
+        assertFalse(settings.getCredentialsProvider() instanceof NoCredentialsProvider);
+        // the channel is kept open between the videos
+        assertTrue(channelProvider.getKeepAliveWithoutCalls());
+        assertTrue(channelProvider.getKeepAliveTime().getSeconds() > 0);
+    }
+
+    @Test
+    public void testClientConnectsToALocalFakeWithoutCredentials() throws Exception {
+        final VideoIntelligenceServiceSettings settings =
+                VideoIntelligenceClientFactory.newSettingsBuilder(ENDPOINT).build();
+        final InstantiatingGrpcChannelProvider channelProvider =
+                (InstantiatingGrpcChannelProvider) settings.getTransportChannelProvider();
+
+        assertEquals(ENDPOINT, channelProvider.getEndpoint());
+        assertFalse(channelProvider.needsEndpoint());
+        assertTrue(settings.getCredentialsProvider() instanceof NoCredentialsProvider);
+        assertTrue(channelProvider.getKeepAliveWithoutCalls());
+    }
+
+    @Test
+    public void testClientsAreShutDown() throws Exception {
+        final VideoIntelligenceClientFactory factory = new VideoIntelligenceClientFactory();
+        // nothing to shut down before the clients are created
+        factory.shutdown();
+
+        // the channels only connect with the first call
+        final VideoIntelligenceServiceClient client = factory.videoIntelligenceServiceClient(ENDPOINT);
+        final StreamingVideoIntelligenceServiceClient streamingClient =
+                factory.streamingVideoIntelligenceServiceClient(ENDPOINT);
+        assertFalse(client.isShutdown());
+        assertFalse(streamingClient.isShutdown());
+
+        factory.shutdown();
+        assertTrue(client.isShutdown());
+        assertTrue(client.isTerminated());
+        assertTrue(streamingClient.isShutdown());
+        assertTrue(streamingClient.isTerminated());
+    }
+
+}
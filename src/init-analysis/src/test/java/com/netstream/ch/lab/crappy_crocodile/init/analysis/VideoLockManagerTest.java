@@ -0,0 +1,149 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+
+public class VideoLockManagerTest {
+
+    private static final String VIDEO_ID = "d41d8cd98f00b204e9800998ecf8427e";
+    private static final BlobId LOCK_BLOB_ID = BlobId.of("crocodile-processing", VIDEO_ID + "/vis.lock");
+    private static final long LEASE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    // the heartbeats are triggered by the tests
+    private static final long HEARTBEAT_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final FakeStorage storage = new FakeStorage();
+
+
+    @Test
+    public void testOnlyOneInstanceAcquiresTheLock() {
+        final VideoLockManager first = new VideoLockManager(storage.getStorage(), LEASE_MILLIS, HEARTBEAT_MILLIS);
+        final VideoLockManager second = new VideoLockManager(storage.getStorage(), LEASE_MILLIS, HEARTBEAT_MILLIS);
+
+        final VideoLock lock = first.lock(VIDEO_ID, LOCK_BLOB_ID);
+        assertNotNull(lock);
+        assertNull(first.lock(VIDEO_ID, LOCK_BLOB_ID));
+        assertNull(second.lock(VIDEO_ID, LOCK_BLOB_ID));
+        assertEquals(1, first.getLockCount());
+        assertEquals(0, second.getLockCount());
+
+        final Blob lockFile = storage.get(LOCK_BLOB_ID);
+        assertEquals(lock.getBlobId(), lockFile.getBlobId());
+        assertEquals(first.getOwner(), lockFile.getMetadata().get(VideoLockManager.METADATA_OWNER));
+        assertEquals(
+                String.valueOf(lock.getLeaseDeadline()),
+                lockFile.getMetadata().get(VideoLockManager.METADATA_LEASE_DEADLINE));
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void testLockIsOnlyTakenOverOnceItsLeaseExpired() {
+        final VideoLockManager manager = new VideoLockManager(storage.getStorage(), LEASE_MILLIS, HEARTBEAT_MILLIS);
+
+        putLockFile("crashed", System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1));
+        assertNull(manager.lock(VIDEO_ID, LOCK_BLOB_ID));
+        assertEquals(0, manager.getLockCount());
+
+        final Blob expired = putLockFile("crashed", System.currentTimeMillis() - 1);
+        final VideoLock lock = manager.lock(VIDEO_ID, LOCK_BLOB_ID);
+        assertNotNull(lock);
+        assertTrue(lock.getBlobId().getGeneration() > expired.getGeneration());
+        assertEquals(manager.getOwner(), storage.get(LOCK_BLOB_ID).getMetadata().get(VideoLockManager.METADATA_OWNER));
+        manager.close();
+    }
+
+    @Test
+    public void testLockIsLostIfTheLockFileWasRewrittenByAnotherInstance() {
+        final VideoLockManager manager = new VideoLockManager(storage.getStorage(), LEASE_MILLIS, HEARTBEAT_MILLIS);
+        final VideoLock lock = manager.lock(VIDEO_ID, LOCK_BLOB_ID);
+        final Long acquiredGeneration = lock.getBlobId().getGeneration();
+
+        manager.heartbeat();
+        assertFalse(lock.isLost());
+        assertTrue(lock.getBlobId().getGeneration() > acquiredGeneration);
+        assertEquals(lock.getBlobId(), storage.get(LOCK_BLOB_ID).getBlobId());
+
+        // e.g. after the heartbeats were stalled for longer than the lease
+        putLockFile("other", System.currentTimeMillis() + LEASE_MILLIS);
+        manager.heartbeat();
+        assertTrue(lock.isLost());
+        assertEquals(0, manager.getLockCount());
+        assertEquals("other", storage.get(LOCK_BLOB_ID).getMetadata().get(VideoLockManager.METADATA_OWNER));
+        manager.close();
+    }
+
+    @Test
+    public void testUnlockIsIdempotent() {
+        final VideoLockManager manager = new VideoLockManager(storage.getStorage(), LEASE_MILLIS, HEARTBEAT_MILLIS);
+        final VideoLock lock = manager.lock(VIDEO_ID, LOCK_BLOB_ID);
+
+        final BlobId lockFileId = manager.unlock(lock);
+        assertEquals(lockFileId, manager.unlock(lock));
+        assertTrue(lock.isReleased());
+        assertFalse(lock.isLost());
+        assertEquals(0, manager.getLockCount());
+
+        // the lease of a released lock is no longer extended, but it is kept until it expires
+        manager.heartbeat();
+        assertEquals(lockFileId, storage.get(LOCK_BLOB_ID).getBlobId());
+        assertNull(manager.lock(VIDEO_ID, LOCK_BLOB_ID));
+        manager.close();
+    }
+
+    @Test
+    public void testAbandonedLockCanBeTakenRightAway() {
+        final VideoLockManager first = new VideoLockManager(storage.getStorage(), LEASE_MILLIS, HEARTBEAT_MILLIS);
+        final VideoLockManager second = new VideoLockManager(storage.getStorage(), LEASE_MILLIS, HEARTBEAT_MILLIS);
+        final VideoLock lock = first.lock(VIDEO_ID, LOCK_BLOB_ID);
+
+        first.abandon(lock);
+        assertTrue(lock.isReleased());
+        assertEquals(0, first.getLockCount());
+        assertNull(storage.get(LOCK_BLOB_ID));
+        // idempotent
+        first.abandon(lock);
+
+        final VideoLock retry = second.lock(VIDEO_ID, LOCK_BLOB_ID);
+        assertNotNull(retry);
+        assertEquals(second.getOwner(), storage.get(LOCK_BLOB_ID).getMetadata().get(VideoLockManager.METADATA_OWNER));
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void testAbandoningKeepsTheLockFileOfAnotherInstance() {
+        final VideoLockManager manager = new VideoLockManager(storage.getStorage(), LEASE_MILLIS, HEARTBEAT_MILLIS);
+        final VideoLock lock = manager.lock(VIDEO_ID, LOCK_BLOB_ID);
+
+        // taken over, but not noticed yet (before the next heartbeat)
+        putLockFile("other", System.currentTimeMillis() + LEASE_MILLIS);
+        manager.abandon(lock);
+        assertEquals("other", storage.get(LOCK_BLOB_ID).getMetadata().get(VideoLockManager.METADATA_OWNER));
+        manager.close();
+    }
+
+
+    /**
+     * Write the lock file as another instance would
+     */
+    private Blob putLockFile(String owner, long leaseDeadline) {
+        final Map<String, String> metadata = new HashMap<>();
+        metadata.put(VideoLockManager.METADATA_OWNER, owner);
+        metadata.put(VideoLockManager.METADATA_LEASE_DEADLINE, String.valueOf(leaseDeadline));
+        return storage.put(BlobInfo.newBuilder(LOCK_BLOB_ID).setMetadata(metadata).build(), VIDEO_ID.getBytes());
+    }
+
+}
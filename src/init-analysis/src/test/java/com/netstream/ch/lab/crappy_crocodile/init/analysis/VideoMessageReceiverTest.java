@@ -0,0 +1,82 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.cloud.pubsub.v1.AckReplyConsumer;
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PubsubMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class VideoMessageReceiverTest {
+
+    private final Map<String, AnalysisJob> jobs = new ConcurrentHashMap<>();
+    private final List<String> replies = new ArrayList<>();
+    private final VideoMessageReceiver receiver = new VideoMessageReceiver(video -> {
+        if ("failing".equals(video.getId())) {
+            throw new IllegalStateException("Could not start the annotation");
+        }
+        final AnalysisJob job = new AnalysisJob(video.getId(), video.getId());
+        if ("locked".equals(video.getId())) {
+            // completed right away, like the jobs of videos already being processed by another instance
+            job.complete(new Result(video.getId(), "Processing was already started by another instance"));
+        }
+        jobs.put(video.getId(), job);
+        return job;
+    }, new SimpleMeterRegistry());
+
+
+    @Test
+    public void testMessagesAreAcknowledgedOnceTheAnalysisIsDone() throws Exception {
+        receive("{\"id\":\"first\"}");
+        receive("{\"id\":\"second\"}");
+        assertEquals(2, receiver.getOutstandingCount());
+        assertEquals(new ArrayList<>(), replies);
+
+        jobs.get("second").complete(new Result("second", "gs://output/second/emoji.vtt"));
+        jobs.get("first").fail("Lost the lock");
+
+        assertEquals(List.of("ack {\"id\":\"second\"}", "nack {\"id\":\"first\"}"), replies);
+        assertEquals(0, receiver.getOutstandingCount());
+    }
+
+    @Test
+    public void testMessagesThatCannotBeAnalyzed() throws Exception {
+        receive("{\"id\":\"locked\"}");
+        receive("{\"id\":\"failing\"}");
+        receive("not a video");
+        receive("{}");
+
+        assertEquals(
+                List.of("ack {\"id\":\"locked\"}", "nack {\"id\":\"failing\"}", "ack not a video", "ack {}"),
+                replies);
+        assertEquals(0, receiver.getOutstandingCount());
+    }
+
+
+    private void receive(String data) {
+        receiver.receiveMessage(
+                PubsubMessage.newBuilder()
+                        .setMessageId(Integer.toString(replies.size()))
+                        .setData(ByteString.copyFromUtf8(data))
+                        .build(),
+                new AckReplyConsumer() {
+                    @Override
+                    public void ack() {
+                        replies.add("ack " + data);
+                    }
+
+                    @Override
+                    public void nack() {
+                        replies.add("nack " + data);
+                    }
+                });
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+public class WebVttWriterTest {
+
+    @Test
+    public void testTimestampsAreTrimmedToMilliseconds() throws Exception {
+        final StringWriter track = new StringWriter();
+        try (WebVttWriter writer = new WebVttWriter(track)) {
+            writer.beginCue(1_234_567_891L, 3_723_004_000_001L);
+            writer.appendItem("dog");
+            writer.appendItem("cat");
+            writer.endCue();
+        }
+
+        assertEquals("WEBVTT\n\n00:00:01.234 --> 01:02:03.004\ndog - cat\n\n", track.toString());
+    }
+
+    @Test
+    public void testGzipCompression() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (WebVttWriter writer = WebVttWriter.create(Channels.newChannel(out), true)) {
+            writer.beginCue(0, 360_000_000_000_000L);
+            writer.appendItem("🐶");
+            writer.endCue();
+        }
+
+        assertEquals(
+                "WEBVTT\n\n00:00:00.000 --> 100:00:00.000\n🐶\n\n",
+                IOUtils.toString(
+                        new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())),
+                        StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.netstream.ch.lab.crappy_crocodile.init.analysis;
+
+import com.google.cloud.videointelligence.v1p3beta1.Entity;
+import com.google.cloud.videointelligence.v1p3beta1.LabelAnnotation;
+import com.google.cloud.videointelligence.v1p3beta1.LabelSegment;
+import com.google.cloud.videointelligence.v1p3beta1.VideoSegment;
+import com.google.protobuf.Duration;
+
+import java.util.Arrays;
+
+/**
+ * Builds the label annotations of the Video Intelligence API for the tests, the benchmarks and the load test
+ * (the times are given in seconds)
+ */
+class LabelAnnotations {
+
+    private static final float DEFAULT_CONFIDENCE = 0.9f;
+
+
+    private LabelAnnotations() {
+    }
+
+    static Entity entity(String description) {
+        return Entity.newBuilder().setDescription(description).build();
+    }
+
+    static LabelAnnotation annotation(String description, LabelSegment... segments) {
+        return LabelAnnotation.newBuilder()
+                .setEntity(entity(description))
+                .addAllSegments(Arrays.asList(segments))
+                .build();
+    }
+
+    static LabelAnnotation annotation(String description, String category, LabelSegment... segments) {
+        return annotation(description, segments).toBuilder()
+                .addCategoryEntities(entity(category))
+                .build();
+    }
+
+    static LabelSegment segment(double start, double end) {
+        return segment(start, end, DEFAULT_CONFIDENCE);
+    }
+
+    static LabelSegment segment(double start, double end, float confidence) {
+        return LabelSegment.newBuilder()
+                .setSegment(VideoSegment.newBuilder()
+                        .setStartTimeOffset(duration(start))
+                        .setEndTimeOffset(duration(end))
+                        .build())
+                .setConfidence(confidence)
+                .build();
+    }
+
+    static Duration duration(double seconds) {
+        final long nanos = Math.round(seconds * 1e9);
+        return Duration.newBuilder()
+                .setSeconds(nanos / 1_000_000_000L)
+                .setNanos((int) (nanos % 1_000_000_000L))
+                .build();
+    }
+
+}